@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+
+import java.util.Random;
+
+/**
+ * Synthetic coverage for benchmarks - depth drifts around mean depth in 100 bp blocks with per-base noise,
+ * occasional uncovered gaps and amplified blocks, so samplers, statistics and compact arrays see realistic data.
+ * Data are generated from a fixed seed and are the same in every run.
+ */
+final class BenchmarkData {
+    private static final int BLOCK_SIZE = 100;
+
+    private BenchmarkData() {
+    }
+
+    static int[] createCoverages(int length, int meanDepth, long seed) {
+        Random random = new Random(seed);
+        int[] coverages = new int[length];
+        int depth = meanDepth;
+
+        for (int blockStart = 0; blockStart < length; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + BLOCK_SIZE, length);
+            double block = random.nextDouble();
+
+            depth = Math.max(0, depth + random.nextInt(meanDepth / 5 + 1) - meanDepth / 10);
+            depth = Math.min(depth, meanDepth * 2);
+
+            int blockDepth = block < 0.01 ? 0 : block < 0.02 ? depth * 3 : depth;
+
+            for (int i = blockStart; i < blockEnd; i++)
+                coverages[i] = blockDepth == 0 ? 0 : Math.max(0, blockDepth + random.nextInt(5) - 2);
+        }
+
+        return coverages;
+    }
+
+    /**
+     * @param storage "heap", "compact" or "direct", see {@link CoverageStorage}
+     */
+    static CoverageInfo createCoverageInfo(int length, int meanDepth, int samplingSize, String storage) throws Exception {
+        CoverageInfo coverageInfo = CoverageInfos.create(1, length, createCoverages(length, meanDepth, length));
+        CoverageInfos.setupHts(coverageInfo, "synthetic.bam", samplingSize);
+
+        return getCoverageStorage(storage).store(coverageInfo);
+    }
+
+    static CoverageStorage getCoverageStorage(String storage) throws Exception {
+        switch (storage) {
+            case "compact": return CoverageStorage.of(true, null);
+            case "direct": return CoverageStorage.of(false, "direct");
+            default: return CoverageStorage.HEAP;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.jfree.chart.JFreeChart;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dataset and chart creation for each plot type from two coverage series (HTS and OM like), without rendering.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChartBenchmark {
+    @Param({"HISTOGRAM", "LINE", "SPLINE"})
+    public PlotType plotType;
+
+    @Param({"RANDOM", "ENVELOPE"})
+    public SamplingType samplingType;
+
+    @Param({"10000000"})
+    public int length;
+
+    private CoveragePlotBase coveragePlot;
+    private List<CoverageInfo> coverageInfos;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        CoverageInfo hts = BenchmarkData.createCoverageInfo(length, 30, 100, "heap");
+        CoverageInfo om = BenchmarkData.createCoverageInfo(length, 60, 10, "heap");
+        CoverageInfos.setupOm(om, 10);
+
+        coveragePlot = plotType.createCoveragePlot();
+        coverageInfos = Arrays.asList(hts, om);
+    }
+
+    @Benchmark
+    public CoverageDataset createDataset() {
+        return coveragePlot.createDataset(coverageInfos, samplingType);
+    }
+
+    @Benchmark
+    public JFreeChart createChart() {
+        return coveragePlot.createChart("Synthetic", "position", "coverage", samplingType, coverageInfos);
+    }
+}
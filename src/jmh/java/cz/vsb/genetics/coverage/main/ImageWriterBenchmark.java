@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.jfree.chart.JFreeChart;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of a prepared chart into file for each image format and plot type.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageWriterBenchmark {
+    @Param({"JPG", "PNG", "PDF", "SVG"})
+    public ImageFormat format;
+
+    @Param({"HISTOGRAM", "LINE"})
+    public PlotType plotType;
+
+    private JFreeChart chart;
+    private File outputFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        CoverageInfo coverageInfo = BenchmarkData.createCoverageInfo(1000000, 30, 100, "heap");
+
+        chart = plotType.createCoveragePlot().createChart("Synthetic", "position", "coverage",
+                SamplingType.ENVELOPE, Collections.singletonList(coverageInfo));
+        outputFile = File.createTempFile("benchmark", "." + format.value);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!outputFile.delete())
+            outputFile.deleteOnExit();
+    }
+
+    @Benchmark
+    public long saveImage() throws Exception {
+        ImageWriter.saveImage(outputFile.getPath(), chart, CoveragePlotBase.DEFAULT_WIDTH, 1200, format);
+
+        return outputFile.length();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Median sampling by selection (current {@link CoveragePlotBase} sampler) against the original sampler, which
+ * boxed each sample into a list and sorted it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MedianSamplingBenchmark {
+    @Param({"10000000"})
+    public int length;
+
+    @Param({"100", "1000", "10000"})
+    public int samplingSize;
+
+    private CoverageInfo coverageInfo;
+    private CoverageArray coverages;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        coverageInfo = BenchmarkData.createCoverageInfo(length, 30, samplingSize, "heap");
+        coverages = CoverageArray.of(coverageInfo);
+    }
+
+    @Benchmark
+    public CoverageSeries select() {
+        CoverageSeries series = new CoverageSeries(coverageInfo.getName(), length / (samplingSize - 1) + 2);
+        CoveragePlotBase.sampleMedian(coverageInfo, series, coverages);
+
+        return series;
+    }
+
+    @Benchmark
+    public CoverageSeries baseline() {
+        CoverageSeries series = new CoverageSeries(coverageInfo.getName(), length / (samplingSize - 1) + 2);
+        int[] coverages = coverageInfo.getCoverages();
+        List<Integer> values = new ArrayList<>();
+
+        for (int i = 0; i < coverages.length; i++) {
+            values.add(coverages[i]);
+
+            if (values.size() == samplingSize) {
+                Collections.sort(values);
+                series.add(coverageInfo.getPositionStart() + (i - samplingSize / 2), values.get((values.size() - 1) / 2));
+                values.clear();
+            }
+        }
+
+        if (!values.isEmpty()) {
+            Collections.sort(values);
+            series.add(coverageInfo.getPositionEnd() - values.size() / 2, values.get((values.size() - 1) / 2));
+        }
+
+        return series;
+    }
+}
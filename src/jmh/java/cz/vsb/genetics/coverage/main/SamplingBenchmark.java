@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sampling of a single coverage series into plot dataset for each sampling type and coverage storage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SamplingBenchmark {
+    @Param({"RANDOM", "MEAN", "MEDIAN", "ENVELOPE"})
+    public SamplingType samplingType;
+
+    @Param({"1000000", "50000000"})
+    public int length;
+
+    @Param({"heap", "compact", "direct"})
+    public String storage;
+
+    private CoveragePlotBase coveragePlot;
+    private List<CoverageInfo> coverageInfos;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        coveragePlot = new CoveragePlotHistogramChart();
+        coverageInfos = Collections.singletonList(BenchmarkData.createCoverageInfo(length, 30, 100, storage));
+    }
+
+    @Benchmark
+    public CoverageDataset sample() {
+        return coveragePlot.createDataset(coverageInfos, samplingType);
+    }
+}
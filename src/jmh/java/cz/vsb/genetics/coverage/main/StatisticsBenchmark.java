@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.coverage.CoverageStatistics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Region statistics (min, quartiles, max, mean, standard deviation) of large coverage arrays for each coverage storage,
+ * with library {@link CoverageStatistics} on int array coverage as baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatisticsBenchmark {
+    @Param({"10000000", "100000000"})
+    public int length;
+
+    @Param({"30", "1000"})
+    public int meanDepth;
+
+    @Param({"heap", "compact", "direct"})
+    public String storage;
+
+    private CoverageArray coverages;
+    private CoverageInfo baselineCoverageInfo;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        CoverageInfo coverageInfo = BenchmarkData.createCoverageInfo(length, meanDepth, 0, storage);
+        coverages = CoverageArray.of(coverageInfo);
+        baselineCoverageInfo = storage.equals("heap") ? coverageInfo : BenchmarkData.createCoverageInfo(length, meanDepth, 0, "heap");
+    }
+
+    @Benchmark
+    public int calculateStatistics() {
+        CoverageHistogramStatistics statistics = new CoverageHistogramStatistics();
+        statistics.calculateStatistics(coverages);
+
+        return statistics.mean() + statistics.median() + statistics.standardDeviation();
+    }
+
+    @Benchmark
+    public int calculateStatisticsBaseline() {
+        CoverageStatistics statistics = new CoverageStatistics();
+        statistics.calculateStatistics(baselineCoverageInfo);
+
+        return statistics.mean() + statistics.median() + statistics.standardDeviation();
+    }
+}
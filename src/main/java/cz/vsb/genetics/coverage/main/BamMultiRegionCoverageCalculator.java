@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import htsjdk.samtools.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Calculates HTS coverage of many regions in a single pass over BAM file. Regions are sorted and merged into
+ * query intervals, so each BAM block is decoded only once and every read is counted to all regions it overlaps.
+ * Unmapped, secondary, QC failed and duplicate reads are skipped. Coverage is accumulated directly in arrays of
+ * given {@link CoverageStorage}, so compact and off-heap coverage does not need full int array on heap.
+ */
+public class BamMultiRegionCoverageCalculator implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(BamMultiRegionCoverageCalculator.class);
+
+    private final String bamFile;
+    private final String baiFile;
+    private SamReader samReader;
+    private int mappingQuality = 0;
+    private long readCount = 0;
+    private CoverageStorage coverageStorage = CoverageStorage.HEAP;
+
+    public BamMultiRegionCoverageCalculator(String bamFile, String baiFile) {
+        this.bamFile = bamFile;
+        this.baiFile = baiFile;
+    }
+
+    public void open() throws Exception {
+        samReader = SamReaderFactory.makeDefault()
+                .validationStringency(ValidationStringency.SILENT)
+                .open(SamInputResource.of(new File(bamFile)).index(new File(baiFile)));
+    }
+
+    public void setMappingQuality(int mappingQuality) {
+        this.mappingQuality = mappingQuality;
+    }
+
+    public void setCoverageStorage(CoverageStorage coverageStorage) {
+        this.coverageStorage = coverageStorage;
+    }
+
+    /**
+     * @return number of reads counted to coverage since calculator was created
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    public Map<ChromosomeRegion, CoverageInfo> getRegionsCoverage(List<ChromosomeRegion> regions) throws Exception {
+        Map<ChromosomeRegion, RegionAccumulator> accumulators = new HashMap<>();
+
+        try {
+            for (ChromosomeRegion region : regions) {
+                if (!accumulators.containsKey(region))
+                    accumulators.put(region, new RegionAccumulator(region.getStart(), region.getEnd(), coverageStorage));
+            }
+
+            accumulate(accumulators);
+
+            Map<ChromosomeRegion, CoverageInfo> coverages = new HashMap<>();
+
+            for (Iterator<Map.Entry<ChromosomeRegion, RegionAccumulator>> iterator = accumulators.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<ChromosomeRegion, RegionAccumulator> entry = iterator.next();
+                iterator.remove();
+                coverages.put(entry.getKey(), entry.getValue().finish(coverageStorage));
+            }
+
+            return coverages;
+        }
+        finally {
+            for (RegionAccumulator regionAccumulator : accumulators.values())
+                regionAccumulator.coverages.release();
+        }
+    }
+
+    private void accumulate(Map<ChromosomeRegion, RegionAccumulator> accumulators) throws Exception {
+        SAMSequenceDictionary dictionary = samReader.getFileHeader().getSequenceDictionary();
+        Map<Integer, List<RegionAccumulator>> contigRegions = new HashMap<>();
+        List<QueryInterval> intervals = new ArrayList<>();
+
+        for (Map.Entry<ChromosomeRegion, RegionAccumulator> entry : accumulators.entrySet()) {
+            ChromosomeRegion region = entry.getKey();
+            RegionAccumulator regionAccumulator = entry.getValue();
+
+            SAMSequenceRecord sequence = CoverageInfos.getSequence(dictionary, region.getChromosome());
+
+            if (sequence == null) {
+                log.warn("Contig not found in bam header: " + region.getChromosome() + " - " + bamFile);
+                continue;
+            }
+
+            contigRegions.computeIfAbsent(sequence.getSequenceIndex(), k -> new ArrayList<>()).add(regionAccumulator);
+            intervals.add(new QueryInterval(sequence.getSequenceIndex(), region.getStart(), region.getEnd()));
+        }
+
+        if (intervals.isEmpty())
+            return;
+
+        for (List<RegionAccumulator> regionAccumulators : contigRegions.values())
+            regionAccumulators.sort(Comparator.comparingInt(regionAccumulator -> regionAccumulator.start));
+
+        QueryInterval[] queryIntervals = QueryInterval.optimizeIntervals(intervals.toArray(new QueryInterval[0]));
+
+        try (SAMRecordIterator iterator = samReader.queryOverlapping(queryIntervals)) {
+            List<RegionAccumulator> sorted = Collections.emptyList();
+            List<RegionAccumulator> active = new ArrayList<>();
+            int referenceIndex = -1;
+            int next = 0;
+
+            while (iterator.hasNext()) {
+                SAMRecord record = iterator.next();
+
+                if (!isCounted(record))
+                    continue;
+
+                if (record.getReferenceIndex() != referenceIndex) {
+                    referenceIndex = record.getReferenceIndex();
+                    sorted = contigRegions.getOrDefault(referenceIndex, Collections.emptyList());
+                    active.clear();
+                    next = 0;
+                }
+
+                int start = record.getAlignmentStart();
+                int end = record.getAlignmentEnd();
+
+                while (next < sorted.size() && sorted.get(next).start <= end)
+                    active.add(sorted.get(next++));
+
+                active.removeIf(regionAccumulator -> regionAccumulator.end < start);
+
+                if (active.isEmpty())
+                    continue;
+
+                readCount++;
+
+                for (AlignmentBlock block : record.getAlignmentBlocks()) {
+                    int blockStart = block.getReferenceStart();
+                    int blockEnd = blockStart + block.getLength() - 1;
+
+                    for (RegionAccumulator regionAccumulator : active)
+                        regionAccumulator.add(blockStart, blockEnd);
+                }
+            }
+        }
+
+    }
+
+    private boolean isCounted(SAMRecord record) {
+        return !record.getReadUnmappedFlag()
+                && !record.isSecondaryAlignment()
+                && !record.getReadFailsVendorQualityCheckFlag()
+                && !record.getDuplicateReadFlag()
+                && record.getMappingQuality() >= mappingQuality;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (samReader != null)
+            samReader.close();
+    }
+
+    /**
+     * Coverage of single region accumulated as difference array - each aligned block costs two updates,
+     * prefix sum is applied in place once all reads are processed.
+     */
+    private static class RegionAccumulator {
+        private final int start;
+        private final int end;
+        private final CoverageArray coverages;
+
+        RegionAccumulator(int start, int end, CoverageStorage coverageStorage) throws Exception {
+            this.start = start;
+            this.end = end;
+            this.coverages = coverageStorage.allocate(end - start + 1);
+        }
+
+        void add(int blockStart, int blockEnd) {
+            if (blockEnd < start || blockStart > end)
+                return;
+
+            coverages.add(Math.max(blockStart, start) - start, 1);
+
+            if (blockEnd < end)
+                coverages.add(blockEnd + 1 - start, -1);
+        }
+
+        CoverageInfo finish(CoverageStorage coverageStorage) throws Exception {
+            int coverage = 0;
+
+            for (int i = 0; i < coverages.length(); i++) {
+                coverage += coverages.get(i);
+                coverages.set(i, coverage);
+            }
+
+            return coverageStorage.store(start, end, coverages);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.Chromosome;
+import htsjdk.samtools.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Calculates binned coverage of whole genome in fixed size windows (min, max and sum of coverage per window) in
+ * a single sequential pass over coordinate sorted BAM file, without index and without per-base coverage arrays.
+ * Aligned blocks of reads are kept as start / end events in a heap and coverage between consecutive events is
+ * added to windows, so memory depends only on number of windows and reads overlapping current position.
+ * All contigs of bam header are calculated, unmapped, secondary, QC failed and duplicate reads are not counted.
+ */
+public class BamWindowCoverageCalculator implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(BamWindowCoverageCalculator.class);
+
+    private final String bamFile;
+    private final int windowSize;
+    private SamReader samReader;
+    private int mappingQuality = 0;
+    private long readCount = 0;
+
+    public interface WindowConsumer {
+        void accept(SAMSequenceRecord sequence, Chromosome chromosome, BinnedCoverageInfo coverageInfo) throws Exception;
+    }
+
+    public BamWindowCoverageCalculator(String bamFile, int windowSize) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+
+        this.bamFile = bamFile;
+        this.windowSize = windowSize;
+    }
+
+    public void open() throws Exception {
+        samReader = SamReaderFactory.makeDefault()
+                .validationStringency(ValidationStringency.SILENT)
+                .open(new File(bamFile));
+
+        if (samReader.getFileHeader().getSortOrder() != SAMFileHeader.SortOrder.coordinate)
+            throw new IOException("BAM file is not sorted by coordinate: " + bamFile);
+    }
+
+    public void setMappingQuality(int mappingQuality) {
+        this.mappingQuality = mappingQuality;
+    }
+
+    /**
+     * @return number of reads counted to coverage since calculator was created
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * @return contigs of bam header which are known chromosomes, indexed by sequence index
+     */
+    public Chromosome[] getChromosomes() {
+        SAMSequenceDictionary dictionary = samReader.getFileHeader().getSequenceDictionary();
+        Chromosome[] chromosomes = new Chromosome[dictionary.size()];
+
+        for (Chromosome chromosome : Chromosome.values()) {
+            SAMSequenceRecord sequence = CoverageInfos.getSequence(dictionary, chromosome);
+
+            if (sequence != null)
+                chromosomes[sequence.getSequenceIndex()] = chromosome;
+        }
+
+        return chromosomes;
+    }
+
+    /**
+     * Passes window coverage of each contig to consumer in order of bam header, contigs without reads have zero
+     * coverage. Chromosome is null for contigs which are not known chromosomes.
+     */
+    public void calculate(WindowConsumer consumer) throws Exception {
+        SAMSequenceDictionary dictionary = samReader.getFileHeader().getSequenceDictionary();
+        Chromosome[] chromosomes = getChromosomes();
+        ContigWindows windows = null;
+        int current = -1;
+
+        try (SAMRecordIterator iterator = samReader.iterator()) {
+            while (iterator.hasNext()) {
+                SAMRecord record = iterator.next();
+
+                if (!isCounted(record))
+                    continue;
+
+                int index = record.getReferenceIndex();
+
+                if (index != current) {
+                    if (index < current)
+                        throw new IOException("BAM file is not sorted by coordinate: " + bamFile);
+
+                    finish(windows, current, index, dictionary, chromosomes, consumer);
+                    windows = new ContigWindows(dictionary.getSequence(index), windowSize);
+                    current = index;
+                }
+
+                readCount++;
+                windows.flush(record.getAlignmentStart());
+
+                for (AlignmentBlock block : record.getAlignmentBlocks())
+                    windows.add(block.getReferenceStart(), block.getReferenceStart() + block.getLength() - 1);
+            }
+        }
+
+        finish(windows, current, dictionary.size(), dictionary, chromosomes, consumer);
+    }
+
+    /**
+     * Passes finished windows of current contig and empty windows of contigs up to next contig to consumer.
+     */
+    private void finish(ContigWindows windows, int current, int next, SAMSequenceDictionary dictionary,
+                        Chromosome[] chromosomes, WindowConsumer consumer) throws Exception {
+        if (windows != null)
+            accept(windows, chromosomes[current], consumer);
+
+        for (int index = current + 1; index < next; index++)
+            accept(new ContigWindows(dictionary.getSequence(index), windowSize), chromosomes[index], consumer);
+    }
+
+    private void accept(ContigWindows windows, Chromosome chromosome, WindowConsumer consumer) throws Exception {
+        BinnedCoverageInfo coverageInfo = windows.finish();
+        CoverageInfos.setupHts(coverageInfo, bamFile, 0);
+
+        log.info(String.format("Window coverage calculated for: %s (%d windows) - %s", windows.sequence.getSequenceName(),
+                coverageInfo.getBinCount(), bamFile));
+        consumer.accept(windows.sequence, chromosome, coverageInfo);
+    }
+
+    private boolean isCounted(SAMRecord record) {
+        return !record.getReadUnmappedFlag()
+                && !record.isSecondaryAlignment()
+                && !record.getReadFailsVendorQualityCheckFlag()
+                && !record.getDuplicateReadFlag()
+                && record.getMappingQuality() >= mappingQuality;
+    }
+
+    /**
+     * Joins binned coverages of chromosomes (with the same bin size) one after another into coverage of whole
+     * genome. Genome is longer than int positions allow, so positions are divided by given unit. Each chromosome
+     * starts right after real length of previous ones, last bin of chromosome is usually shorter than bin size.
+     */
+    public static BinnedCoverageInfo concat(List<BinnedCoverageInfo> coverageInfos, int unit) {
+        int binSize = coverageInfos.get(0).getBinSize();
+        int count = coverageInfos.stream().mapToInt(BinnedCoverageInfo::getBinCount).sum();
+        int[] binPositions = new int[count];
+        int[] binLengths = new int[count];
+        int[] mins = new int[count];
+        int[] maxs = new int[count];
+        long[] sums = new long[count];
+        long offset = 0;
+        int bin = 0;
+
+        for (BinnedCoverageInfo coverageInfo : coverageInfos) {
+            if (coverageInfo.getBinSize() != binSize)
+                throw new IllegalArgumentException("Coverages with different bin sizes cannot be joined");
+
+            for (int i = 0; i < coverageInfo.getBinCount(); i++, bin++) {
+                binPositions[bin] = (int) ((offset + coverageInfo.getBinPosition(i) - coverageInfo.getPositionStart()) / unit) + 1;
+                binLengths[bin] = coverageInfo.getBinLength(i);
+                mins[bin] = coverageInfo.getMin(i);
+                maxs[bin] = coverageInfo.getMax(i);
+                sums[bin] = coverageInfo.getSum(i);
+            }
+
+            offset += (long) coverageInfo.getPositionEnd() - coverageInfo.getPositionStart() + 1;
+        }
+
+        BinnedCoverageInfo genome = new BinnedCoverageInfo(1, (int) ((offset - 1) / unit) + 1, Math.max(1, binSize / unit), 1,
+                binPositions, binLengths, mins, maxs, sums);
+        genome.setColor(coverageInfos.get(0).getColor());
+        genome.setName(coverageInfos.get(0).getName());
+
+        return genome;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (samReader != null)
+            samReader.close();
+    }
+
+    /**
+     * Windows of single contig. Coverage changes at positions of pending events (start of aligned block +1, base
+     * after its end -1), bases before position are already added to windows.
+     */
+    private static class ContigWindows {
+        private final SAMSequenceRecord sequence;
+        private final int length;
+        private final int windowSize;
+        private final int[] mins;
+        private final int[] maxs;
+        private final long[] sums;
+        private final EventHeap events = new EventHeap();
+        private int position = 1;
+        private int coverage = 0;
+
+        ContigWindows(SAMSequenceRecord sequence, int windowSize) {
+            this.sequence = sequence;
+            this.length = sequence.getSequenceLength();
+            this.windowSize = windowSize;
+
+            int count = (int) (((long) length - 1) / windowSize) + 1;
+            mins = new int[count];
+            maxs = new int[count];
+            sums = new long[count];
+            Arrays.fill(mins, Integer.MAX_VALUE);
+        }
+
+        void add(int blockStart, int blockEnd) {
+            if (blockStart > length || blockEnd < blockStart)
+                return;
+
+            events.add((long) Math.max(blockStart, 1) << 1 | 1);
+
+            if (blockEnd < length)
+                events.add((long) (blockEnd + 1) << 1);
+        }
+
+        /**
+         * Adds coverage of bases before given position to windows - no later block can start before it.
+         */
+        void flush(int until) {
+            while (!events.isEmpty() && events.peek() >> 1 < until) {
+                long event = events.poll();
+                int eventPosition = (int) (event >> 1);
+
+                addCoverage(position, eventPosition - 1, coverage);
+                position = Math.max(position, eventPosition);
+                coverage += (event & 1) == 1 ? 1 : -1;
+            }
+        }
+
+        BinnedCoverageInfo finish() {
+            flush(Integer.MAX_VALUE);
+            addCoverage(position, length, coverage);
+
+            int[] binLengths = new int[sums.length];
+            for (int i = 0; i < binLengths.length; i++)
+                binLengths[i] = (int) Math.min(windowSize, (long) length - (long) i * windowSize);
+
+            return new BinnedCoverageInfo(1, length, windowSize, 1, binLengths, mins, maxs, sums);
+        }
+
+        private void addCoverage(int from, int to, int coverage) {
+            int window = (from - 1) / windowSize;
+
+            while (from <= to) {
+                int windowEnd = (int) Math.min((long) (window + 1) * windowSize, to);
+
+                sums[window] += (long) coverage * (windowEnd - from + 1);
+
+                if (coverage < mins[window])
+                    mins[window] = coverage;
+
+                if (coverage > maxs[window])
+                    maxs[window] = coverage;
+
+                from = windowEnd + 1;
+                window++;
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of events encoded as position << 1 | (1 for block start).
+     */
+    private static class EventHeap {
+        private long[] events = new long[1024];
+        private int size = 0;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long peek() {
+            return events[0];
+        }
+
+        void add(long event) {
+            if (size == events.length)
+                events = Arrays.copyOf(events, size * 2);
+
+            int i = size++;
+
+            while (i > 0 && events[(i - 1) >> 1] > event) {
+                events[i] = events[(i - 1) >> 1];
+                i = (i - 1) >> 1;
+            }
+
+            events[i] = event;
+        }
+
+        long poll() {
+            long top = events[0];
+            long last = events[--size];
+            int i = 0;
+
+            while (true) {
+                int child = 2 * i + 1;
+
+                if (child >= size)
+                    break;
+
+                if (child + 1 < size && events[child + 1] < events[child])
+                    child++;
+
+                if (events[child] >= last)
+                    break;
+
+                events[i] = events[child];
+                i = child;
+            }
+
+            events[i] = last;
+
+            return top;
+        }
+    }
+}
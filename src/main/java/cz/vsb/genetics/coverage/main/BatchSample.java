@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+package cz.vsb.genetics.coverage.main;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One sample of batch manifest - tab separated line of sample name, bams (separated by semicolon), reference cmap,
+ * query cmap, xmap and output directory. Empty or "-" fields are not used, lines starting with # are comments.
+ */
+public class BatchSample {
+    private static final Logger log = LoggerFactory.getLogger(BatchSample.class);
+
+    private final String name;
+    private final String[] bams;
+    private final String cmapReference;
+    private final String cmapQuery;
+    private final String xmap;
+    private final String outputDir;
+
+    public BatchSample(String name, String[] bams, String cmapReference, String cmapQuery, String xmap, String outputDir) {
+        this.name = name;
+        this.bams = bams;
+        this.cmapReference = cmapReference;
+        this.cmapQuery = cmapQuery;
+        this.xmap = xmap;
+        this.outputDir = outputDir;
+    }
+
+    public static List<BatchSample> read(String manifestFile) throws IOException {
+        List<BatchSample> samples = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringUtils.isBlank(line) || line.startsWith("#"))
+                    continue;
+
+                String[] values = line.split("\t", -1);
+
+                if (values.length < 2 || StringUtils.isBlank(values[0])) {
+                    log.warn("Invalid batch line: " + line);
+                    continue;
+                }
+
+                String bam = getValue(values, 1);
+                BatchSample sample = new BatchSample(values[0].trim(), bam == null ? new String[0] : bam.split(";"),
+                        getValue(values, 2), getValue(values, 3), getValue(values, 4), getValue(values, 5));
+
+                if (sample.bams.length == 0 && !sample.isOm())
+                    throw new IOException("Sample has neither bam nor xmap, query cmap and reference cmap: " + sample.name);
+
+                if (!names.add(sample.name))
+                    throw new IOException("Duplicate sample in batch: " + sample.name);
+
+                samples.add(sample);
+            }
+        }
+
+        return samples;
+    }
+
+    private static String getValue(String[] values, int index) {
+        if (index >= values.length)
+            return null;
+
+        String value = values[index].trim();
+
+        return value.isEmpty() || value.equals("-") ? null : value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getBams() {
+        return bams;
+    }
+
+    public String getCmapReference() {
+        return cmapReference;
+    }
+
+    public String getCmapQuery() {
+        return cmapQuery;
+    }
+
+    public String getXmap() {
+        return xmap;
+    }
+
+    public boolean isOm() {
+        return StringUtils.isNoneBlank(cmapReference, cmapQuery, xmap);
+    }
+
+    /**
+     * @return output directory of the sample, or given default directory when not set
+     */
+    public String getOutputDir(String defaultDir) {
+        if (outputDir == null)
+            return defaultDir;
+
+        return outputDir.endsWith("/") || outputDir.endsWith("\\") ? outputDir : outputDir + "/";
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Statistics of a single batch sample written into temporary files while the sample is calculated. Samples are
+ * written into batch outputs in order of batch manifest, finished samples waiting for previous ones keep their
+ * statistics table rows, low coverage BED and statistics matrix values on disk instead of in memory.
+ *
+ * <pre>
+ * values:  for each region, source and metric: float value, NaN for missing source
+ * </pre>
+ */
+class BatchStatisticsSpool implements AutoCloseable {
+    private final int sources;
+    private final int metrics;
+    private final File rowsFile;
+    private final File bedFile;
+    private final File valuesFile;
+    private final BufferedWriter rows;
+    private final BufferedWriter bed;
+    private final DataOutputStream values;
+    private int regions = 0;
+
+    /**
+     * @param bed    whether low coverage BED is written
+     * @param matrix whether statistics matrix values are written
+     */
+    BatchStatisticsSpool(File dir, int sources, int metrics, boolean bed, boolean matrix) throws IOException {
+        this.sources = sources;
+        this.metrics = metrics;
+        this.rowsFile = createTempFile(dir);
+        this.bedFile = bed ? createTempFile(dir) : null;
+        this.valuesFile = matrix ? createTempFile(dir) : null;
+        this.rows = new BufferedWriter(new FileWriter(rowsFile), 1 << 16);
+        this.bed = bed ? new BufferedWriter(new FileWriter(bedFile), 1 << 16) : null;
+        this.values = matrix ? new DataOutputStream(new BufferedOutputStream(new FileOutputStream(valuesFile), 1 << 16)) : null;
+    }
+
+    private static File createTempFile(File dir) throws IOException {
+        File file = File.createTempFile("batch", ".tmp", dir);
+        file.deleteOnExit();
+
+        return file;
+    }
+
+    void addRows(String rows) throws IOException {
+        this.rows.write(rows);
+    }
+
+    void addBed(String bed) throws IOException {
+        if (this.bed != null)
+            this.bed.write(bed);
+    }
+
+    /**
+     * Adds matrix values of next region.
+     *
+     * @param sourceValues values of each source in order of metrics, missing sources are written as NaN
+     */
+    void addValues(List<float[]> sourceValues) throws IOException {
+        if (values == null)
+            return;
+
+        for (int source = 0; source < sources; source++)
+            for (int metric = 0; metric < metrics; metric++)
+                values.writeFloat(source < sourceValues.size() ? sourceValues.get(source)[metric] : Float.NaN);
+
+        regions++;
+    }
+
+    /**
+     * Appends spooled rows and BED lines to given writers.
+     */
+    void copyTo(Writer rowsWriter, Writer bedWriter) throws IOException {
+        copy(rowsFile, rowsWriter);
+
+        if (bedFile != null && bedWriter != null)
+            copy(bedFile, bedWriter);
+    }
+
+    private static void copy(File file, Writer writer) throws IOException {
+        char[] buffer = new char[1 << 16];
+
+        try (Reader reader = new FileReader(file)) {
+            int count;
+
+            while ((count = reader.read(buffer)) > 0)
+                writer.write(buffer, 0, count);
+        }
+    }
+
+    /**
+     * @return matrix values of each source, metric and region
+     */
+    float[][][] readValues() throws IOException {
+        float[][][] sourceValues = new float[sources][metrics][regions];
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(valuesFile), 1 << 16))) {
+            for (int region = 0; region < regions; region++)
+                for (int source = 0; source < sources; source++)
+                    for (int metric = 0; metric < metrics; metric++)
+                        sourceValues[source][metric][region] = in.readFloat();
+        }
+
+        return sourceValues;
+    }
+
+    /**
+     * Closes spool files for writing, they are read afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        rows.close();
+
+        if (bed != null)
+            bed.close();
+
+        if (values != null)
+            values.close();
+    }
+
+    void delete() {
+        for (File file : new File[] {rowsFile, bedFile, valuesFile})
+            if (file != null && !file.delete())
+                file.deleteOnExit();
+    }
+}
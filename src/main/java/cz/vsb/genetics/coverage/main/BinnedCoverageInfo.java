@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+
+import java.util.Arrays;
+
+/**
+ * Coverage summarized into fixed size bins (min, max and sum of coverage per bin) read from coverage pyramid
+ * or calculated by {@link BamWindowCoverageCalculator}.
+ * Coverages of this info are rounded bin means, bin i starts at position binStart + i * binSize unless positions
+ * of bins are given (bins of joined contigs, see {@link BamWindowCoverageCalculator#concat(java.util.List, int)}).
+ */
+public class BinnedCoverageInfo extends CoverageInfo {
+    private final int binSize;
+    private final int binStart;
+    private final int[] binLengths;
+    private final int[] mins;
+    private final int[] maxs;
+    private final long[] sums;
+    private final int[] binPositions;
+    private boolean approximate;
+
+    public BinnedCoverageInfo(int positionStart, int positionEnd, int binSize, int binStart,
+                              int[] binLengths, int[] mins, int[] maxs, long[] sums) {
+        this(positionStart, positionEnd, binSize, binStart, null, binLengths, mins, maxs, sums);
+    }
+
+    /**
+     * @param binPositions start positions of bins, or null for bins following each other by bin size
+     */
+    public BinnedCoverageInfo(int positionStart, int positionEnd, int binSize, int binStart, int[] binPositions,
+                              int[] binLengths, int[] mins, int[] maxs, long[] sums) {
+        this.binSize = binSize;
+        this.binPositions = binPositions;
+        this.binStart = binStart;
+        this.binLengths = binLengths;
+        this.mins = mins;
+        this.maxs = maxs;
+        this.sums = sums;
+
+        int[] means = new int[sums.length];
+        for (int i = 0; i < means.length; i++)
+            means[i] = binLengths[i] == 0 ? 0 : (int) Math.round((double) sums[i] / binLengths[i]);
+
+        setPositionStart(positionStart);
+        setPositionEnd(positionEnd);
+        setCoverages(means);
+    }
+
+    public int getBinSize() {
+        return binSize;
+    }
+
+    public int getBinCount() {
+        return sums.length;
+    }
+
+    public int getBinPosition(int bin) {
+        return binPositions == null ? binStart + bin * binSize : binPositions[bin];
+    }
+
+    /**
+     * @return number of bases of the bin covered by the file (last bin of contig may be shorter than bin size)
+     */
+    public int getBinLength(int bin) {
+        return binLengths[bin];
+    }
+
+    public int getMin(int bin) {
+        return mins[bin];
+    }
+
+    public int getMax(int bin) {
+        return maxs[bin];
+    }
+
+    public long getSum(int bin) {
+        return sums[bin];
+    }
+
+    public double getMean(int bin) {
+        return binLengths[bin] == 0 ? 0 : (double) sums[bin] / binLengths[bin];
+    }
+
+    /**
+     * @return whether some bins cover bases outside the region and their values are only estimated
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
+    /**
+     * @return coverage with each factor neighbouring bins merged into one
+     */
+    public BinnedCoverageInfo merge(int factor) {
+        int count = (sums.length + factor - 1) / factor;
+        int[] mergedPositions = binPositions == null ? null : new int[count];
+        int[] mergedLengths = new int[count];
+        int[] mergedMins = new int[count];
+        int[] mergedMaxs = new int[count];
+        long[] mergedSums = new long[count];
+
+        Arrays.fill(mergedMins, Integer.MAX_VALUE);
+
+        for (int i = 0; i < sums.length; i++) {
+            int bin = i / factor;
+
+            if (mergedPositions != null && i % factor == 0)
+                mergedPositions[bin] = binPositions[i];
+
+            mergedLengths[bin] += binLengths[i];
+            mergedMins[bin] = Math.min(mergedMins[bin], mins[i]);
+            mergedMaxs[bin] = Math.max(mergedMaxs[bin], maxs[i]);
+            mergedSums[bin] += sums[i];
+        }
+
+        BinnedCoverageInfo merged = new BinnedCoverageInfo(getPositionStart(), getPositionEnd(), binSize * factor, binStart,
+                mergedPositions, mergedLengths, mergedMins, mergedMaxs, mergedSums);
+        merged.setSamplingSize(getSamplingSize());
+        merged.setCoverageLimit(getCoverageLimit());
+        merged.setColor(getColor());
+        merged.setName(getName());
+        merged.setApproximate(approximate);
+
+        return merged;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.om.coverage.BionanoCoverageCalculator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Converts Bionano reference CMAP and XMAP text files into binary index read by {@link BionanoIndexedCoverageCalculator}.
+ * Reference label positions and reference intervals of XMAP alignments are stored per chromosome, sorted by position.
+ * Alignments sorted by start form implicit interval tree - element i is a node at level of its lowest zero bit and
+ * stores maximum end of its subtree, so overlapping alignments are found in logarithmic time plus output size.
+ * Written index is compared with {@link BionanoCoverageCalculator} in random regions and marked verified only when
+ * coverage and site counts are the same.
+ *
+ * <pre>
+ * header:  magic, version, input files id, verified, number of chromosomes,
+ *          for each chromosome: name, site count, sites offset, alignment count, alignments offset, tree root level
+ * data:    sites (int position), alignments (int start, int end, int subtree max end)
+ * </pre>
+ */
+public class BionanoIndexWriter {
+    private static final Logger log = LoggerFactory.getLogger(BionanoIndexWriter.class);
+
+    static final int MAGIC = 0x4C524358;
+    static final int VERSION = 3;
+    static final int ALIGNMENT_INTS = 3;
+
+    private static final int VERIFIED_REGIONS = 8;
+    private static final int VERIFIED_REGION_LENGTH = 1000000;
+
+    private BionanoIndexWriter() {
+    }
+
+    /**
+     * @param indexFile index file name given by user
+     * @return index file of given input files - index file name with suffix derived from input files id, so indexes
+     * of different optical maps never replace each other
+     */
+    public static String getIndexFile(String indexFile, String inputId) throws Exception {
+        return indexFile + "." + CoverageCache.getDigest(inputId).substring(0, 16);
+    }
+
+    /**
+     * Writes index unless the index file already exists and was written for the same input files.
+     *
+     * @param inputId id of input files, see {@link CoverageCache#getInputId(String...)}
+     * @return whether the index is verified
+     */
+    public static boolean writeIfChanged(String cmapRef, String cmapQry, String xmap, String inputId, String indexFile) throws Exception {
+        Boolean verified = readVerified(indexFile, inputId);
+
+        if (verified != null)
+            return verified;
+
+        return write(cmapRef, cmapQry, xmap, inputId, indexFile);
+    }
+
+    /**
+     * @return whether the index is verified, null when it is missing or written for other input files
+     */
+    static Boolean readVerified(String indexFile, String inputId) {
+        if (!new File(indexFile).isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(inputId))
+                return null;
+
+            return in.readBoolean();
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Index is written to unique temporary file and atomically moved over the index file, so concurrent writers
+     * of the same input files do not interfere and readers never see partially written index.
+     */
+    private static boolean write(String cmapRef, String cmapQry, String xmap, String inputId, String indexFile) throws Exception {
+        log.info("Indexing optical maps: " + xmap);
+
+        Map<Chromosome, IntList> sites = readSites(cmapRef);
+        Map<Chromosome, IntList> alignments = readAlignments(xmap);
+        Map<Chromosome, Integer> rootLevels = new EnumMap<>(Chromosome.class);
+
+        for (Map.Entry<Chromosome, IntList> entry : alignments.entrySet())
+            rootLevels.put(entry.getKey(), buildIntervalTree(entry.getValue()));
+
+        for (IntList chromosomeSites : sites.values())
+            chromosomeSites.sort();
+
+        Chromosome[] chromosomes = Arrays.stream(Chromosome.values())
+                .filter(chromosome -> sites.containsKey(chromosome) || alignments.containsKey(chromosome))
+                .toArray(Chromosome[]::new);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeHeader(header, inputId, false, chromosomes, sites, alignments, rootLevels, 0);
+        long headerSize = header.size();
+        header.reset();
+        writeHeader(header, inputId, false, chromosomes, sites, alignments, rootLevels, headerSize);
+
+        File file = new File(indexFile).getAbsoluteFile();
+        File tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getParentFile());
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                header.writeTo(out);
+
+                for (Chromosome chromosome : chromosomes) {
+                    sites.getOrDefault(chromosome, new IntList()).writeTo(out);
+                    alignments.getOrDefault(chromosome, new IntList()).writeTo(out);
+                }
+            }
+
+            boolean verified = verify(cmapRef, cmapQry, xmap, inputId, tmp.getPath(), alignments);
+
+            if (verified) {
+                header.reset();
+                writeHeader(header, inputId, true, chromosomes, sites, alignments, rootLevels, headerSize);
+
+                try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+                    out.write(header.toByteArray());
+                }
+            }
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return verified;
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Compares coverage and site counts of the index with {@link BionanoCoverageCalculator} in random regions around
+     * alignments of each chromosome.
+     */
+    private static boolean verify(String cmapRef, String cmapQry, String xmap, String inputId, String indexFile,
+                                  Map<Chromosome, IntList> alignments) {
+        Random random = new Random(1);
+
+        try (CoverageCalculator expectedCalculator = new BionanoCoverageCalculator(cmapRef, cmapQry, xmap);
+             CoverageCalculator indexCalculator = new BionanoIndexedCoverageCalculator(indexFile, inputId)) {
+            expectedCalculator.open();
+            indexCalculator.open();
+
+            for (Map.Entry<Chromosome, IntList> entry : alignments.entrySet()) {
+                IntList chromosomeAlignments = entry.getValue();
+
+                for (int i = 0; i < VERIFIED_REGIONS; i++) {
+                    int alignment = random.nextInt(chromosomeAlignments.size / ALIGNMENT_INTS);
+                    int start = Math.max(1, chromosomeAlignments.values[alignment * ALIGNMENT_INTS] - random.nextInt(VERIFIED_REGION_LENGTH));
+                    int end = start + random.nextInt(VERIFIED_REGION_LENGTH);
+
+                    CoverageInfo expected = expectedCalculator.getIntervalCoverage(entry.getKey(), start, end);
+                    CoverageInfo coverageInfo = indexCalculator.getIntervalCoverage(entry.getKey(), start, end);
+
+                    if (expected == null || expected.getSiteCount() != coverageInfo.getSiteCount()
+                            || !Arrays.equals(expected.getCoverages(), coverageInfo.getCoverages())) {
+                        log.warn("Optical maps index coverage differs at " + entry.getKey() + ":" + start + "-" + end
+                                + ", cmap and xmap files are parsed instead: " + xmap);
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+        catch (Exception e) {
+            log.warn("Optical maps index not verified, cmap and xmap files are parsed instead: " + xmap + " - " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void writeHeader(ByteArrayOutputStream bytes, String inputId, boolean verified, Chromosome[] chromosomes,
+                                    Map<Chromosome, IntList> sites, Map<Chromosome, IntList> alignments,
+                                    Map<Chromosome, Integer> rootLevels, long offset) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(inputId);
+        out.writeBoolean(verified);
+        out.writeInt(chromosomes.length);
+
+        for (Chromosome chromosome : chromosomes) {
+            IntList chromosomeSites = sites.getOrDefault(chromosome, new IntList());
+            IntList chromosomeAlignments = alignments.getOrDefault(chromosome, new IntList());
+
+            out.writeUTF(chromosome.name());
+            out.writeInt(chromosomeSites.size);
+            out.writeLong(offset);
+            offset += chromosomeSites.size * 4L;
+            out.writeInt(chromosomeAlignments.size / ALIGNMENT_INTS);
+            out.writeLong(offset);
+            offset += chromosomeAlignments.size * 4L;
+            out.writeInt(rootLevels.getOrDefault(chromosome, -1));
+        }
+
+        out.flush();
+    }
+
+    private static Map<Chromosome, IntList> readSites(String cmapRef) throws IOException {
+        Map<Chromosome, IntList> sites = new EnumMap<>(Chromosome.class);
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(cmapRef), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] values = line.split("\t");
+
+                if (values.length < 6) {
+                    log.warn("Invalid cmap line: " + line);
+                    continue;
+                }
+
+                Chromosome chromosome = getChromosome(values[0]);
+
+                // label channel 0 marks end of the contig, not a label
+                if (chromosome == null || values[4].trim().equals("0"))
+                    continue;
+
+                sites.computeIfAbsent(chromosome, k -> new IntList()).add(getPosition(values[5]));
+            }
+        }
+
+        return sites;
+    }
+
+    private static Map<Chromosome, IntList> readAlignments(String xmap) throws IOException {
+        Map<Chromosome, IntList> alignments = new EnumMap<>(Chromosome.class);
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(xmap), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] values = line.split("\t");
+
+                if (values.length < 7) {
+                    log.warn("Invalid xmap line: " + line);
+                    continue;
+                }
+
+                Chromosome chromosome = getChromosome(values[2]);
+
+                if (chromosome == null)
+                    continue;
+
+                int start = getPosition(values[5]);
+                int end = getPosition(values[6]);
+
+                IntList chromosomeAlignments = alignments.computeIfAbsent(chromosome, k -> new IntList());
+                chromosomeAlignments.add(Math.min(start, end));
+                chromosomeAlignments.add(Math.max(start, end));
+                chromosomeAlignments.add(0);
+            }
+        }
+
+        return alignments;
+    }
+
+    /**
+     * Sorts (start, end, max end) alignments by start and fills subtree max ends of implicit interval tree.
+     *
+     * @return level of the tree root, -1 for no alignments
+     */
+    static int buildIntervalTree(IntList alignments) {
+        int[] values = alignments.values;
+        int count = alignments.size / ALIGNMENT_INTS;
+        long[] packed = new long[count];
+
+        for (int i = 0; i < count; i++)
+            packed[i] = ((long) values[i * ALIGNMENT_INTS] << 32) | (values[i * ALIGNMENT_INTS + 1] & 0xFFFFFFFFL);
+
+        Arrays.sort(packed);
+
+        for (int i = 0; i < count; i++) {
+            values[i * ALIGNMENT_INTS] = (int) (packed[i] >>> 32);
+            values[i * ALIGNMENT_INTS + 1] = (int) packed[i];
+        }
+
+        if (count == 0)
+            return -1;
+
+        // leaves (even indexes) - max end is the end itself
+        int lastIndex = 0;
+        int lastMaxEnd = 0;
+        for (int i = 0; i < count; i += 2) {
+            lastIndex = i;
+            lastMaxEnd = values[i * ALIGNMENT_INTS + 2] = values[i * ALIGNMENT_INTS + 1];
+        }
+
+        // inner nodes level by level, missing right subtree of the last node is represented by the last max end
+        int level = 1;
+        for (; 1L << level <= count; level++) {
+            int half = 1 << (level - 1);
+
+            for (long i = (half << 1) - 1; i < count; i += (long) half << 2) {
+                int node = (int) i;
+                int left = values[(node - half) * ALIGNMENT_INTS + 2];
+                int right = (long) node + half < count ? values[(node + half) * ALIGNMENT_INTS + 2] : lastMaxEnd;
+
+                values[node * ALIGNMENT_INTS + 2] = Math.max(values[node * ALIGNMENT_INTS + 1], Math.max(left, right));
+            }
+
+            lastIndex = (lastIndex >> level & 1) != 0 ? lastIndex - half : lastIndex + half;
+
+            if (lastIndex < count && values[lastIndex * ALIGNMENT_INTS + 2] > lastMaxEnd)
+                lastMaxEnd = values[lastIndex * ALIGNMENT_INTS + 2];
+        }
+
+        return level - 1;
+    }
+
+    /**
+     * Bionano reference contig ids: 1 - 22 autosomes, 23 chromosome X, 24 chromosome Y.
+     */
+    static Chromosome getChromosome(String contigId) {
+        String id = contigId.trim();
+        String name = id.equals("23") ? "chrX" : id.equals("24") ? "chrY" : "chr" + id;
+
+        try {
+            return Chromosome.valueOf(name);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int getPosition(String value) {
+        return (int) Math.round(Double.parseDouble(value.trim()));
+    }
+
+    static class IntList {
+        int[] values = new int[16];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+
+            values[size++] = value;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            for (int i = 0; i < size; i++)
+                out.writeInt(values[i]);
+        }
+    }
+}
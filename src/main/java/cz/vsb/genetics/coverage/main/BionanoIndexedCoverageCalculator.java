@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.om.coverage.BionanoCoverageCalculator;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Optical maps coverage calculator reading memory mapped index written by {@link BionanoIndexWriter} instead of
+ * parsing CMAP and XMAP files. Coverage of a position is the number of XMAP alignments covering it on reference,
+ * site count is the number of reference labels in the region. Labels in a region are found by binary search,
+ * overlapping alignments by traversal of implicit interval tree, so a region query takes logarithmic time plus
+ * number of overlapping alignments. Index is used only when it is verified to give the same coverage as
+ * {@link BionanoCoverageCalculator}, see {@link BionanoIndexWriter}.
+ */
+public class BionanoIndexedCoverageCalculator implements CoverageCalculator {
+    private final String indexFile;
+    private final String inputId;
+    private final Map<Chromosome, IntBuffer> sites = new EnumMap<>(Chromosome.class);
+    private final Map<Chromosome, IntBuffer> alignments = new EnumMap<>(Chromosome.class);
+    private final Map<Chromosome, Integer> rootLevels = new EnumMap<>(Chromosome.class);
+
+    /**
+     * @param inputId id of input files the index must be written for, see {@link CoverageCache#getInputId(String...)}
+     */
+    public BionanoIndexedCoverageCalculator(String indexFile, String inputId) {
+        this.indexFile = indexFile;
+        this.inputId = inputId;
+    }
+
+    /**
+     * @param indexFile index file name, actual index file has suffix of input files, see {@link BionanoIndexWriter#getIndexFile}
+     * @return calculator using index file (index is created or updated first if needed), or calculator parsing
+     * CMAP and XMAP files when no index file is given or the index is not verified
+     */
+    public static CoverageCalculator create(String cmapRef, String cmapQry, String xmap, String indexFile) throws Exception {
+        if (indexFile == null)
+            return new BionanoCoverageCalculator(cmapRef, cmapQry, xmap);
+
+        String inputId = CoverageCache.getInputId(cmapRef, cmapQry, xmap);
+        String inputIndexFile = BionanoIndexWriter.getIndexFile(indexFile, inputId);
+
+        if (!BionanoIndexWriter.writeIfChanged(cmapRef, cmapQry, xmap, inputId, inputIndexFile))
+            return new BionanoCoverageCalculator(cmapRef, cmapQry, xmap);
+
+        return new BionanoIndexedCoverageCalculator(inputIndexFile, inputId);
+    }
+
+    /**
+     * Header is read from the same open file as is mapped, so replacing the index file meanwhile is harmless.
+     */
+    @Override
+    public void open() throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = file.getChannel()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+            if (in.readInt() != BionanoIndexWriter.MAGIC || in.readInt() != BionanoIndexWriter.VERSION)
+                throw new IOException("Invalid optical maps index file: " + indexFile);
+
+            if (!in.readUTF().equals(inputId))
+                throw new IOException("Optical maps index file is written for other input files: " + indexFile);
+
+            in.readBoolean();
+            int chromosomes = in.readInt();
+
+            for (int i = 0; i < chromosomes; i++) {
+                Chromosome chromosome = Chromosome.valueOf(in.readUTF());
+                int siteCount = in.readInt();
+                long sitesOffset = in.readLong();
+                int alignmentCount = in.readInt();
+                long alignmentsOffset = in.readLong();
+
+                rootLevels.put(chromosome, in.readInt());
+                sites.put(chromosome, channel.map(FileChannel.MapMode.READ_ONLY, sitesOffset, siteCount * 4L).asIntBuffer());
+                alignments.put(chromosome, channel.map(FileChannel.MapMode.READ_ONLY, alignmentsOffset,
+                        alignmentCount * 4L * BionanoIndexWriter.ALIGNMENT_INTS).asIntBuffer());
+            }
+        }
+    }
+
+    @Override
+    public void setMappingQuality(int mappingQuality) {
+    }
+
+    @Override
+    public CoverageInfo getIntervalCoverage(Chromosome chromosome, int start, int end) {
+        int[] coverages = new int[end - start + 1];
+        CoverageInfo coverageInfo = CoverageInfos.create(start, end, coverages);
+
+        IntBuffer chromosomeSites = sites.get(chromosome);
+        if (chromosomeSites != null)
+            coverageInfo.setSiteCount(lowerBound(chromosomeSites, 1, 0, end + 1) - lowerBound(chromosomeSites, 1, 0, start));
+
+        IntBuffer chromosomeAlignments = alignments.get(chromosome);
+        if (chromosomeAlignments == null)
+            return coverageInfo;
+
+        findOverlaps(chromosomeAlignments, rootLevels.get(chromosome), start, end, alignment -> {
+            int alignmentEnd = chromosomeAlignments.get(alignment * BionanoIndexWriter.ALIGNMENT_INTS + 1);
+            coverages[Math.max(start, chromosomeAlignments.get(alignment * BionanoIndexWriter.ALIGNMENT_INTS)) - start]++;
+
+            if (alignmentEnd < end)
+                coverages[alignmentEnd + 1 - start]--;
+        });
+
+        for (int i = 1; i < coverages.length; i++)
+            coverages[i] += coverages[i - 1];
+
+        return coverageInfo;
+    }
+
+    /**
+     * Traverses implicit interval tree top-down and passes indexes of alignments overlapping [start, end] to consumer.
+     * Subtrees are skipped when their max end is before the region or their first start is after the region,
+     * small subtrees are scanned linearly.
+     */
+    static void findOverlaps(IntBuffer alignments, int rootLevel, int start, int end, IntConsumer consumer) {
+        int count = alignments.limit() / BionanoIndexWriter.ALIGNMENT_INTS;
+
+        if (rootLevel < 0)
+            return;
+
+        long[] nodes = new long[64];
+        int[] levels = new int[64];
+        boolean[] leftDone = new boolean[64];
+        int top = 0;
+
+        nodes[top] = (1L << rootLevel) - 1;
+        levels[top] = rootLevel;
+        leftDone[top++] = false;
+
+        while (top > 0) {
+            top--;
+            long node = nodes[top];
+            int level = levels[top];
+
+            if (level <= 3) {
+                long first = node >> level << level;
+                long last = Math.min(first + (1L << (level + 1)) - 1, count);
+
+                for (long i = first; i < last && alignments.get((int) i * BionanoIndexWriter.ALIGNMENT_INTS) <= end; i++)
+                    if (alignments.get((int) i * BionanoIndexWriter.ALIGNMENT_INTS + 1) >= start)
+                        consumer.accept((int) i);
+            }
+            else if (!leftDone[top]) {
+                long left = node - (1L << (level - 1));
+
+                leftDone[top++] = true;
+
+                if (left >= count || alignments.get((int) left * BionanoIndexWriter.ALIGNMENT_INTS + 2) >= start) {
+                    nodes[top] = left;
+                    levels[top] = level - 1;
+                    leftDone[top++] = false;
+                }
+            }
+            else if (node < count && alignments.get((int) node * BionanoIndexWriter.ALIGNMENT_INTS) <= end) {
+                if (alignments.get((int) node * BionanoIndexWriter.ALIGNMENT_INTS + 1) >= start)
+                    consumer.accept((int) node);
+
+                nodes[top] = node + (1L << (level - 1));
+                levels[top] = level - 1;
+                leftDone[top++] = false;
+            }
+        }
+    }
+
+    /**
+     * @return index of first record whose value at given field is not less than given value
+     */
+    static int lowerBound(IntBuffer buffer, int recordSize, int field, long value) {
+        int low = 0;
+        int high = buffer.limit() / recordSize;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (buffer.get(middle * recordSize + field) < value)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    @Override
+    public void close() {
+        sites.clear();
+        alignments.clear();
+    }
+}
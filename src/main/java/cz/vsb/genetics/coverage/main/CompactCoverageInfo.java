@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+
+/**
+ * Coverage info holding coverage in {@link CoverageArray} (compact or off-heap) instead of int array, see
+ * {@link CoverageStorage}. Samplers and statistics read the array directly, {@link #getCoverages()} decodes it
+ * into a new int array on every call. Off-heap memory is freed by {@link CoverageStorage#release(CoverageInfo)}.
+ */
+public class CompactCoverageInfo extends CoverageInfo {
+    private final CoverageArray coverageArray;
+
+    public CompactCoverageInfo(CoverageInfo coverageInfo, CoverageArray coverageArray) {
+        this.coverageArray = coverageArray;
+
+        setPositionStart(coverageInfo.getPositionStart());
+        setPositionEnd(coverageInfo.getPositionEnd());
+        setSiteCount(coverageInfo.getSiteCount());
+        setSamplingSize(coverageInfo.getSamplingSize());
+        setCoverageLimit(coverageInfo.getCoverageLimit());
+        setColor(coverageInfo.getColor());
+        setName(coverageInfo.getName());
+    }
+
+    public CompactCoverageInfo(int positionStart, int positionEnd, CoverageArray coverageArray) {
+        this.coverageArray = coverageArray;
+
+        setPositionStart(positionStart);
+        setPositionEnd(positionEnd);
+    }
+
+    public CoverageArray getCoverageArray() {
+        return coverageArray;
+    }
+
+    @Override
+    public int[] getCoverages() {
+        return coverageArray.toArray();
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of per-base coverage used by samplers and statistics, independent of how coverage is stored.
+ * Compact arrays store each depth in a byte or a short when the maximum depth allows it, or store runs of equal
+ * depth (run-length encoding) when coverage is piecewise constant, whichever is smaller. Off-heap arrays keep
+ * values in direct memory or in memory mapped temporary file, so they do not occupy Java heap. Arrays created by
+ * {@link #allocate(int, File)} are writable, so calculators accumulate coverage directly outside of Java heap.
+ */
+public abstract class CoverageArray {
+    public abstract int length();
+
+    public abstract int get(int index);
+
+    /**
+     * @return approximate number of Java heap bytes used by coverage values
+     */
+    public abstract long getSize();
+
+    /**
+     * Writes value of writable array, see {@link #allocate(int, File)}.
+     */
+    void set(int index, int value) {
+        throw new UnsupportedOperationException("Coverage array is read-only");
+    }
+
+    void add(int index, int delta) {
+        set(index, get(index) + delta);
+    }
+
+    /**
+     * Frees off-heap memory of the array right away instead of waiting for garbage collection. The array must not
+     * be read afterwards. Arrays on heap and slices do not own any off-heap memory, so they are not affected.
+     */
+    public void release() {
+    }
+
+    public int[] toArray() {
+        int[] coverages = new int[length()];
+
+        for (int i = 0; i < coverages.length; i++)
+            coverages[i] = get(i);
+
+        return coverages;
+    }
+
+    /**
+     * @return view of values from given index without copying them
+     */
+    public CoverageArray slice(int from, int length) {
+        if (from < 0 || length < 0 || from + length > length())
+            throw new IndexOutOfBoundsException("Slice " + from + "+" + length + " of " + length());
+
+        return new SliceArray(this, from, length);
+    }
+
+    /**
+     * @return view of coverage info - compact coverage is used directly, plain coverage array is wrapped without copying
+     */
+    public static CoverageArray of(CoverageInfo coverageInfo) {
+        if (coverageInfo instanceof CompactCoverageInfo)
+            return ((CompactCoverageInfo) coverageInfo).getCoverageArray();
+
+        return of(coverageInfo.getCoverages());
+    }
+
+    public static CoverageArray of(int[] coverages) {
+        return new IntArray(coverages);
+    }
+
+    /**
+     * @return writable zero filled array of int values - in direct memory, or in memory mapped temporary file
+     * of given directory
+     */
+    static CoverageArray allocate(int length, File tempDir) throws IOException {
+        return new BufferArray(length, 4, tempDir);
+    }
+
+    public static CoverageArray create(int[] coverages, boolean runLength, boolean offHeap, File tempDir) throws IOException {
+        return create(of(coverages), runLength, offHeap, tempDir);
+    }
+
+    /**
+     * Stores coverage in the narrowest of byte, short and int values.
+     *
+     * @param runLength whether run-length encoding (kept on heap) may be used when it is smaller
+     * @param offHeap   whether values are stored outside of Java heap
+     * @param tempDir   directory for memory mapped temporary files of off-heap values, or null for direct memory
+     */
+    public static CoverageArray create(CoverageArray coverages, boolean runLength, boolean offHeap, File tempDir) throws IOException {
+        int min = 0;
+        int max = 0;
+        int runs = coverages.length() == 0 ? 0 : 1;
+        int previous = 0;
+
+        for (int i = 0; i < coverages.length(); i++) {
+            int coverage = coverages.get(i);
+
+            if (coverage < min)
+                min = coverage;
+            else if (coverage > max)
+                max = coverage;
+
+            if (i > 0 && coverage != previous)
+                runs++;
+
+            previous = coverage;
+        }
+
+        int width = min < 0 || max > 0xFFFF ? 4 : max > 0xFF ? 2 : 1;
+
+        if (runLength && (long) runs * 8 < (long) coverages.length() * width)
+            return new RunLengthArray(coverages, runs);
+
+        if (offHeap)
+            return new BufferArray(coverages, width, tempDir);
+
+        switch (width) {
+            case 1: return new ByteArray(coverages);
+            case 2: return new ShortArray(coverages);
+            default: return new IntArray(coverages.toArray());
+        }
+    }
+
+    private static class IntArray extends CoverageArray {
+        private final int[] coverages;
+
+        IntArray(int[] coverages) {
+            this.coverages = coverages;
+        }
+
+        @Override
+        public int length() {
+            return coverages.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return coverages[index];
+        }
+
+        @Override
+        void set(int index, int value) {
+            coverages[index] = value;
+        }
+
+        @Override
+        void add(int index, int delta) {
+            coverages[index] += delta;
+        }
+
+        @Override
+        public long getSize() {
+            return coverages.length * 4L;
+        }
+
+        @Override
+        public int[] toArray() {
+            return coverages;
+        }
+    }
+
+    private static class ByteArray extends CoverageArray {
+        private final byte[] coverages;
+
+        ByteArray(CoverageArray coverages) {
+            this.coverages = new byte[coverages.length()];
+
+            for (int i = 0; i < this.coverages.length; i++)
+                this.coverages[i] = (byte) coverages.get(i);
+        }
+
+        @Override
+        public int length() {
+            return coverages.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return coverages[index] & 0xFF;
+        }
+
+        @Override
+        public long getSize() {
+            return coverages.length;
+        }
+    }
+
+    private static class ShortArray extends CoverageArray {
+        private final short[] coverages;
+
+        ShortArray(CoverageArray coverages) {
+            this.coverages = new short[coverages.length()];
+
+            for (int i = 0; i < this.coverages.length; i++)
+                this.coverages[i] = (short) coverages.get(i);
+        }
+
+        @Override
+        public int length() {
+            return coverages.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return coverages[index] & 0xFFFF;
+        }
+
+        @Override
+        public long getSize() {
+            return coverages.length * 2L;
+        }
+    }
+
+    private static class BufferArray extends CoverageArray {
+        private ByteBuffer buffer;
+        private final int width;
+        private final int length;
+
+        BufferArray(int length, int width, File tempDir) throws IOException {
+            this.width = width;
+            this.length = length;
+            this.buffer = allocate((long) length * width, tempDir).order(ByteOrder.nativeOrder());
+        }
+
+        BufferArray(CoverageArray coverages, int width, File tempDir) throws IOException {
+            this(coverages.length(), width, tempDir);
+
+            for (int i = 0; i < length; i++)
+                set(i, coverages.get(i));
+        }
+
+        /**
+         * Temporary file is deleted right after mapping, mapped memory stays valid until the buffer is released.
+         */
+        private static ByteBuffer allocate(long size, File tempDir) throws IOException {
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Coverage is too large for off-heap buffer: " + size + " bytes");
+
+            if (tempDir == null)
+                return ByteBuffer.allocateDirect((int) size);
+
+            File file = File.createTempFile("coverage", ".tmp", tempDir);
+
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                 FileChannel channel = randomAccessFile.getChannel()) {
+                randomAccessFile.setLength(size);
+
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            finally {
+                if (!file.delete())
+                    file.deleteOnExit();
+            }
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int get(int index) {
+            switch (width) {
+                case 1: return buffer.get(index) & 0xFF;
+                case 2: return buffer.getShort(index * 2) & 0xFFFF;
+                default: return buffer.getInt(index * 4);
+            }
+        }
+
+        @Override
+        void set(int index, int value) {
+            switch (width) {
+                case 1: buffer.put(index, (byte) value); break;
+                case 2: buffer.putShort(index * 2, (short) value); break;
+                default: buffer.putInt(index * 4, value); break;
+            }
+        }
+
+        @Override
+        public long getSize() {
+            return 0;
+        }
+
+        /**
+         * Buffer is dropped before it is freed, so later reads fail with exception instead of reading freed memory.
+         */
+        @Override
+        public void release() {
+            ByteBuffer released = buffer;
+            buffer = null;
+
+            if (released != null)
+                BufferCleaner.clean(released);
+        }
+    }
+
+    /**
+     * Frees direct and mapped buffers by their cleaner - sun.misc.Unsafe.invokeCleaner on Java 9 and newer, cleaner()
+     * of the buffer on Java 8. When neither is accessible, the buffer is left to garbage collection.
+     */
+    private static class BufferCleaner {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner;
+
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            }
+            catch (Exception e) {
+                invokeCleaner = null;
+            }
+
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void clean(ByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    return;
+                }
+
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            catch (Exception e) {
+                // left to garbage collection
+            }
+        }
+    }
+
+    private static class SliceArray extends CoverageArray {
+        private final CoverageArray coverages;
+        private final int from;
+        private final int length;
+
+        SliceArray(CoverageArray coverages, int from, int length) {
+            this.coverages = coverages;
+            this.from = from;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int get(int index) {
+            return coverages.get(from + index);
+        }
+
+        @Override
+        public long getSize() {
+            return 0;
+        }
+    }
+
+    /**
+     * Runs of equal coverage - run i covers indexes from runEnds[i - 1] (or 0) to runEnds[i] exclusive. Reads are
+     * mostly sequential, so the last used run is remembered and checked before binary search.
+     */
+    private static class RunLengthArray extends CoverageArray {
+        private final int length;
+        private final int[] runEnds;
+        private final int[] values;
+        private int lastRun = 0;
+
+        RunLengthArray(CoverageArray coverages, int runs) {
+            length = coverages.length();
+            runEnds = new int[runs];
+            values = new int[runs];
+
+            int run = 0;
+            int previous = length == 0 ? 0 : coverages.get(0);
+
+            for (int i = 1; i <= length; i++) {
+                int coverage = i == length ? 0 : coverages.get(i);
+
+                if (i == length || coverage != previous) {
+                    runEnds[run] = i;
+                    values[run++] = previous;
+                }
+
+                previous = coverage;
+            }
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int get(int index) {
+            int run = lastRun;
+
+            if (!isInRun(index, run)) {
+                run = isInRun(index, run + 1) ? run + 1 : findRun(index);
+                lastRun = run;
+            }
+
+            return values[run];
+        }
+
+        private boolean isInRun(int index, int run) {
+            return run < runEnds.length && index < runEnds[run] && (run == 0 || index >= runEnds[run - 1]);
+        }
+
+        private int findRun(int index) {
+            if (index < 0 || index >= length)
+                throw new ArrayIndexOutOfBoundsException(index);
+
+            int low = 0;
+            int high = runEnds.length - 1;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (runEnds[middle] <= index)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+
+            return low;
+        }
+
+        @Override
+        public long getSize() {
+            return runEnds.length * 8L;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On-disk cache of calculated coverage. Entries are identified by input files (path, size and modification time),
+ * region and calculation parameters, so changed input files are never served from the cache. Coverage is stored
+ * as zig-zag encoded differences of neighbouring values in deflate compressed variable-length integers. When
+ * the cache exceeds its size limit, least recently used entries are removed.
+ */
+public class CoverageCache {
+    private static final Logger log = LoggerFactory.getLogger(CoverageCache.class);
+
+    private static final int MAGIC = 0x4C524343;
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".cov";
+
+    private final File cacheDir;
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong();
+
+    public CoverageCache(String cacheDir, long maxSize) throws IOException {
+        this.cacheDir = new File(cacheDir);
+        this.maxSize = maxSize;
+
+        if (!this.cacheDir.isDirectory() && !this.cacheDir.mkdirs())
+            throw new IOException("Cannot create cache directory: " + cacheDir);
+
+        for (File file : getEntries())
+            size.addAndGet(file.length());
+    }
+
+    /**
+     * @return identification of input files - path, size and modification time of each file
+     */
+    public static String getInputId(String... files) throws IOException {
+        StringBuilder id = new StringBuilder();
+
+        for (String file : files) {
+            File input = new File(file);
+            id.append(input.getCanonicalPath()).append('|').append(input.length()).append('|').append(input.lastModified()).append('|');
+        }
+
+        return id.toString();
+    }
+
+    /**
+     * @param multiRegion whether coverage is calculated by {@link BamMultiRegionCoverageCalculator}, which filters
+     *                    reads on its own, so its coverage is never served to the library calculators and vice versa
+     */
+    public static String getHtsKey(String inputId, ChromosomeRegion region, int mappingQuality, boolean multiRegion) throws Exception {
+        return getKey(inputId, region, "hts|mq=" + mappingQuality + (multiRegion ? "|multi" : ""));
+    }
+
+    /**
+     * @param indexed whether coverage is calculated from optical maps index, see {@link BionanoIndexedCoverageCalculator}
+     */
+    public static String getOmKey(String inputId, ChromosomeRegion region, boolean indexed) throws Exception {
+        return getKey(inputId, region, indexed ? "om|index" : "om");
+    }
+
+    private static String getKey(String inputId, ChromosomeRegion region, String parameters) throws Exception {
+        return getDigest(inputId + region.getChromosome().name() + ":" + region.getStart() + "-" + region.getEnd() + "|" + parameters);
+    }
+
+    /**
+     * @return SHA-1 of given value in hex
+     */
+    static String getDigest(String value) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest)
+            hex.append(String.format("%02x", b));
+
+        return hex.toString();
+    }
+
+    /**
+     * @return cached coverage or null if there is no valid entry for given key
+     */
+    public CoverageInfo get(String key) {
+        File file = new File(cacheDir, key + EXTENSION);
+
+        if (!file.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+
+            int positionStart = in.readInt();
+            int positionEnd = in.readInt();
+            int siteCount = in.readInt();
+            int[] coverages = new int[in.readInt()];
+
+            Inflater inflater = new Inflater();
+            try {
+                readCoverages(new InflaterInputStream(in, inflater, 65536), coverages);
+            }
+            finally {
+                inflater.end();
+            }
+
+            CoverageInfo coverageInfo = CoverageInfos.create(positionStart, positionEnd, coverages);
+            coverageInfo.setSiteCount(siteCount);
+
+            file.setLastModified(System.currentTimeMillis());
+
+            return coverageInfo;
+        }
+        catch (Exception e) {
+            log.warn("Invalid coverage cache entry: " + file + " - " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String key, CoverageInfo coverageInfo) {
+        File file = new File(cacheDir, key + EXTENSION);
+        File tmp = new File(cacheDir, key + "." + Thread.currentThread().getId() + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                CoverageArray coverages = CoverageArray.of(coverageInfo);
+
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(coverageInfo.getPositionStart());
+                out.writeInt(coverageInfo.getPositionEnd());
+                out.writeInt(coverageInfo.getSiteCount());
+                out.writeInt(coverages.length());
+
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, 65536);
+                    writeCoverages(deflaterOut, coverages);
+                    deflaterOut.finish();
+                }
+                finally {
+                    deflater.end();
+                }
+            }
+
+            long previousSize = file.length();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            if (size.addAndGet(file.length() - previousSize) > maxSize)
+                evict();
+        }
+        catch (Exception e) {
+            log.warn("Cannot write coverage cache entry: " + file + " - " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    private synchronized void evict() {
+        File[] entries = getEntries();
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+
+        for (File entry : entries) {
+            if (size.get() <= maxSize)
+                break;
+
+            long length = entry.length();
+
+            if (entry.delete())
+                size.addAndGet(-length);
+        }
+    }
+
+    private File[] getEntries() {
+        File[] entries = cacheDir.listFiles((dir, name) -> name.endsWith(EXTENSION));
+
+        return entries == null ? new File[0] : entries;
+    }
+
+    private static void writeCoverages(OutputStream out, CoverageArray coverages) throws IOException {
+        byte[] buffer = new byte[65536];
+        int length = 0;
+        int previous = 0;
+
+        for (int i = 0; i < coverages.length(); i++) {
+            int coverage = coverages.get(i);
+
+            if (length > buffer.length - 5) {
+                out.write(buffer, 0, length);
+                length = 0;
+            }
+
+            int delta = coverage - previous;
+            int value = (delta << 1) ^ (delta >> 31);
+            previous = coverage;
+
+            while ((value & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            buffer[length++] = (byte) value;
+        }
+
+        out.write(buffer, 0, length);
+    }
+
+    private static void readCoverages(InputStream in, int[] coverages) throws IOException {
+        byte[] buffer = new byte[65536];
+        int length = 0;
+        int position = 0;
+        int previous = 0;
+
+        for (int i = 0; i < coverages.length; i++) {
+            int value = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                if (position == length) {
+                    length = in.read(buffer);
+                    position = 0;
+
+                    if (length <= 0)
+                        throw new EOFException("Unexpected end of coverage data");
+                }
+
+                b = buffer[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            previous += (value >>> 1) ^ -(value & 1);
+            coverages[i] = previous;
+        }
+    }
+}
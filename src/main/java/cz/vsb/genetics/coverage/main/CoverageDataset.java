@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import org.jfree.data.xy.AbstractIntervalXYDataset;
+import org.jfree.data.xy.IntervalXYDelegate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lightweight JFreeChart dataset over sampled coverage series. Unlike XYSeriesCollection it does not create
+ * data item objects or box values, chart reads primitive arrays of the series directly. Bar width for histogram
+ * plots is fixed to 1 as in XYSeriesCollection.
+ */
+public class CoverageDataset extends AbstractIntervalXYDataset {
+    private final List<CoverageSeries> series = new ArrayList<>();
+    private final IntervalXYDelegate intervalDelegate;
+
+    public CoverageDataset() {
+        intervalDelegate = new IntervalXYDelegate(this, false);
+        addChangeListener(intervalDelegate);
+    }
+
+    public void addSeries(CoverageSeries coverageSeries) {
+        series.add(coverageSeries);
+        fireDatasetChanged();
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return series.size();
+    }
+
+    @Override
+    public Comparable getSeriesKey(int series) {
+        return this.series.get(series).getName();
+    }
+
+    @Override
+    public int getItemCount(int series) {
+        return this.series.get(series).size();
+    }
+
+    @Override
+    public Number getX(int series, int item) {
+        return getXValue(series, item);
+    }
+
+    @Override
+    public double getXValue(int series, int item) {
+        return this.series.get(series).getPosition(item);
+    }
+
+    @Override
+    public Number getY(int series, int item) {
+        return getYValue(series, item);
+    }
+
+    @Override
+    public double getYValue(int series, int item) {
+        return this.series.get(series).getValue(item);
+    }
+
+    @Override
+    public Number getStartX(int series, int item) {
+        return intervalDelegate.getStartX(series, item);
+    }
+
+    @Override
+    public double getStartXValue(int series, int item) {
+        return intervalDelegate.getStartXValue(series, item);
+    }
+
+    @Override
+    public Number getEndX(int series, int item) {
+        return intervalDelegate.getEndX(series, item);
+    }
+
+    @Override
+    public double getEndXValue(int series, int item) {
+        return intervalDelegate.getEndXValue(series, item);
+    }
+
+    @Override
+    public Number getStartY(int series, int item) {
+        return getY(series, item);
+    }
+
+    @Override
+    public double getStartYValue(int series, int item) {
+        return getYValue(series, item);
+    }
+
+    @Override
+    public Number getEndY(int series, int item) {
+        return getY(series, item);
+    }
+
+    @Override
+    public double getEndYValue(int series, int item) {
+        return getYValue(series, item);
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+
+import java.util.Arrays;
+
+/**
+ * Coverage statistics (min, q1, median, q3, max, mean, standard deviation) calculated in single pass over coverage
+ * array without copying or sorting it. Coverage depths are counted into histogram, quantiles are then read from
+ * cumulative counts, so memory usage depends on maximum depth only. Quantile q of n values is the value at
+ * position floor((n - 1) * q) of sorted coverage, standard deviation is the population one and mean and standard
+ * deviation are rounded to the nearest integer. Depths of {@link #HISTOGRAM_LIMIT} and above (e.g. amplicons or
+ * mitochondrial DNA) are counted in sparse depth map instead of growing histogram to the maximum depth, so memory
+ * usage depends on the number of distinct deep depths, not on the number of deep bases. Breadth of coverage
+ * (percentage of bases with coverage at least given thresholds) is read from the same histogram and intervals of
+ * coverage below low coverage threshold are collected in the same pass, so coverage is not read twice.
+ */
+public class CoverageHistogramStatistics {
+    public static final int HISTOGRAM_LIMIT = 1 << 16;
+
+    private int[] histogram = new int[256];
+    private int[] overflowDepths = new int[16];
+    private long[] overflowCounts = new long[16];
+    private int overflowCount;
+    private int lastOverflow;
+    private long count;
+    private int min;
+    private int q1;
+    private int median;
+    private int q3;
+    private int max;
+    private double mean;
+    private double standardDeviation;
+    private int[] breadthThresholds = new int[0];
+    private double[] breadths = new double[0];
+    private int lowCoverageThreshold = 0;
+    private int lowCoverageCount = 0;
+    private int[] lowCoverageStarts = new int[16];
+    private int[] lowCoverageEnds = new int[16];
+    private long[] lowCoverageSums = new long[16];
+
+    /**
+     * @param thresholds coverage thresholds of {@link #breadth(int)}
+     */
+    public void setBreadthThresholds(int... thresholds) {
+        breadthThresholds = thresholds.clone();
+        breadths = new double[thresholds.length];
+    }
+
+    /**
+     * @param threshold intervals of coverage below this threshold are collected, 0 disables collecting
+     */
+    public void setLowCoverageThreshold(int threshold) {
+        lowCoverageThreshold = threshold;
+    }
+
+    /**
+     * Low coverage intervals are in positions of the coverage info.
+     */
+    public void calculateStatistics(CoverageInfo coverageInfo) {
+        if (coverageInfo instanceof BinnedCoverageInfo)
+            calculateStatistics((BinnedCoverageInfo) coverageInfo);
+        else
+            calculateStatistics(CoverageArray.of(coverageInfo), coverageInfo.getPositionStart());
+    }
+
+    /**
+     * Low coverage intervals are in array indexes.
+     */
+    public void calculateStatistics(CoverageArray coverages) {
+        calculateStatistics(coverages, 0);
+    }
+
+    private void calculateStatistics(CoverageArray coverages, int positionStart) {
+        int maxDepth = 0;
+        long sum = 0;
+        int lowStart = -1;
+        long lowSum = 0;
+        lowCoverageCount = 0;
+
+        for (int i = 0; i < coverages.length(); i++) {
+            int coverage = coverages.get(i);
+
+            if (coverage < 0)
+                throw negativeDepth(coverage, "index " + i);
+
+            addDepth(coverage, 1);
+            sum += coverage;
+
+            if (coverage > maxDepth)
+                maxDepth = coverage;
+
+            if (coverage < lowCoverageThreshold) {
+                if (lowStart < 0) {
+                    lowStart = i;
+                    lowSum = 0;
+                }
+
+                lowSum += coverage;
+            }
+            else if (lowStart >= 0) {
+                addLowCoverage(positionStart + lowStart, positionStart + i - 1, lowSum);
+                lowStart = -1;
+            }
+        }
+
+        if (lowStart >= 0)
+            addLowCoverage(positionStart + lowStart, positionStart + coverages.length() - 1, lowSum);
+
+        count = coverages.length();
+        calculateStatistics(maxDepth, sum);
+    }
+
+    /**
+     * Statistics of binned coverage. Min, max and mean are exact unless the coverage is
+     * {@link BinnedCoverageInfo#isApproximate() approximate}, quantiles and standard deviation are calculated from
+     * bin means weighted by bin length, as are breadth and low coverage intervals (bins with mean below threshold).
+     */
+    public void calculateStatistics(BinnedCoverageInfo coverageInfo) {
+        int maxDepth = 0;
+        int minBin = Integer.MAX_VALUE;
+        int maxBin = 0;
+        long sum = 0;
+        int lowStart = -1;
+        long lowSum = 0;
+        count = 0;
+        lowCoverageCount = 0;
+
+        for (int i = 0; i < coverageInfo.getBinCount(); i++) {
+            if (coverageInfo.getMin(i) < 0)
+                throw negativeDepth(coverageInfo.getMin(i), "bin " + i);
+
+            int depth = (int) Math.round(coverageInfo.getMean(i));
+            int binStart = Math.max(coverageInfo.getPositionStart(), coverageInfo.getBinPosition(i));
+
+            if (coverageInfo.getMean(i) < lowCoverageThreshold) {
+                if (lowStart < 0) {
+                    lowStart = binStart;
+                    lowSum = 0;
+                }
+
+                lowSum += coverageInfo.getSum(i);
+            }
+            else if (lowStart >= 0) {
+                addLowCoverage(lowStart, binStart - 1, lowSum);
+                lowStart = -1;
+            }
+
+            addDepth(depth, coverageInfo.getBinLength(i));
+            count += coverageInfo.getBinLength(i);
+            sum += coverageInfo.getSum(i);
+
+            maxDepth = Math.max(maxDepth, depth);
+            minBin = Math.min(minBin, coverageInfo.getMin(i));
+            maxBin = Math.max(maxBin, coverageInfo.getMax(i));
+        }
+
+        if (lowStart >= 0)
+            addLowCoverage(lowStart, coverageInfo.getPositionEnd(), lowSum);
+
+        calculateStatistics(maxDepth, sum);
+
+        if (count > 0) {
+            min = minBin;
+            max = maxBin;
+        }
+    }
+
+    public void calculateStatistics(int[] coverages) {
+        calculateStatistics(CoverageArray.of(coverages));
+    }
+
+    private void calculateStatistics(int maxDepth, long sum) {
+        if (count == 0) {
+            min = q1 = median = q3 = max = 0;
+            mean = standardDeviation = 0;
+            Arrays.fill(breadths, 0);
+            return;
+        }
+
+        long[] below = new long[breadthThresholds.length];
+        int histogramDepth = Math.min(maxDepth, histogram.length - 1);
+        long[] overflow = getOverflow();
+
+        mean = (double) sum / count;
+        max = maxDepth;
+        min = -1;
+
+        long q1Index = (count - 1) / 4;
+        long medianIndex = (count - 1) / 2;
+        long q3Index = (count - 1) * 3 / 4;
+        long cumulative = 0;
+        double squares = 0;
+
+        for (int j = 0; j <= histogramDepth + overflow.length; j++) {
+            int depth;
+            long depthCount;
+
+            if (j <= histogramDepth) {
+                depth = j;
+                depthCount = histogram[j];
+            }
+            else {
+                depth = (int) (overflow[j - histogramDepth - 1] >>> 32);
+                depthCount = overflowCounts[(int) overflow[j - histogramDepth - 1]];
+            }
+
+            if (depthCount == 0)
+                continue;
+
+            if (min < 0)
+                min = depth;
+
+            if (cumulative <= q1Index && q1Index < cumulative + depthCount)
+                q1 = depth;
+
+            if (cumulative <= medianIndex && medianIndex < cumulative + depthCount)
+                median = depth;
+
+            if (cumulative <= q3Index && q3Index < cumulative + depthCount)
+                q3 = depth;
+
+            for (int i = 0; i < breadthThresholds.length; i++)
+                if (depth < breadthThresholds[i])
+                    below[i] += depthCount;
+
+            cumulative += depthCount;
+            squares += depthCount * (depth - mean) * (depth - mean);
+
+            if (j <= histogramDepth)
+                histogram[j] = 0;
+        }
+
+        clearOverflow();
+
+        standardDeviation = Math.sqrt(squares / count);
+
+        for (int i = 0; i < breadthThresholds.length; i++)
+            breadths[i] = 100.0 * (count - below[i]) / count;
+    }
+
+    private void addLowCoverage(int start, int end, long sum) {
+        if (lowCoverageCount == lowCoverageStarts.length) {
+            lowCoverageStarts = Arrays.copyOf(lowCoverageStarts, lowCoverageCount * 2);
+            lowCoverageEnds = Arrays.copyOf(lowCoverageEnds, lowCoverageCount * 2);
+            lowCoverageSums = Arrays.copyOf(lowCoverageSums, lowCoverageCount * 2);
+        }
+
+        lowCoverageStarts[lowCoverageCount] = start;
+        lowCoverageEnds[lowCoverageCount] = end;
+        lowCoverageSums[lowCoverageCount++] = sum;
+    }
+
+    private void addDepth(int depth, int depthCount) {
+        if (depth >= histogram.length && depth < HISTOGRAM_LIMIT) {
+            int[] grown = new int[Math.min(HISTOGRAM_LIMIT, Math.max(histogram.length * 2, depth + 1))];
+            System.arraycopy(histogram, 0, grown, 0, histogram.length);
+            histogram = grown;
+        }
+
+        if (depth < histogram.length) {
+            histogram[depth] += depthCount;
+            return;
+        }
+
+        addOverflow(depth, depthCount);
+    }
+
+    /**
+     * Counts depth in open addressing map of depths above histogram. Coverage is mostly piecewise constant, so the
+     * last used slot is checked first.
+     */
+    private void addOverflow(int depth, long depthCount) {
+        if (overflowDepths[lastOverflow] != depth) {
+            int mask = overflowDepths.length - 1;
+            int slot = hash(depth) & mask;
+
+            while (overflowDepths[slot] != 0 && overflowDepths[slot] != depth)
+                slot = (slot + 1) & mask;
+
+            if (overflowDepths[slot] == 0) {
+                if ((overflowCount + 1) * 2 > overflowDepths.length) {
+                    growOverflow();
+                    addOverflow(depth, depthCount);
+                    return;
+                }
+
+                overflowDepths[slot] = depth;
+                overflowCount++;
+            }
+
+            lastOverflow = slot;
+        }
+
+        overflowCounts[lastOverflow] += depthCount;
+    }
+
+    private void growOverflow() {
+        int[] depths = overflowDepths;
+        long[] counts = overflowCounts;
+        int mask = depths.length * 2 - 1;
+
+        overflowDepths = new int[depths.length * 2];
+        overflowCounts = new long[depths.length * 2];
+
+        for (int i = 0; i < depths.length; i++) {
+            if (depths[i] == 0)
+                continue;
+
+            int slot = hash(depths[i]) & mask;
+
+            while (overflowDepths[slot] != 0)
+                slot = (slot + 1) & mask;
+
+            overflowDepths[slot] = depths[i];
+            overflowCounts[slot] = counts[i];
+        }
+
+        lastOverflow = 0;
+    }
+
+    private static int hash(int depth) {
+        int hash = depth * 0x9E3779B9;
+
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * @return depths above histogram sorted, with depth in upper and map slot of its count in lower half of long
+     */
+    private long[] getOverflow() {
+        long[] overflow = new long[overflowCount];
+        int count = 0;
+
+        for (int slot = 0; slot < overflowDepths.length && count < overflowCount; slot++)
+            if (overflowDepths[slot] != 0)
+                overflow[count++] = (long) overflowDepths[slot] << 32 | slot;
+
+        Arrays.sort(overflow);
+
+        return overflow;
+    }
+
+    private void clearOverflow() {
+        if (overflowCount > 0) {
+            Arrays.fill(overflowDepths, 0);
+            Arrays.fill(overflowCounts, 0);
+        }
+
+        overflowCount = 0;
+        lastOverflow = 0;
+    }
+
+    /**
+     * Clears already counted depths, so the instance stays usable.
+     */
+    private IllegalArgumentException negativeDepth(int depth, String where) {
+        Arrays.fill(histogram, 0);
+        clearOverflow();
+
+        return new IllegalArgumentException("Negative coverage depth " + depth + " at " + where);
+    }
+
+    public int min() {
+        return min;
+    }
+
+    public int q1() {
+        return q1;
+    }
+
+    public int median() {
+        return median;
+    }
+
+    public int q3() {
+        return q3;
+    }
+
+    public int max() {
+        return max;
+    }
+
+    public int mean() {
+        return (int) Math.round(mean);
+    }
+
+    public int standardDeviation() {
+        return (int) Math.round(standardDeviation);
+    }
+
+    /**
+     * @return percentage of bases with coverage at least i-th breadth threshold
+     */
+    public double breadth(int i) {
+        return breadths[i];
+    }
+
+    public int getLowCoverageCount() {
+        return lowCoverageCount;
+    }
+
+    public int getLowCoverageStart(int i) {
+        return lowCoverageStarts[i];
+    }
+
+    public int getLowCoverageEnd(int i) {
+        return lowCoverageEnds[i];
+    }
+
+    public double getLowCoverageMean(int i) {
+        return (double) lowCoverageSums[i] / (lowCoverageEnds[i] - lowCoverageStarts[i] + 1);
+    }
+}
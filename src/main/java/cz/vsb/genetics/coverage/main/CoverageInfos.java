@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.apache.commons.io.FilenameUtils;
+
+import java.awt.*;
+import java.io.File;
+
+/**
+ * Helper methods for coverage information created outside of vsb-genetics coverage calculators.
+ */
+public class CoverageInfos {
+    private CoverageInfos() {
+    }
+
+    public static CoverageInfo create(int positionStart, int positionEnd, int[] coverages) {
+        CoverageInfo coverageInfo = new CoverageInfo();
+        coverageInfo.setPositionStart(positionStart);
+        coverageInfo.setPositionEnd(positionEnd);
+        coverageInfo.setCoverages(coverages);
+
+        return coverageInfo;
+    }
+
+    public static void setupHts(CoverageInfo coverageInfo, String bam, int samplingSize) {
+        coverageInfo.setSamplingSize(samplingSize);
+        coverageInfo.setColor(Color.RED.getRGB());
+        coverageInfo.setName(getHtsName(bam));
+    }
+
+    public static void setupOm(CoverageInfo coverageInfo, int samplingSize) {
+        coverageInfo.setSamplingSize(samplingSize);
+        coverageInfo.setColor(Color.BLUE.getRGB());
+        coverageInfo.setName("OM");
+    }
+
+    public static String getHtsName(String bam) {
+        return "hts_" + FilenameUtils.removeExtension(new File(bam).getName());
+    }
+
+    /**
+     * Finds contig record for given chromosome in sequence dictionary. Both "chr1" and "1" naming styles are supported.
+     */
+    public static SAMSequenceRecord getSequence(SAMSequenceDictionary dictionary, Chromosome chromosome) {
+        String name = chromosome.name();
+        String shortName = name.startsWith("chr") ? name.substring(3) : name;
+
+        SAMSequenceRecord sequence = dictionary.getSequence(name);
+
+        if (sequence == null)
+            sequence = dictionary.getSequence(shortName);
+
+        if (sequence == null)
+            sequence = dictionary.getSequence("chr" + shortName);
+
+        if (sequence == null && shortName.equals("M"))
+            sequence = dictionary.getSequence("MT");
+
+        return sequence;
+    }
+}
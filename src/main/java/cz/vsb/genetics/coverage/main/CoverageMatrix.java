@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Memory mapped reader of statistics matrix file written by {@link CoverageMatrixWriter}. Only the header is read
+ * on open, values of a column and metric are read by mapping and decompressing chunks overlapping requested
+ * regions. Reading is thread safe.
+ */
+public class CoverageMatrix implements AutoCloseable {
+    private final String matrixFile;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private int chunkRegions;
+    private int chunks;
+    private String[] metrics;
+    private List<ChromosomeRegion> regions;
+    private String[] columns;
+    private long[][] offsets;
+    private int[][] sizes;
+
+    public CoverageMatrix(String matrixFile) {
+        this.matrixFile = matrixFile;
+    }
+
+    public void open() throws IOException {
+        file = new RandomAccessFile(matrixFile, "r");
+        channel = file.getChannel();
+
+        long size = channel.size();
+        if (size < 8 + CoverageMatrixWriter.TRAILER_BYTES)
+            throw new IOException("Invalid statistics matrix file: " + matrixFile);
+
+        ByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+        ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - CoverageMatrixWriter.TRAILER_BYTES, CoverageMatrixWriter.TRAILER_BYTES);
+        long headerOffset = trailer.getLong(0);
+
+        if (start.getInt(0) != CoverageMatrixWriter.MAGIC || start.getInt(4) != CoverageMatrixWriter.VERSION
+                || trailer.getInt(8) != CoverageMatrixWriter.MAGIC || headerOffset < 8 || headerOffset > size - CoverageMatrixWriter.TRAILER_BYTES)
+            throw new IOException("Invalid statistics matrix file: " + matrixFile);
+
+        byte[] header = new byte[(int) (size - CoverageMatrixWriter.TRAILER_BYTES - headerOffset)];
+        channel.map(FileChannel.MapMode.READ_ONLY, headerOffset, header.length).get(header);
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(header))) {
+            chunkRegions = in.readInt();
+            metrics = new String[in.readInt()];
+
+            for (int i = 0; i < metrics.length; i++)
+                metrics[i] = in.readUTF();
+
+            int regionCount = in.readInt();
+            List<ChromosomeRegion> matrixRegions = new ArrayList<>(regionCount);
+
+            for (int i = 0; i < regionCount; i++) {
+                String name = in.readUTF();
+                ChromosomeRegion region = ChromosomeRegion.valueOf(in.readUTF() + ":" + in.readInt() + "-" + in.readInt());
+
+                if (!name.isEmpty())
+                    region.setName(name);
+
+                matrixRegions.add(region);
+            }
+
+            regions = Collections.unmodifiableList(matrixRegions);
+            chunks = (regionCount + chunkRegions - 1) / chunkRegions;
+            columns = new String[in.readInt()];
+            offsets = new long[columns.length][metrics.length * chunks];
+            sizes = new int[columns.length][metrics.length * chunks];
+
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = in.readUTF();
+
+                for (int chunk = 0; chunk < metrics.length * chunks; chunk++) {
+                    offsets[i][chunk] = in.readLong();
+                    sizes[i][chunk] = in.readInt();
+                }
+            }
+        }
+    }
+
+    public String[] getMetrics() {
+        return metrics.clone();
+    }
+
+    /**
+     * @return columns in order they were written, e.g. sample name and source of batch statistics
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    public List<ChromosomeRegion> getRegions() {
+        return regions;
+    }
+
+    /**
+     * @return index of metric, or -1 if the matrix has no such metric
+     */
+    public int getMetric(String name) {
+        return Arrays.asList(metrics).indexOf(name);
+    }
+
+    /**
+     * @return index of column, or -1 if the matrix has no such column
+     */
+    public int getColumn(String name) {
+        return Arrays.asList(columns).indexOf(name);
+    }
+
+    public float getValue(int metric, int column, int region) throws IOException {
+        return getValues(metric, column, region, region + 1)[0];
+    }
+
+    public float[] getValues(int metric, int column) throws IOException {
+        return getValues(metric, column, 0, regions.size());
+    }
+
+    /**
+     * Reads values of given metric and column, only chunks of regions overlapping requested regions are read.
+     *
+     * @param fromRegion index of the first region
+     * @param toRegion   index after the last region
+     * @return values of regions, NaN for missing values
+     */
+    public float[] getValues(int metric, int column, int fromRegion, int toRegion) throws IOException {
+        if (metric < 0 || metric >= metrics.length || column < 0 || column >= columns.length)
+            throw new IndexOutOfBoundsException("Metric " + metric + ", column " + column);
+
+        if (fromRegion < 0 || toRegion > regions.size() || fromRegion > toRegion)
+            throw new IndexOutOfBoundsException("Regions " + fromRegion + "-" + toRegion + " of " + regions.size());
+
+        float[] values = new float[toRegion - fromRegion];
+        Inflater inflater = new Inflater();
+
+        try {
+            for (int chunk = fromRegion / chunkRegions; chunk * chunkRegions < toRegion; chunk++) {
+                int chunkStart = chunk * chunkRegions;
+                float[] chunkValues = readChunk(inflater, column, metric * chunks + chunk, Math.min(chunkRegions, regions.size() - chunkStart));
+                int from = Math.max(fromRegion, chunkStart);
+                int to = Math.min(toRegion, chunkStart + chunkValues.length);
+
+                System.arraycopy(chunkValues, from - chunkStart, values, from - fromRegion, to - from);
+            }
+        }
+        finally {
+            inflater.end();
+        }
+
+        return values;
+    }
+
+    private float[] readChunk(Inflater inflater, int column, int chunk, int count) throws IOException {
+        byte[] compressed = new byte[sizes[column][chunk]];
+        channel.map(FileChannel.MapMode.READ_ONLY, offsets[column][chunk], compressed.length).get(compressed);
+
+        byte[] bytes = new byte[count * 4];
+        inflater.reset();
+        inflater.setInput(compressed);
+
+        try {
+            int length = 0;
+            while (length < bytes.length) {
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated statistics matrix chunk: " + matrixFile);
+
+                length += inflated;
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Invalid statistics matrix chunk: " + matrixFile, e);
+        }
+
+        float[] values = new float[count];
+
+        for (int i = 0; i < count; i++)
+            values[i] = Float.intBitsToFloat((bytes[i] & 0xFF) << 24 | (bytes[count + i] & 0xFF) << 16
+                    | (bytes[2 * count + i] & 0xFF) << 8 | bytes[3 * count + i] & 0xFF);
+
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+
+        if (file != null)
+            file.close();
+    }
+}
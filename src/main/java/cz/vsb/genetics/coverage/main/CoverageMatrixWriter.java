@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes statistics matrix file read by {@link CoverageMatrix} - values of statistics metrics (e.g. mean, breadth)
+ * of regions and columns (sources of samples, e.g. optical maps or bam of a sample) stored column by column. Values
+ * of a column and metric are split into chunks of regions, bytes of values in a chunk are grouped by significance
+ * and each chunk is compressed separately, so readers map and decompress only chunks they need. Columns are written
+ * as they are added, header with chunk offsets is written at the end of the file.
+ *
+ * <pre>
+ * file:    magic, version, data, header, header offset, magic
+ * header:  regions per chunk, number of metrics, metric names,
+ *          number of regions, for each region: name, chromosome, start, end,
+ *          number of columns, for each column: name, for each metric and chunk: data offset, compressed size
+ * data:    for each column, metric and chunk: deflate compressed float values
+ * </pre>
+ */
+public class CoverageMatrixWriter implements AutoCloseable {
+    static final int MAGIC = 0x4C52434D;
+    static final int VERSION = 1;
+    static final int CHUNK_REGIONS = 4096;
+    static final int TRAILER_BYTES = 12;
+
+    private final List<ChromosomeRegion> regions;
+    private final String[] metrics;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final List<String> columns = new ArrayList<>();
+    private final List<long[]> offsets = new ArrayList<>();
+    private final List<int[]> sizes = new ArrayList<>();
+    private long position;
+    private boolean closed = false;
+
+    public CoverageMatrixWriter(String matrixFile, List<ChromosomeRegion> regions, String[] metrics) throws IOException {
+        this.regions = regions;
+        this.metrics = metrics;
+        this.file = new RandomAccessFile(matrixFile, "rw");
+        this.channel = file.getChannel();
+
+        file.setLength(0);
+
+        ByteBuffer start = ByteBuffer.allocate(8);
+        start.putInt(MAGIC).putInt(VERSION).flip();
+        position = write(start, 0);
+    }
+
+    /**
+     * @param values values of each metric (in order of metrics) and region (in order of regions), NaN for missing value
+     */
+    public synchronized void addColumn(String name, float[][] values) throws IOException {
+        if (values.length != metrics.length)
+            throw new IllegalArgumentException("Column " + name + " has " + values.length + " metrics, expected " + metrics.length);
+
+        int chunks = getChunkCount(regions.size());
+        long[] columnOffsets = new long[metrics.length * chunks];
+        int[] columnSizes = new int[metrics.length * chunks];
+        byte[] bytes = new byte[CHUNK_REGIONS * 4];
+
+        for (int metric = 0; metric < metrics.length; metric++) {
+            if (values[metric].length != regions.size())
+                throw new IllegalArgumentException("Column " + name + " has " + values[metric].length + " regions, expected " + regions.size());
+
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int from = chunk * CHUNK_REGIONS;
+                int count = Math.min(CHUNK_REGIONS, regions.size() - from);
+
+                // byte planes - highest bytes of all values first, they are mostly equal and compress well
+                for (int i = 0; i < count; i++) {
+                    int bits = Float.floatToRawIntBits(values[metric][from + i]);
+
+                    for (int b = 0; b < 4; b++)
+                        bytes[b * count + i] = (byte) (bits >>> (24 - 8 * b));
+                }
+
+                byte[] compressed = compress(bytes, count * 4);
+                columnOffsets[metric * chunks + chunk] = position;
+                columnSizes[metric * chunks + chunk] = compressed.length;
+                position = write(ByteBuffer.wrap(compressed), position);
+            }
+        }
+
+        columns.add(name);
+        offsets.add(columnOffsets);
+        sizes.add(columnSizes);
+    }
+
+    static int getChunkCount(int regions) {
+        return (regions + CHUNK_REGIONS - 1) / CHUNK_REGIONS;
+    }
+
+    private byte[] compress(byte[] bytes, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buffer = new byte[8192];
+
+        deflater.reset();
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+
+        while (!deflater.finished())
+            out.write(buffer, 0, deflater.deflate(buffer));
+
+        return out.toByteArray();
+    }
+
+    private byte[] getHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(CHUNK_REGIONS);
+            out.writeInt(metrics.length);
+
+            for (String metric : metrics)
+                out.writeUTF(metric);
+
+            out.writeInt(regions.size());
+
+            for (ChromosomeRegion region : regions) {
+                out.writeUTF(region.getName() == null ? "" : region.getName());
+                out.writeUTF(region.getChromosome().name());
+                out.writeInt(region.getStart());
+                out.writeInt(region.getEnd());
+            }
+
+            out.writeInt(columns.size());
+
+            for (int i = 0; i < columns.size(); i++) {
+                out.writeUTF(columns.get(i));
+
+                for (int chunk = 0; chunk < offsets.get(i).length; chunk++) {
+                    out.writeLong(offsets.get(i)[chunk]);
+                    out.writeInt(sizes.get(i)[chunk]);
+                }
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private long write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+
+        return position;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+
+        try {
+            long headerOffset = position;
+            position = write(ByteBuffer.wrap(getHeader()), position);
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            trailer.putLong(headerOffset).putInt(MAGIC).flip();
+            write(trailer, position);
+        }
+        finally {
+            deflater.end();
+            channel.close();
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Wall time, processed bases, processed reads and written bytes of processing phases, per region and in total.
+ * Metrics are collected only after {@link #enable()}, otherwise recording does nothing. Coverage calculated in
+ * a single pass over many regions is apportioned to the regions by their length, see
+ * {@link #record(Phase, List, long, long)}, plotting phases are recorded under region set by
+ * {@link #setRegion(String)} for the current thread. Chart phase includes dataset phase. Reads are known only for
+ * region file (single pass) BAM calculation, optical maps and single region BAM calculation report 0.
+ */
+public class CoverageMetrics {
+    public enum Phase {
+        HTS_COVERAGE,
+        OM_COVERAGE,
+        DATASET,
+        CHART,
+        IMAGE,
+        ;
+
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final String NO_REGION = "-";
+
+    private static volatile CoverageMetrics metrics;
+    private static final ThreadLocal<String> currentRegion = new ThreadLocal<>();
+
+    private final long startTime = System.nanoTime();
+    private final Map<String, Map<Phase, Counter>> regions = new LinkedHashMap<>();
+    private final Map<Phase, Counter> totals = new EnumMap<>(Phase.class);
+
+    private CoverageMetrics() {
+    }
+
+    public static void enable() {
+        metrics = new CoverageMetrics();
+    }
+
+    public static boolean isEnabled() {
+        return metrics != null;
+    }
+
+    /**
+     * Sets region recorded by following {@link #record(Phase, long, long, long, long)} calls of the current thread.
+     */
+    public static void setRegion(String region) {
+        currentRegion.set(region);
+    }
+
+    public static void record(Phase phase, long startTime, long bases, long reads, long bytes) {
+        record(phase, currentRegion.get(), startTime, bases, reads, bytes);
+    }
+
+    /**
+     * @param startTime {@link System#nanoTime()} at the start of the phase
+     */
+    public static void record(Phase phase, String region, long startTime, long bases, long reads, long bytes) {
+        CoverageMetrics current = metrics;
+
+        if (current != null)
+            current.add(phase, region == null ? NO_REGION : region, System.nanoTime() - startTime, bases, reads, bytes);
+    }
+
+    /**
+     * Records phase processing many regions at once (single pass over BAM file). Time and reads are apportioned to
+     * the regions by their length, total counts the phase once.
+     *
+     * @param startTime {@link System#nanoTime()} at the start of the phase
+     */
+    public static void record(Phase phase, List<ChromosomeRegion> regions, long startTime, long reads) {
+        CoverageMetrics current = metrics;
+
+        if (current != null)
+            current.add(phase, regions, System.nanoTime() - startTime, reads);
+    }
+
+    private synchronized void add(Phase phase, String region, long time, long bases, long reads, long bytes) {
+        getCounter(region, phase).add(time, bases, reads, bytes);
+        totals.computeIfAbsent(phase, k -> new Counter()).add(time, bases, reads, bytes);
+    }
+
+    /**
+     * Shares are rounded from cumulative length, so apportioned time and reads sum up to the recorded ones.
+     */
+    private synchronized void add(Phase phase, List<ChromosomeRegion> regions, long time, long reads) {
+        long bases = 0;
+
+        for (ChromosomeRegion region : regions)
+            bases += region.getLength();
+
+        long cumulative = 0;
+        long previousTime = 0;
+        long previousReads = 0;
+
+        for (ChromosomeRegion region : regions) {
+            cumulative += region.getLength();
+
+            long regionTime = bases == 0 ? 0 : Math.round((double) time * cumulative / bases);
+            long regionReads = bases == 0 ? 0 : Math.round((double) reads * cumulative / bases);
+
+            getCounter(region.toString(), phase).add(regionTime - previousTime, region.getLength(), regionReads - previousReads, 0);
+            previousTime = regionTime;
+            previousReads = regionReads;
+        }
+
+        totals.computeIfAbsent(phase, k -> new Counter()).add(time, bases, reads, 0);
+    }
+
+    private Counter getCounter(String region, Phase phase) {
+        return regions.computeIfAbsent(region, k -> new EnumMap<>(Phase.class)).computeIfAbsent(phase, k -> new Counter());
+    }
+
+    /**
+     * Writes collected metrics as JSON (file with .json extension) or TSV (otherwise).
+     */
+    public static void write(String file) throws IOException {
+        CoverageMetrics current = metrics;
+
+        if (current == null)
+            return;
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            synchronized (current) {
+                if (file.toLowerCase().endsWith(".json"))
+                    current.writeJson(writer);
+                else
+                    current.writeTsv(writer);
+            }
+        }
+    }
+
+    private void writeTsv(BufferedWriter writer) throws IOException {
+        writer.write("region\tphase\tcalls\tseconds\tbases\treads\tbytes\tbases_per_second\n");
+
+        for (Map.Entry<String, Map<Phase, Counter>> region : regions.entrySet())
+            for (Map.Entry<Phase, Counter> phase : region.getValue().entrySet())
+                writer.write(region.getKey() + "\t" + phase.getKey().getName() + "\t" + phase.getValue().toTsv() + "\n");
+
+        for (Map.Entry<Phase, Counter> phase : totals.entrySet())
+            writer.write("total\t" + phase.getKey().getName() + "\t" + phase.getValue().toTsv() + "\n");
+
+        writer.write(String.format(Locale.ROOT, "total\trun\t1\t%.6f\t0\t0\t0\t0\n", getElapsedSeconds()));
+    }
+
+    private void writeJson(BufferedWriter writer) throws IOException {
+        writer.write(String.format(Locale.ROOT, "{\n  \"seconds\": %.6f,\n  \"total\": {", getElapsedSeconds()));
+        writePhasesJson(writer, totals, "    ");
+        writer.write("\n  },\n  \"regions\": {");
+
+        String separator = "";
+        for (Map.Entry<String, Map<Phase, Counter>> region : regions.entrySet()) {
+            writer.write(separator + "\n    \"" + escapeJson(region.getKey()) + "\": {");
+            writePhasesJson(writer, region.getValue(), "      ");
+            writer.write("\n    }");
+            separator = ",";
+        }
+
+        writer.write("\n  }\n}\n");
+    }
+
+    private static void writePhasesJson(BufferedWriter writer, Map<Phase, Counter> phases, String indent) throws IOException {
+        String separator = "";
+
+        for (Map.Entry<Phase, Counter> phase : phases.entrySet()) {
+            writer.write(separator + "\n" + indent + "\"" + phase.getKey().getName() + "\": " + phase.getValue().toJson());
+            separator = ",";
+        }
+    }
+
+    private static String escapeJson(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private double getElapsedSeconds() {
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+
+    private static class Counter {
+        private long calls;
+        private long time;
+        private long bases;
+        private long reads;
+        private long bytes;
+
+        void add(long time, long bases, long reads, long bytes) {
+            this.calls++;
+            this.time += time;
+            this.bases += bases;
+            this.reads += reads;
+            this.bytes += bytes;
+        }
+
+        double getSeconds() {
+            return time / 1e9;
+        }
+
+        double getBasesPerSecond() {
+            return time == 0 ? 0 : bases / getSeconds();
+        }
+
+        String toTsv() {
+            return String.format(Locale.ROOT, "%d\t%.6f\t%d\t%d\t%d\t%.0f", calls, getSeconds(), bases, reads, bytes, getBasesPerSecond());
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"calls\": %d, \"seconds\": %.6f, \"bases\": %d, \"reads\": %d, \"bytes\": %d, \"bases_per_second\": %.0f}",
+                    calls, getSeconds(), bases, reads, bytes, getBasesPerSecond());
+        }
+    }
+}
@@ -24,21 +24,21 @@ import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.plot.DefaultDrawingSupplier;
 import org.jfree.chart.plot.XYPlot;
-import org.jfree.data.xy.XYSeries;
-import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.chart.ui.RectangleInsets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Random;
 
 public abstract class CoveragePlotBase implements CoveragePlot {
     private static final Logger log = LoggerFactory.getLogger(CoveragePlot.class);
 
-    protected int width = 1600;
+    public static final int DEFAULT_WIDTH = 1600;
+
+    protected int width = DEFAULT_WIDTH;
     protected int height = 1200;
 
     protected abstract JFreeChart createChart(String title, String xLabel, String yLabel, SamplingType samplingType, List<CoverageInfo> coverageInfos);
@@ -53,10 +53,26 @@ public abstract class CoveragePlotBase implements CoveragePlot {
 
     @Override
     public void plotCoverage(String title, String xLabel, String yLabel, String outputFile, SamplingType samplingType, List<CoverageInfo> coverageInfos, ImageFormat format) throws Exception {
+        JFreeChart coverageChart = createCoverageChart(title, xLabel, yLabel, samplingType, coverageInfos);
+
+        log.info(String.format("Plotting image (format %s): %s", format.toString(), outputFile));
+        ImageWriter.saveImage(outputFile, coverageChart, width, height, format);
+    }
+
+    /**
+     * Writes coverage plot image into given stream, the stream is not closed.
+     */
+    public void plotCoverage(String title, String xLabel, String yLabel, OutputStream out, SamplingType samplingType, List<CoverageInfo> coverageInfos, ImageFormat format) throws Exception {
+        ImageWriter.writeImage(out, createCoverageChart(title, xLabel, yLabel, samplingType, coverageInfos), width, height, format);
+    }
+
+    public JFreeChart createCoverageChart(String title, String xLabel, String yLabel, SamplingType samplingType, List<CoverageInfo> coverageInfos) {
         NumberAxis domainAxis = new NumberAxis(xLabel);
         setupDomainAxisRange(domainAxis, coverageInfos);
 
+        long startTime = System.nanoTime();
         JFreeChart coverageChart = createChart(title, xLabel, yLabel, samplingType, coverageInfos);
+        CoverageMetrics.record(CoverageMetrics.Phase.CHART, startTime, getLength(coverageInfos), 0, 0);
 
         XYPlot xyPlot = coverageChart.getXYPlot();
         xyPlot.setDomainAxis(domainAxis);
@@ -82,64 +98,138 @@ public abstract class CoveragePlotBase implements CoveragePlot {
 
         coverageChart.getLegend().setItemFont(fontLegend);
 
-        log.info(String.format("Plotting image (format %s): %s", format.toString(), outputFile));
-        ImageWriter.saveImage(outputFile, coverageChart, width, height, format);
+        return coverageChart;
+    }
+
+    /**
+     * Creates chart of image tile - without title, axes, legend and margins, domain axis covers exactly positions
+     * from start to end and range axis coverage from 0 to given limit, so neighbouring tiles join seamlessly.
+     */
+    public JFreeChart createTileChart(SamplingType samplingType, List<CoverageInfo> coverageInfos, int start, int end, int coverageLimit) {
+        JFreeChart coverageChart = createChart(null, null, null, samplingType, coverageInfos);
+        coverageChart.removeLegend();
+        coverageChart.setPadding(RectangleInsets.ZERO_INSETS);
+        coverageChart.setBackgroundPaint(Color.WHITE);
+        coverageChart.setBorderVisible(false);
+
+        NumberAxis domainAxis = new NumberAxis();
+        domainAxis.setRange(start, end + 1);
+        domainAxis.setVisible(false);
+
+        NumberAxis rangeAxis = new NumberAxis();
+        rangeAxis.setRange(0, Math.max(1, coverageLimit));
+        rangeAxis.setVisible(false);
+
+        XYPlot xyPlot = coverageChart.getXYPlot();
+        xyPlot.setDomainAxis(domainAxis);
+        xyPlot.setRangeAxis(rangeAxis);
+        xyPlot.setInsets(RectangleInsets.ZERO_INSETS);
+        xyPlot.setAxisOffset(RectangleInsets.ZERO_INSETS);
+        xyPlot.setOutlineVisible(false);
+        xyPlot.setBackgroundPaint(Color.WHITE);
+        xyPlot.setForegroundAlpha(0.85F);
+
+        setupSerieColors(xyPlot, coverageInfos);
+
+        return coverageChart;
     }
 
-    protected XYSeriesCollection createDataset(List<CoverageInfo> coverageInfos, SamplingType samplingType) {
-        XYSeriesCollection dataset = new XYSeriesCollection();
+    protected CoverageDataset createDataset(List<CoverageInfo> coverageInfos, SamplingType samplingType) {
+        long startTime = System.nanoTime();
+        CoverageDataset dataset = new CoverageDataset();
 
         for (CoverageInfo coverageInfo : coverageInfos) {
             if (coverageInfo == null)
                 continue;
 
-            XYSeries series = new XYSeries(coverageInfo.getName());
-            int[] coverage = coverageInfo.getCoverages();
+            if (coverageInfo instanceof BinnedCoverageInfo) {
+                dataset.addSeries(sampleBins((BinnedCoverageInfo) coverageInfo, samplingType));
+                continue;
+            }
+
+            CoverageArray coverage = CoverageArray.of(coverageInfo);
 
-            if (coverageInfo.getSamplingSize() < 3)
+            if (coverageInfo.getSamplingSize() < 3 && samplingType != SamplingType.ENVELOPE)
                 samplingType = SamplingType.NONE;
 
+            int capacity = samplingType == SamplingType.NONE ? coverage.length()
+                    : samplingType == SamplingType.ENVELOPE ? width * 4 : coverage.length() / (coverageInfo.getSamplingSize() - 1) + 2;
+            CoverageSeries series = new CoverageSeries(coverageInfo.getName(), capacity);
+
             switch (samplingType) {
                 case NONE: sampleNone(coverageInfo, series, coverage); break;
                 case MEAN: sampleMean(coverageInfo, series, coverage); break;
                 case MEDIAN: sampleMedian(coverageInfo, series, coverage); break;
+                case ENVELOPE: sampleEnvelope(coverageInfo, series, coverage, width); break;
                 default: sampleRandom(coverageInfo, series, coverage); break;
             }
 
             dataset.addSeries(series);
         }
 
+        CoverageMetrics.record(CoverageMetrics.Phase.DATASET, startTime, getLength(coverageInfos), 0, 0);
+
         return dataset;
     }
 
-    private static void sampleNone(CoverageInfo coverageInfo, XYSeries series, int[] coverage) {
-        for (int i = 0, j = coverageInfo.getPositionStart(); i < coverage.length; i++, j++)
-            series.add(j, coverage[i]);
+    private static long getLength(List<CoverageInfo> coverageInfos) {
+        long length = 0;
+
+        for (CoverageInfo coverageInfo : coverageInfos)
+            if (coverageInfo != null)
+                length += coverageInfo.getPositionEnd() - coverageInfo.getPositionStart() + 1;
+
+        return length;
+    }
+
+    /**
+     * Binned coverage is already reduced to about plot width, so bins are plotted directly - bin means, or bin
+     * minimum and maximum for envelope sampling.
+     */
+    private static CoverageSeries sampleBins(BinnedCoverageInfo coverageInfo, SamplingType samplingType) {
+        boolean envelope = samplingType == SamplingType.ENVELOPE;
+        CoverageSeries series = new CoverageSeries(coverageInfo.getName(), coverageInfo.getBinCount() * (envelope ? 2 : 1));
+
+        for (int i = 0; i < coverageInfo.getBinCount(); i++) {
+            if (envelope) {
+                series.add(coverageInfo.getBinPosition(i), coverageInfo.getMin(i));
+                series.add(coverageInfo.getBinPosition(i), coverageInfo.getMax(i));
+            }
+            else
+                series.add(coverageInfo.getBinPosition(i), coverageInfo.getMean(i));
+        }
+
+        return series;
+    }
+
+    private static void sampleNone(CoverageInfo coverageInfo, CoverageSeries series, CoverageArray coverage) {
+        for (int i = 0, j = coverageInfo.getPositionStart(); i < coverage.length(); i++, j++)
+            series.add(j, coverage.get(i));
     }
 
-    private static void sampleRandom(CoverageInfo coverageInfo, XYSeries series, int[] coverage) {
+    private static void sampleRandom(CoverageInfo coverageInfo, CoverageSeries series, CoverageArray coverage) {
         int sampleSize = coverageInfo.getSamplingSize() - 1;
         Random random = new Random();
 
-        for (int i = 0, j = coverageInfo.getPositionStart(); i < coverage.length; i += sampleSize, j += sampleSize) {
+        for (int i = 0, j = coverageInfo.getPositionStart(); i < coverage.length(); i += sampleSize, j += sampleSize) {
             int index = random.nextInt(sampleSize) + i;
 
-            if (index >= coverage.length) {
-                index = coverage.length - 1;
+            if (index >= coverage.length()) {
+                index = coverage.length() - 1;
                 j = coverageInfo.getPositionEnd();
             }
 
-            series.add(j, coverage[index]);
+            series.add(j, coverage.get(index));
         }
     }
 
-    private static void sampleMean(CoverageInfo coverageInfo, XYSeries series, int[] coverage) {
+    private static void sampleMean(CoverageInfo coverageInfo, CoverageSeries series, CoverageArray coverage) {
         int sampleSize = coverageInfo.getSamplingSize() - 1;
         int counter = 0;
         int sum = 0;
 
-        for (int i = 0; i < coverage.length; i++) {
-            sum += coverage[i];
+        for (int i = 0; i < coverage.length(); i++) {
+            sum += coverage.get(i);
 
             if (++counter == sampleSize) {
                 series.add(coverageInfo.getPositionStart() + (i - sampleSize / 2) , sum / sampleSize);
@@ -152,24 +242,109 @@ public abstract class CoveragePlotBase implements CoveragePlot {
             series.add(coverageInfo.getPositionEnd() - counter / 2 , sum / counter);
     }
 
-    private static void sampleMedian(CoverageInfo coverageInfo, XYSeries series, int[] coverages) {
+    static void sampleMedian(CoverageInfo coverageInfo, CoverageSeries series, CoverageArray coverages) {
         int sampleSize = coverageInfo.getSamplingSize();
 
-        List<Integer> values = new ArrayList<>();
+        int[] values = new int[Math.min(sampleSize, coverages.length())];
+        int count = 0;
 
-        for (int i = 0; i < coverages.length; i++) {
-            values.add(coverages[i]);
+        for (int i = 0; i < coverages.length(); i++) {
+            values[count++] = coverages.get(i);
 
-            if (values.size() == sampleSize) {
-                Collections.sort(values);
-                series.add(coverageInfo.getPositionStart() + (i - sampleSize / 2) , values.get((values.size() -1) / 2));
-                values.clear();
+            if (count == sampleSize) {
+                series.add(coverageInfo.getPositionStart() + (i - sampleSize / 2) , select(values, count, (count - 1) / 2));
+                count = 0;
             }
         }
 
-        if (!values.isEmpty()) {
-            Collections.sort(values);
-            series.add(coverageInfo.getPositionEnd() - values.size() / 2, values.get((values.size() -1) / 2));
+        if (count > 0)
+            series.add(coverageInfo.getPositionEnd() - count / 2, select(values, count, (count - 1) / 2));
+    }
+
+    /**
+     * Finds k-th smallest of first n values (Wirth's selection algorithm). Values are partially reordered in place.
+     */
+    private static int select(int[] values, int n, int k) {
+        int left = 0;
+        int right = n - 1;
+
+        while (left < right) {
+            int pivot = values[k];
+            int i = left;
+            int j = right;
+
+            do {
+                while (values[i] < pivot)
+                    i++;
+
+                while (pivot < values[j])
+                    j--;
+
+                if (i <= j) {
+                    int value = values[i];
+                    values[i++] = values[j];
+                    values[j--] = value;
+                }
+            } while (i <= j);
+
+            if (j < k)
+                left = i;
+
+            if (k < i)
+                right = j;
+        }
+
+        return values[k];
+    }
+
+    /**
+     * Min/max envelope (M4) sampling - coverage is split into one window per image pixel column and the first,
+     * minimum, maximum and last value of each window is kept, so the line looks like the unsampled one.
+     */
+    private static void sampleEnvelope(CoverageInfo coverageInfo, CoverageSeries series, CoverageArray coverages, int columns) {
+        if (coverages.length() <= columns * 4) {
+            sampleNone(coverageInfo, series, coverages);
+            return;
+        }
+
+        int positionStart = coverageInfo.getPositionStart();
+
+        for (int column = 0; column < columns; column++) {
+            int first = (int) ((long) coverages.length() * column / columns);
+            int last = (int) ((long) coverages.length() * (column + 1) / columns) - 1;
+            int firstValue = coverages.get(first);
+            int lastValue = firstValue;
+            int min = first;
+            int max = first;
+            int minValue = firstValue;
+            int maxValue = firstValue;
+
+            for (int i = first + 1; i <= last; i++) {
+                lastValue = coverages.get(i);
+
+                if (lastValue < minValue) {
+                    min = i;
+                    minValue = lastValue;
+                }
+                else if (lastValue > maxValue) {
+                    max = i;
+                    maxValue = lastValue;
+                }
+            }
+
+            series.add(positionStart + first, firstValue);
+
+            if (min != first && min != last && min < max)
+                series.add(positionStart + min, minValue);
+
+            if (max != first && max != last)
+                series.add(positionStart + max, maxValue);
+
+            if (min != first && min != last && min > max)
+                series.add(positionStart + min, minValue);
+
+            if (last != first)
+                series.add(positionStart + last, lastValue);
         }
     }
 
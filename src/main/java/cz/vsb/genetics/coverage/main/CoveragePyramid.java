@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorST;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory mapped reader of coverage pyramid file written by {@link CoveragePyramidWriter}. Coverage of a region
+ * is read from the level with the largest bins still giving requested number of bins, so reading does not
+ * depend on region length. Reading is thread safe.
+ * <p>
+ * Bins at region edges usually cover bases outside the region. At the finest level their coverage is read from
+ * the source BAM file when it is opened by {@link #openSource()}, otherwise edge bins are clipped to the region
+ * with sum scaled by clipped length and min, max of the whole bin, and coverage is marked approximate.
+ */
+public class CoveragePyramid implements AutoCloseable {
+    private final String pyramidFile;
+    private int source;
+    private String sourceFile;
+    private int mappingQuality = -1;
+    private String sourceId = "";
+    private CoverageCalculator sourceCalculator;
+    private int[] binSizes;
+    private Chromosome[] chromosomes;
+    private int[] starts;
+    private int[] ends;
+    private long[][] offsets;
+    private ByteBuffer[] segments;
+    private long[] segmentStarts;
+    private int[] regionSegments;
+    private Map<Chromosome, ChromosomeIndex> regionIndex;
+
+    public CoveragePyramid(String pyramidFile) {
+        this.pyramidFile = pyramidFile;
+    }
+
+    public void open() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pyramidFile)))) {
+            if (in.readInt() != CoveragePyramidWriter.MAGIC)
+                throw new IOException("Invalid coverage pyramid file: " + pyramidFile);
+
+            int version = in.readInt();
+
+            if (version != 1 && version != CoveragePyramidWriter.VERSION)
+                throw new IOException("Invalid coverage pyramid file: " + pyramidFile);
+
+            source = in.readInt();
+            sourceFile = in.readUTF();
+
+            if (version > 1) {
+                mappingQuality = in.readInt();
+                sourceId = in.readUTF();
+            }
+            binSizes = new int[in.readInt()];
+
+            for (int i = 0; i < binSizes.length; i++)
+                binSizes[i] = in.readInt();
+
+            int regions = in.readInt();
+            chromosomes = new Chromosome[regions];
+            starts = new int[regions];
+            ends = new int[regions];
+            offsets = new long[regions][binSizes.length];
+
+            for (int i = 0; i < regions; i++) {
+                chromosomes[i] = Chromosome.valueOf(in.readUTF());
+                starts[i] = in.readInt();
+                ends[i] = in.readInt();
+
+                for (int level = 0; level < binSizes.length; level++)
+                    offsets[i][level] = in.readLong();
+            }
+        }
+
+        mapData();
+        indexRegions();
+    }
+
+    /**
+     * Maps data of all regions at once - one buffer, or more buffers split at region boundaries when data exceed
+     * 2 GB, so the number of mappings does not grow with the number of regions.
+     */
+    private void mapData() throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        List<Long> bufferStarts = new ArrayList<>();
+        regionSegments = new int[chromosomes.length];
+
+        try (RandomAccessFile file = new RandomAccessFile(pyramidFile, "r");
+             FileChannel channel = file.getChannel()) {
+            long segmentStart = -1;
+            long segmentEnd = -1;
+
+            for (int i = 0; i < chromosomes.length; i++) {
+                long regionStart = offsets[i][0];
+                long regionEnd = regionStart;
+
+                for (int level = 0; level < binSizes.length; level++)
+                    regionEnd = Math.max(regionEnd, offsets[i][level] + getLevelSize(i, level));
+
+                if (segmentStart < 0 || regionEnd - segmentStart > Integer.MAX_VALUE) {
+                    if (segmentStart >= 0)
+                        buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+
+                    segmentStart = regionStart;
+                    bufferStarts.add(segmentStart);
+                }
+
+                segmentEnd = Math.max(segmentEnd, regionEnd);
+                regionSegments[i] = bufferStarts.size() - 1;
+            }
+
+            if (segmentStart >= 0)
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentEnd - segmentStart));
+        }
+
+        segments = buffers.toArray(new ByteBuffer[0]);
+        segmentStarts = new long[bufferStarts.size()];
+
+        for (int i = 0; i < segmentStarts.length; i++)
+            segmentStarts[i] = bufferStarts.get(i);
+    }
+
+    private long getLevelSize(int index, int level) {
+        ChromosomeRegion region = new ChromosomeRegion(chromosomes[index], starts[index], ends[index]);
+
+        return (long) CoveragePyramidWriter.getBinCount(region, binSizes[level]) * CoveragePyramidWriter.BIN_BYTES;
+    }
+
+    private void indexRegions() {
+        Map<Chromosome, List<Integer>> chromosomeRegions = new EnumMap<>(Chromosome.class);
+
+        for (int i = 0; i < chromosomes.length; i++)
+            chromosomeRegions.computeIfAbsent(chromosomes[i], chromosome -> new ArrayList<>()).add(i);
+
+        regionIndex = new EnumMap<>(Chromosome.class);
+
+        for (Map.Entry<Chromosome, List<Integer>> entry : chromosomeRegions.entrySet())
+            regionIndex.put(entry.getKey(), new ChromosomeIndex(entry.getValue(), starts, ends));
+    }
+
+    public boolean isOm() {
+        return source == CoveragePyramidWriter.SOURCE_OM;
+    }
+
+    /**
+     * @return BAM or XMAP file the pyramid was built from
+     */
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    /**
+     * Opens the source BAM file for exact coverage of edge bins. The BAM file must be unchanged since the pyramid
+     * was built and the pyramid must record mapping quality (version 2).
+     *
+     * @return whether the source is opened, false for optical maps or changed, missing or unknown BAM file
+     */
+    public boolean openSource() throws Exception {
+        if (isOm() || sourceId.isEmpty() || !new File(sourceFile + ".bai").isFile()
+                || !sourceId.equals(CoverageCache.getInputId(sourceFile)))
+            return false;
+
+        sourceCalculator = new BamCoverageCalculatorST(sourceFile, sourceFile + ".bai");
+        sourceCalculator.open();
+        sourceCalculator.setMappingQuality(mappingQuality);
+
+        return true;
+    }
+
+    /**
+     * Reads binned coverage of given region.
+     *
+     * @param bins minimum number of bins (e.g. plot width in pixels), non-positive value selects the finest level
+     * @return binned coverage, without any bins if the region is not covered by the pyramid
+     */
+    public BinnedCoverageInfo getCoverageInfo(ChromosomeRegion region, int bins) {
+        int index = findRegion(region);
+
+        if (index < 0)
+            return setup(new BinnedCoverageInfo(region.getStart(), region.getEnd(), binSizes[0], region.getStart(),
+                    new int[0], new int[0], new int[0], new long[0]));
+
+        int level = 0;
+        if (bins > 0)
+            while (level + 1 < binSizes.length && region.getLength() / binSizes[level + 1] >= bins)
+                level++;
+
+        int binSize = binSizes[level];
+        int positionStart = Math.max(region.getStart(), starts[index]);
+        int positionEnd = Math.min(region.getEnd(), ends[index]);
+        int firstBin = (positionStart - starts[index]) / binSize;
+        int lastBin = (positionEnd - starts[index]) / binSize;
+        int count = lastBin - firstBin + 1;
+
+        int[] binLengths = new int[count];
+        int[] mins = new int[count];
+        int[] maxs = new int[count];
+        long[] sums = new long[count];
+        ByteBuffer buffer = segments[regionSegments[index]];
+        int levelPosition = (int) (offsets[index][level] - segmentStarts[regionSegments[index]]);
+        boolean approximate = false;
+
+        for (int i = 0; i < count; i++) {
+            int bin = firstBin + i;
+            int position = levelPosition + bin * CoveragePyramidWriter.BIN_BYTES;
+            long binStart = (long) starts[index] + (long) bin * binSize;
+            long binEnd = Math.min(binStart + binSize - 1, ends[index]);
+
+            binLengths[i] = (int) (binEnd - binStart + 1);
+            mins[i] = buffer.getInt(position);
+            maxs[i] = buffer.getInt(position + 4);
+            sums[i] = buffer.getLong(position + 8);
+
+            if (binStart < positionStart || binEnd > positionEnd)
+                approximate |= !clipBin(region.getChromosome(), (int) Math.max(binStart, positionStart),
+                        (int) Math.min(binEnd, positionEnd), level, i, binLengths, mins, maxs, sums);
+        }
+
+        BinnedCoverageInfo coverageInfo = new BinnedCoverageInfo(positionStart, positionEnd, binSize,
+                starts[index] + firstBin * binSize, binLengths, mins, maxs, sums);
+        coverageInfo.setApproximate(approximate);
+
+        return setup(coverageInfo);
+    }
+
+    /**
+     * Clips bin to bases from start to end - from the source BAM file at the finest level if it is opened,
+     * otherwise by scaling the bin sum.
+     *
+     * @return whether the clipped bin is exact
+     */
+    private boolean clipBin(Chromosome chromosome, int start, int end, int level, int bin,
+                            int[] binLengths, int[] mins, int[] maxs, long[] sums) {
+        int length = end - start + 1;
+
+        if (level > 0 || sourceCalculator == null) {
+            sums[bin] = Math.round((double) sums[bin] * length / binLengths[bin]);
+            binLengths[bin] = length;
+            return false;
+        }
+
+        CoverageArray coverages = CoverageArray.of(getSourceCoverage(chromosome, start, end));
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        long sum = 0;
+
+        for (int i = 0; i < coverages.length(); i++) {
+            int coverage = coverages.get(i);
+            min = Math.min(min, coverage);
+            max = Math.max(max, coverage);
+            sum += coverage;
+        }
+
+        binLengths[bin] = length;
+        mins[bin] = coverages.length() == 0 ? 0 : min;
+        maxs[bin] = max;
+        sums[bin] = sum;
+
+        return true;
+    }
+
+    private CoverageInfo getSourceCoverage(Chromosome chromosome, int start, int end) {
+        synchronized (sourceCalculator) {
+            try {
+                return sourceCalculator.getIntervalCoverage(chromosome, start, end);
+            }
+            catch (Exception e) {
+                throw new IllegalStateException("Cannot read coverage of edge bins from: " + sourceFile + " - " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private BinnedCoverageInfo setup(BinnedCoverageInfo coverageInfo) {
+        if (isOm())
+            CoverageInfos.setupOm(coverageInfo, 0);
+        else
+            CoverageInfos.setupHts(coverageInfo, sourceFile, 0);
+
+        return coverageInfo;
+    }
+
+    /**
+     * @return index of pyramid region with the largest overlap with given region (the first one of equal overlaps),
+     * or -1 if no pyramid region overlaps it
+     */
+    private int findRegion(ChromosomeRegion region) {
+        ChromosomeIndex index = regionIndex.get(region.getChromosome());
+
+        if (index == null)
+            return -1;
+
+        int found = -1;
+        long foundOverlap = 0;
+
+        // regions starting before the end of given region, back while any of them may still reach its start
+        for (int i = index.findLastStart(region.getEnd()); i >= 0 && index.maxEnds[i] >= region.getStart(); i--) {
+            int candidate = index.regions[i];
+            long overlap = (long) Math.min(region.getEnd(), ends[candidate]) - Math.max(region.getStart(), starts[candidate]) + 1;
+
+            if (overlap > foundOverlap || overlap == foundOverlap && overlap > 0 && candidate < found) {
+                found = candidate;
+                foundOverlap = overlap;
+            }
+        }
+
+        return found;
+    }
+
+    @Override
+    public void close() throws Exception {
+        segments = null;
+
+        if (sourceCalculator != null)
+            sourceCalculator.close();
+    }
+
+    /**
+     * Regions of a chromosome sorted by start, with the maximum end of regions up to each sorted position.
+     */
+    private static class ChromosomeIndex {
+        private final int[] regions;
+        private final int[] starts;
+        private final int[] maxEnds;
+
+        ChromosomeIndex(List<Integer> chromosomeRegions, int[] regionStarts, int[] regionEnds) {
+            Integer[] sorted = chromosomeRegions.toArray(new Integer[0]);
+            Arrays.sort(sorted, Comparator.comparingInt(i -> regionStarts[i]));
+
+            regions = new int[sorted.length];
+            starts = new int[sorted.length];
+            maxEnds = new int[sorted.length];
+
+            for (int i = 0; i < sorted.length; i++) {
+                regions[i] = sorted[i];
+                starts[i] = regionStarts[sorted[i]];
+                maxEnds[i] = Math.max(i == 0 ? Integer.MIN_VALUE : maxEnds[i - 1], regionEnds[sorted[i]]);
+            }
+        }
+
+        /**
+         * @return sorted position of the last region starting at or before given position, -1 if there is none
+         */
+        int findLastStart(int position) {
+            int low = 0;
+            int high = starts.length;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (starts[middle] <= position)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+
+            return low - 1;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes coverage pyramid file - coverage of given regions summarized into bins (min, max and sum of coverage)
+ * at several bin sizes. Each region is scanned only once in chunks, so memory usage does not depend on region
+ * length. Only the finest level is calculated from coverage, coarser levels are merged from finer ones.
+ *
+ * <pre>
+ * header:  magic, version, source (0 - HTS, 1 - OM), source file, mapping quality (-1 for OM),
+ *          source file id ({@link CoverageCache#getInputId(String...)}, empty for OM), number of levels, bin sizes,
+ *          number of regions, for each region: chromosome, start, end, data offset of each level
+ * data:    for each region and level: bins (int min, int max, long sum)
+ * </pre>
+ */
+public class CoveragePyramidWriter {
+    private static final Logger log = LoggerFactory.getLogger(CoveragePyramidWriter.class);
+
+    static final int MAGIC = 0x4C524350;
+    static final int VERSION = 2;
+    static final int SOURCE_HTS = 0;
+    static final int SOURCE_OM = 1;
+    static final int BIN_BYTES = 16;
+
+    private static final int[] BIN_SIZES = {100, 1000, 10000, 100000, 1000000};
+    private static final int CHUNK_SIZE = 10000000;
+
+    private final CoverageCalculator calculator;
+    private final int source;
+    private final String sourceFile;
+    private int mappingQuality = -1;
+
+    /**
+     * @param source     {@link #SOURCE_HTS} or {@link #SOURCE_OM}
+     * @param sourceFile BAM or XMAP file the coverage is calculated from - used for naming of plotted series
+     */
+    public CoveragePyramidWriter(CoverageCalculator calculator, int source, String sourceFile) {
+        this.calculator = calculator;
+        this.source = source;
+        this.sourceFile = sourceFile;
+    }
+
+    /**
+     * @param mappingQuality mapping quality the HTS coverage is calculated with, so base level coverage of partial
+     *                       bins can be read from the BAM file the same way, see {@link CoveragePyramid#openSource()}
+     */
+    public void setMappingQuality(int mappingQuality) {
+        this.mappingQuality = mappingQuality;
+    }
+
+    public void write(String pyramidFile, List<ChromosomeRegion> regions) throws Exception {
+        long[][] offsets = new long[regions.size()][BIN_SIZES.length];
+        long offset = getHeader(regions, offsets).length;
+
+        for (int i = 0; i < regions.size(); i++) {
+            for (int level = 0; level < BIN_SIZES.length; level++) {
+                offsets[i][level] = offset;
+                offset += (long) getBinCount(regions.get(i), BIN_SIZES[level]) * BIN_BYTES;
+            }
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(pyramidFile, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(0);
+            write(channel, ByteBuffer.wrap(getHeader(regions, offsets)), 0);
+
+            for (int i = 0; i < regions.size(); i++) {
+                ChromosomeRegion region = regions.get(i);
+                log.info(String.format("Building coverage pyramid for: %s... %d/%d", region, i + 1, regions.size()));
+
+                Bins[] levels = calculateBins(region);
+
+                for (int level = 0; level < levels.length; level++)
+                    write(channel, levels[level].toBuffer(), offsets[i][level]);
+            }
+        }
+    }
+
+    private byte[] getHeader(List<ChromosomeRegion> regions, long[][] offsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(source);
+            out.writeUTF(sourceFile);
+            out.writeInt(mappingQuality);
+            out.writeUTF(source == SOURCE_HTS && mappingQuality >= 0 ? CoverageCache.getInputId(sourceFile) : "");
+            out.writeInt(BIN_SIZES.length);
+
+            for (int binSize : BIN_SIZES)
+                out.writeInt(binSize);
+
+            out.writeInt(regions.size());
+
+            for (int i = 0; i < regions.size(); i++) {
+                ChromosomeRegion region = regions.get(i);
+                out.writeUTF(region.getChromosome().name());
+                out.writeInt(region.getStart());
+                out.writeInt(region.getEnd());
+
+                for (long offset : offsets[i])
+                    out.writeLong(offset);
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private Bins[] calculateBins(ChromosomeRegion region) throws Exception {
+        Bins[] levels = new Bins[BIN_SIZES.length];
+        levels[0] = new Bins(getBinCount(region, BIN_SIZES[0]));
+
+        for (int chunkStart = region.getStart(); chunkStart <= region.getEnd(); chunkStart += CHUNK_SIZE) {
+            int chunkEnd = (int) Math.min((long) chunkStart + CHUNK_SIZE - 1, region.getEnd());
+            CoverageInfo coverageInfo = calculator.getIntervalCoverage(region.getChromosome(), chunkStart, chunkEnd);
+
+            if (coverageInfo == null || coverageInfo.getCoverages() == null)
+                continue;
+
+            int[] coverages = coverageInfo.getCoverages();
+            int first = Math.max(0, chunkStart - coverageInfo.getPositionStart());
+            int last = Math.min(coverages.length - 1, chunkEnd - coverageInfo.getPositionStart());
+
+            for (int i = first; i <= last; i++)
+                levels[0].add((coverageInfo.getPositionStart() + i - region.getStart()) / BIN_SIZES[0], coverages[i]);
+        }
+
+        for (int level = 1; level < levels.length; level++)
+            levels[level] = levels[level - 1].merge(BIN_SIZES[level] / BIN_SIZES[level - 1], getBinCount(region, BIN_SIZES[level]));
+
+        return levels;
+    }
+
+    static int getBinCount(ChromosomeRegion region, int binSize) {
+        return (int) (((long) region.getEnd() - region.getStart()) / binSize) + 1;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private static class Bins {
+        final int[] mins;
+        final int[] maxs;
+        final long[] sums;
+
+        Bins(int count) {
+            mins = new int[count];
+            maxs = new int[count];
+            sums = new long[count];
+            Arrays.fill(mins, Integer.MAX_VALUE);
+        }
+
+        void add(int bin, int coverage) {
+            if (coverage < mins[bin])
+                mins[bin] = coverage;
+
+            if (coverage > maxs[bin])
+                maxs[bin] = coverage;
+
+            sums[bin] += coverage;
+        }
+
+        Bins merge(int factor, int count) {
+            Bins merged = new Bins(count);
+
+            for (int i = 0; i < sums.length; i++) {
+                int bin = i / factor;
+                merged.mins[bin] = Math.min(merged.mins[bin], mins[i]);
+                merged.maxs[bin] = Math.max(merged.maxs[bin], maxs[i]);
+                merged.sums[bin] += sums[i];
+            }
+
+            return merged;
+        }
+
+        ByteBuffer toBuffer() {
+            ByteBuffer buffer = ByteBuffer.allocate(sums.length * BIN_BYTES);
+
+            for (int i = 0; i < sums.length; i++) {
+                buffer.putInt(mins[i] == Integer.MAX_VALUE ? 0 : mins[i]);
+                buffer.putInt(maxs[i]);
+                buffer.putLong(sums[i]);
+            }
+
+            buffer.flip();
+
+            return buffer;
+        }
+    }
+}
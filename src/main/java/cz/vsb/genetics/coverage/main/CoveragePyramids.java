@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coverage pyramids used instead of BAM files and optical maps - at most one of them may be built from optical maps.
+ */
+public class CoveragePyramids implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CoveragePyramids.class);
+
+    private final List<CoveragePyramid> htsPyramids = new ArrayList<>();
+    private CoveragePyramid omPyramid;
+
+    public void open(String[] pyramidFiles) throws Exception {
+        for (String pyramidFile : pyramidFiles) {
+            CoveragePyramid pyramid = new CoveragePyramid(pyramidFile);
+            pyramid.open();
+
+            if (!pyramid.isOm())
+                htsPyramids.add(pyramid);
+            else if (omPyramid == null)
+                omPyramid = pyramid;
+            else
+                throw new IllegalArgumentException("Only one optical maps coverage pyramid may be used: " + pyramidFile);
+        }
+    }
+
+    /**
+     * Opens source BAM files of HTS pyramids, so coverage of bins at region edges is exact, see
+     * {@link CoveragePyramid#openSource()}.
+     */
+    public void openSources() throws Exception {
+        for (CoveragePyramid pyramid : htsPyramids)
+            if (!pyramid.openSource())
+                log.warn("Source bam of coverage pyramid is changed, missing or not recorded, coverage of bins at region edges is approximate: "
+                        + pyramid.getSourceFile());
+
+        if (omPyramid != null)
+            log.warn("Coverage of bins at region edges is approximate for optical maps coverage pyramid: " + omPyramid.getSourceFile());
+    }
+
+    public boolean isOm() {
+        return omPyramid != null;
+    }
+
+    /**
+     * @return BAM files of HTS pyramids
+     */
+    public String[] getBams() {
+        String[] bams = new String[htsPyramids.size()];
+
+        for (int i = 0; i < bams.length; i++)
+            bams[i] = htsPyramids.get(i).getSourceFile();
+
+        return bams;
+    }
+
+    /**
+     * @param bins minimum number of bins per region, non-positive value reads the finest bins
+     */
+    public RegionCoverage getRegionCoverage(ChromosomeRegion region, int bins) {
+        List<CoverageInfo> htsCoverages = null;
+
+        if (!htsPyramids.isEmpty()) {
+            htsCoverages = new ArrayList<>();
+
+            for (CoveragePyramid pyramid : htsPyramids)
+                htsCoverages.add(pyramid.getCoverageInfo(region, bins));
+        }
+
+        CoverageInfo omCoverage = omPyramid == null ? null : omPyramid.getCoverageInfo(region, bins);
+
+        return new RegionCoverage(region, htsCoverages, omCoverage);
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (CoveragePyramid pyramid : htsPyramids)
+            pyramid.close();
+
+        if (omPyramid != null)
+            omPyramid.close();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import java.util.concurrent.*;
+
+/**
+ * Runs independent coverage calculations (one per BAM file and one for optical maps) concurrently
+ * under single global thread budget. When there are fewer tasks than threads, remaining threads
+ * are distributed among tasks and can be used by multi-threaded calculators.
+ */
+public class CoverageScheduler implements AutoCloseable {
+    private final ExecutorService executor;
+    private final int taskThreads;
+
+    public CoverageScheduler(int threads, int tasks) {
+        threads = Math.max(1, threads);
+        tasks = Math.max(1, tasks);
+
+        this.executor = Executors.newFixedThreadPool(Math.min(threads, tasks));
+        this.taskThreads = Math.max(1, threads / tasks);
+    }
+
+    /**
+     * @return number of threads available to each submitted task
+     */
+    public int getTaskThreads() {
+        return taskThreads;
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    public static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
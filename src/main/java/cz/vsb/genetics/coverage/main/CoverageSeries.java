@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import java.util.Arrays;
+
+/**
+ * Sampled coverage points (position, coverage) stored in primitive arrays. Points must be added in position order.
+ */
+public class CoverageSeries {
+    private final String name;
+    private int[] positions;
+    private double[] values;
+    private int size = 0;
+
+    public CoverageSeries(String name, int capacity) {
+        this.name = name;
+        this.positions = new int[Math.max(16, capacity)];
+        this.values = new double[positions.length];
+    }
+
+    public void add(int position, double value) {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        positions[size] = position;
+        values[size++] = value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPosition(int index) {
+        return positions[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorMT;
+import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorST;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local HTTP server answering plot and statistics requests of a region. Coverage calculators stay open between
+ * requests (at most {@link #MAX_READERS} least recently used ones, per input file and mapping quality), so repeated
+ * requests do not reopen BAM files or reparse optical maps. Server listens on loopback address only.
+ *
+ * <pre>
+ * GET /plot?region=chr17:7668421-7687490[&amp;format=png&amp;sampling_type=..&amp;plot_type=..&amp;width=..&amp;height=..&amp;title=..]
+ * GET /statistics?region=chr17:7668421-7687490
+ * GET /tile?region=chr17:1-83257441&amp;z=3&amp;x=5[&amp;coverage_limit=..&amp;format=png&amp;width=..&amp;height=..]
+ * </pre>
+ * Tile x of zoom level z is drawn by {@link CoverageTiles} from coverage of the tile only. Tiles join seamlessly
+ * only with the same coverage_limit, without it the limit is derived from each tile separately.
+ * All accept bam (separated by semicolon), cmap_r, cmap_q, xmap, mapping_quality, coverage_limit_hts and
+ * coverage_limit_om parameters, input files default to files given on command line. Requested input files are
+ * restricted to files given on command line and files in allowed directories, see {@link #setAllowedDirs(String[])}.
+ * Region (tile region) length is limited by {@link #MAX_REGION_LENGTH} and image size by {@link #MAX_IMAGE_SIZE}.
+ * Thread budget is split between concurrent requests and threads of BAM calculators.
+ */
+public class CoverageServer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CoverageServer.class);
+
+    static final int MAX_READERS = 32;
+    static final int MAX_REGION_LENGTH = 10000000;
+    static final int MAX_IMAGE_SIZE = 8192;
+
+    private final int port;
+    private final int requestThreads;
+    private final int calculatorThreads;
+    private final Set<String> allowedFiles = new HashSet<>();
+    private final List<String> allowedDirs = new ArrayList<>();
+    private final Map<String, CoverageReader> readers = new LinkedHashMap<>(16, 0.75f, true);
+    private String[] bams = new String[0];
+    private String cmapRef;
+    private String cmapQry;
+    private String xmap;
+    private String omIndex;
+    private int mappingQuality = 0;
+    private int htsSamplingSize = 100;
+    private int omSamplingSize = 10;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param threads total number of threads - about square root of them handles requests, each request calculates
+     *                BAM coverage by the rest, so requests never use more threads than given
+     */
+    public CoverageServer(int port, int threads) {
+        this.port = port;
+        this.requestThreads = Math.max(1, (int) Math.sqrt(threads));
+        this.calculatorThreads = Math.max(1, threads / requestThreads);
+    }
+
+    /**
+     * Sets input files used when request does not specify them, requests may use only these files and files
+     * of allowed directories.
+     */
+    public void setInputs(String[] bams, String cmapRef, String cmapQry, String xmap) throws IOException {
+        this.bams = bams;
+        this.cmapRef = cmapRef;
+        this.cmapQry = cmapQry;
+        this.xmap = xmap;
+
+        for (String file : bams)
+            allowedFiles.add(new File(file).getCanonicalPath());
+
+        for (String file : new String[] {cmapRef, cmapQry, xmap})
+            if (StringUtils.isNotBlank(file))
+                allowedFiles.add(new File(file).getCanonicalPath());
+    }
+
+    /**
+     * Sets directories whose files (including subdirectories) may be requested besides input files.
+     */
+    public void setAllowedDirs(String[] dirs) throws IOException {
+        for (String dir : dirs)
+            allowedDirs.add(new File(dir).getCanonicalPath() + File.separator);
+    }
+
+    public void setOmIndex(String omIndex) {
+        this.omIndex = omIndex;
+    }
+
+    public void setMappingQuality(int mappingQuality) {
+        this.mappingQuality = mappingQuality;
+    }
+
+    public void setHtsSamplingSize(int htsSamplingSize) {
+        this.htsSamplingSize = htsSamplingSize;
+    }
+
+    public void setOmSamplingSize(int omSamplingSize) {
+        this.omSamplingSize = omSamplingSize;
+    }
+
+    /**
+     * Opens calculators of default input files and starts listening.
+     */
+    public void start() throws Exception {
+        for (String bam : bams) {
+            String path = checkAllowed(bam);
+            getReader(getHtsKey(path, mappingQuality), getHtsFactory(path, mappingQuality)).open();
+        }
+
+        if (StringUtils.isNoneBlank(cmapRef, cmapQry, xmap)) {
+            String[] paths = {checkAllowed(cmapRef), checkAllowed(cmapQry), checkAllowed(xmap)};
+            getReader(getOmKey(paths[0], paths[1], paths[2]), getOmFactory(paths[0], paths[1], paths[2])).open();
+        }
+
+        executor = Executors.newFixedThreadPool(requestThreads);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/plot", exchange -> handle(exchange, this::plot));
+        server.createContext("/statistics", exchange -> handle(exchange, this::statistics));
+        server.createContext("/tile", exchange -> handle(exchange, this::tile));
+        server.setExecutor(executor);
+        server.start();
+
+        log.info("Coverage server listening on: http://localhost:" + server.getAddress().getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, RequestHandler handler) throws IOException {
+        long startTime = System.nanoTime();
+        int status;
+        String contentType;
+        byte[] body;
+
+        try {
+            Response response = handler.handle(getParameters(exchange.getRequestURI().getRawQuery()));
+            status = 200;
+            contentType = response.contentType;
+            body = response.body;
+        }
+        catch (IllegalArgumentException e) {
+            status = 400;
+            contentType = "application/json";
+            body = getError(e).getBytes(StandardCharsets.UTF_8);
+        }
+        catch (SecurityException e) {
+            status = 403;
+            contentType = "application/json";
+            body = getError(e).getBytes(StandardCharsets.UTF_8);
+        }
+        catch (Exception e) {
+            log.error(e.getMessage(), e);
+            status = 500;
+            contentType = "application/json";
+            body = getError(e).getBytes(StandardCharsets.UTF_8);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+
+        log.info(String.format("%s %d (%d ms)", exchange.getRequestURI(), status, (System.nanoTime() - startTime) / 1000000));
+    }
+
+    private Response plot(Map<String, String> parameters) throws Exception {
+        ChromosomeRegion region = checkLength(getRegion(parameters));
+        ImageFormat format = ImageFormat.of(parameters.get("format"));
+        CoveragePlotBase coveragePlot = PlotType.of(parameters.get("plot_type")).createCoveragePlot();
+
+        if (parameters.containsKey("width"))
+            coveragePlot.setWidth(getImageSize(parameters, "width", CoveragePlotBase.DEFAULT_WIDTH));
+
+        if (parameters.containsKey("height"))
+            coveragePlot.setHeight(getImageSize(parameters, "height", 0));
+
+        List<CoverageInfo> coverageInfos = new ArrayList<>(getHtsCoverages(parameters, region));
+        CoverageInfo omCoverage = getOmCoverage(parameters, region);
+
+        if (omCoverage != null)
+            coverageInfos.add(omCoverage);
+
+        if (coverageInfos.isEmpty())
+            throw new IllegalArgumentException("No bam or optical maps specified");
+
+        String title = parameters.getOrDefault("title", region.toString());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        coveragePlot.plotCoverage(title, "Position", "Coverage", out, SamplingType.of(parameters.get("sampling_type")), coverageInfos, format);
+
+        return new Response(format.contentType, out.toByteArray());
+    }
+
+    private Response statistics(Map<String, String> parameters) throws Exception {
+        ChromosomeRegion region = checkLength(getRegion(parameters));
+        List<CoverageInfo> htsCoverages = getHtsCoverages(parameters, region);
+        CoverageInfo omCoverage = getOmCoverage(parameters, region);
+        CoverageHistogramStatistics stats = new CoverageHistogramStatistics();
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"region\": \"").append(region).append("\", \"length\": ").append(region.getLength());
+
+        if (omCoverage != null) {
+            stats.calculateStatistics(omCoverage);
+            json.append(", \"om\": ").append(getStatisticsJson(stats, "\"site_count\": " + omCoverage.getSiteCount()));
+        }
+
+        json.append(", \"hts\": [");
+
+        for (int i = 0; i < htsCoverages.size(); i++) {
+            stats.calculateStatistics(htsCoverages.get(i));
+            json.append(i > 0 ? ", " : "").append(getStatisticsJson(stats, "\"name\": \"" + escapeJson(htsCoverages.get(i).getName()) + "\""));
+        }
+
+        json.append("]}\n");
+
+        return new Response("application/json", json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Response tile(Map<String, String> parameters) throws Exception {
+        ChromosomeRegion region = getRegion(parameters);
+        ImageFormat format = ImageFormat.of(parameters.get("format"));
+        CoverageTiles tiles = new CoverageTiles(PlotType.of(parameters.get("plot_type")), format);
+        tiles.setTileWidth(getImageSize(parameters, "width", CoverageTiles.DEFAULT_TILE_WIDTH));
+        tiles.setTileHeight(getImageSize(parameters, "height", CoverageTiles.DEFAULT_TILE_HEIGHT));
+
+        CoverageTiles.TileSource source = (tileRegion, bins) -> {
+            checkLength(tileRegion);
+
+            RegionCoverage regionCoverage = new RegionCoverage(tileRegion, getHtsCoverages(parameters, tileRegion),
+                    getOmCoverage(parameters, tileRegion));
+
+            if (regionCoverage.getHtsCoverages().isEmpty() && regionCoverage.getOmCoverage() == null)
+                throw new IllegalArgumentException("No bam or optical maps specified");
+
+            return regionCoverage;
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tiles.writeTile(out, region, getInt(parameters, "z", 0), getInt(parameters, "x", 0), source,
+                getInt(parameters, "coverage_limit", 0));
+
+        return new Response(format.contentType, out.toByteArray());
+    }
+
+    private static String getStatisticsJson(CoverageHistogramStatistics stats, String field) {
+        return String.format("{%s, \"min\": %d, \"q1\": %d, \"median\": %d, \"q3\": %d, \"max\": %d, \"mean\": %d, \"stddev\": %d}",
+                field, stats.min(), stats.q1(), stats.median(), stats.q3(), stats.max(), stats.mean(), stats.standardDeviation());
+    }
+
+    private List<CoverageInfo> getHtsCoverages(Map<String, String> parameters, ChromosomeRegion region) throws Exception {
+        String bam = parameters.get("bam");
+        String[] requestBams = bam == null ? bams : StringUtils.isBlank(bam) ? new String[0] : bam.split(";");
+        int requestMappingQuality = getInt(parameters, "mapping_quality", mappingQuality);
+        int coverageLimit = getInt(parameters, "coverage_limit_hts", 0);
+        List<CoverageInfo> coverageInfos = new ArrayList<>();
+
+        for (String requestBam : requestBams) {
+            CoverageInfo coverageInfo = getHtsCoverage(checkAllowed(requestBam), requestMappingQuality, region);
+            CoverageInfos.setupHts(coverageInfo, requestBam, htsSamplingSize);
+            coverageInfo.setCoverageLimit(coverageLimit);
+            coverageInfos.add(coverageInfo);
+        }
+
+        return coverageInfos;
+    }
+
+    private CoverageInfo getOmCoverage(Map<String, String> parameters, ChromosomeRegion region) throws Exception {
+        boolean requestOm = parameters.containsKey("xmap");
+        String requestCmapRef = requestOm ? parameters.get("cmap_r") : cmapRef;
+        String requestCmapQry = requestOm ? parameters.get("cmap_q") : cmapQry;
+        String requestXmap = requestOm ? parameters.get("xmap") : xmap;
+
+        if (!StringUtils.isNoneBlank(requestCmapRef, requestCmapQry, requestXmap)) {
+            if (requestOm && StringUtils.isNotBlank(requestXmap))
+                throw new IllegalArgumentException("Optical maps need xmap, cmap_r and cmap_q parameters");
+
+            return null;
+        }
+
+        CoverageInfo coverageInfo = getOmCoverage(checkAllowed(requestCmapRef), checkAllowed(requestCmapQry),
+                checkAllowed(requestXmap), region);
+        CoverageInfos.setupOm(coverageInfo, omSamplingSize);
+        coverageInfo.setCoverageLimit(getInt(parameters, "coverage_limit_om", 0));
+
+        return coverageInfo;
+    }
+
+    private CoverageInfo getHtsCoverage(String bam, int mappingQuality, ChromosomeRegion region) throws Exception {
+        return getIntervalCoverage(getHtsKey(bam, mappingQuality), getHtsFactory(bam, mappingQuality), region);
+    }
+
+    private CoverageInfo getOmCoverage(String cmapRef, String cmapQry, String xmap, ChromosomeRegion region) throws Exception {
+        return getIntervalCoverage(getOmKey(cmapRef, cmapQry, xmap), getOmFactory(cmapRef, cmapQry, xmap), region);
+    }
+
+    private static String getHtsKey(String bam, int mappingQuality) {
+        return "hts|" + mappingQuality + "|" + bam;
+    }
+
+    private static String getOmKey(String cmapRef, String cmapQry, String xmap) {
+        return "om|" + cmapRef + "|" + cmapQry + "|" + xmap;
+    }
+
+    private Callable<CoverageCalculator> getHtsFactory(String bam, int mappingQuality) {
+        return () -> {
+            String bai = bam + ".bai";
+            CoverageCalculator calculator = calculatorThreads == 1
+                    ? new BamCoverageCalculatorST(bam, bai) : new BamCoverageCalculatorMT(bam, bai, calculatorThreads);
+            calculator.open();
+            calculator.setMappingQuality(mappingQuality);
+
+            return calculator;
+        };
+    }
+
+    private Callable<CoverageCalculator> getOmFactory(String cmapRef, String cmapQry, String xmap) {
+        return () -> {
+            log.info("Loading optical maps: " + xmap);
+            CoverageCalculator calculator = BionanoIndexedCoverageCalculator.create(cmapRef, cmapQry, xmap, omIndex);
+            calculator.open();
+
+            return calculator;
+        };
+    }
+
+    /**
+     * Reader may be evicted and closed by other request between getting it and using it, closed reader refuses
+     * to reopen its calculator (it would not be closed again), so current reader of the key is used instead.
+     */
+    private CoverageInfo getIntervalCoverage(String key, Callable<CoverageCalculator> factory, ChromosomeRegion region) throws Exception {
+        while (true) {
+            try {
+                return getReader(key, factory).getIntervalCoverage(region);
+            }
+            catch (ReaderClosedException e) {
+                log.debug("Coverage reader closed before use: " + key);
+            }
+        }
+    }
+
+    /**
+     * Returns reader of given key, least recently used reader is closed when there are too many of them. Reader
+     * opens its calculator on first use, so slow opening does not block requests for other files.
+     */
+    private CoverageReader getReader(String key, Callable<CoverageCalculator> factory) throws Exception {
+        CoverageReader reader;
+        List<CoverageReader> evicted = new ArrayList<>();
+
+        synchronized (readers) {
+            reader = readers.computeIfAbsent(key, k -> new CoverageReader(factory));
+
+            Iterator<CoverageReader> iterator = readers.values().iterator();
+            while (readers.size() > MAX_READERS) {
+                evicted.add(iterator.next());
+                iterator.remove();
+            }
+        }
+
+        for (CoverageReader evictedReader : evicted)
+            evictedReader.close();
+
+        return reader;
+    }
+
+    /**
+     * @return canonical path of file given on command line or in allowed directory
+     */
+    private String checkAllowed(String file) throws IOException {
+        String path = new File(file).getCanonicalPath();
+
+        if (allowedFiles.contains(path))
+            return path;
+
+        for (String dir : allowedDirs)
+            if (path.startsWith(dir))
+                return path;
+
+        throw new SecurityException("File is not allowed: " + file);
+    }
+
+    private static ChromosomeRegion checkLength(ChromosomeRegion region) {
+        if (region.getLength() > MAX_REGION_LENGTH)
+            throw new IllegalArgumentException("Region " + region + " is longer than " + MAX_REGION_LENGTH + " bp");
+
+        return region;
+    }
+
+    private static int getImageSize(Map<String, String> parameters, String name, int defaultValue) {
+        int size = getInt(parameters, name, defaultValue);
+
+        if (size < 1 || size > MAX_IMAGE_SIZE)
+            throw new IllegalArgumentException("Invalid " + name + " parameter: " + size + " (maximum " + MAX_IMAGE_SIZE + ")");
+
+        return size;
+    }
+
+    private static ChromosomeRegion getRegion(Map<String, String> parameters) {
+        String value = parameters.get("region");
+        ChromosomeRegion region = StringUtils.isBlank(value) ? null : ChromosomeRegion.valueOf(value);
+
+        if (region == null)
+            throw new IllegalArgumentException("Missing or invalid region parameter: " + value);
+
+        return region;
+    }
+
+    private static int getInt(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " parameter: " + value);
+        }
+    }
+
+    private static Map<String, String> getParameters(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+
+        if (query == null)
+            return parameters;
+
+        for (String parameter : query.split("&")) {
+            int index = parameter.indexOf('=');
+            String name = URLDecoder.decode(index < 0 ? parameter : parameter.substring(0, index), "UTF-8");
+            String value = index < 0 ? "" : URLDecoder.decode(parameter.substring(index + 1), "UTF-8");
+
+            parameters.put(name, value);
+        }
+
+        return parameters;
+    }
+
+    private static String getError(Exception e) {
+        return "{\"error\": \"" + escapeJson(String.valueOf(e.getMessage())) + "\"}\n";
+    }
+
+    private static String escapeJson(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (server != null)
+            server.stop(0);
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        synchronized (readers) {
+            for (CoverageReader reader : readers.values())
+                reader.close();
+
+            readers.clear();
+        }
+    }
+
+    private interface RequestHandler {
+        Response handle(Map<String, String> parameters) throws Exception;
+    }
+
+    private static class Response {
+        private final String contentType;
+        private final byte[] body;
+
+        Response(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private static class ReaderClosedException extends Exception {
+    }
+
+    /**
+     * Coverage calculator shared by requests, calculators are not thread safe, so requests of the same file
+     * are serialized. Closed reader refuses to open its calculator again.
+     */
+    private static class CoverageReader {
+        private final Callable<CoverageCalculator> factory;
+        private CoverageCalculator calculator;
+        private boolean closed = false;
+
+        CoverageReader(Callable<CoverageCalculator> factory) {
+            this.factory = factory;
+        }
+
+        synchronized void open() throws Exception {
+            if (closed)
+                throw new ReaderClosedException();
+
+            if (calculator == null)
+                calculator = factory.call();
+        }
+
+        synchronized CoverageInfo getIntervalCoverage(ChromosomeRegion region) throws Exception {
+            open();
+
+            return calculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
+        }
+
+        synchronized void close() {
+            closed = true;
+
+            if (calculator == null)
+                return;
+
+            try {
+                calculator.close();
+            }
+            catch (Exception e) {
+                log.warn("Cannot close coverage calculator: " + e.getMessage());
+            }
+
+            calculator = null;
+        }
+    }
+}
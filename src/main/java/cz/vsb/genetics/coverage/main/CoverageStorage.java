@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Decides how calculated coverage is kept in memory until it is plotted or its statistics are calculated - as
+ * int array returned by calculators (default), compact arrays on heap or arrays outside of Java heap. Calculators
+ * which accumulate coverage themselves use {@link #allocate(int)} and {@link #store(int, int, CoverageArray)}, so
+ * full int array of compact or off-heap coverage never exists on heap.
+ */
+public class CoverageStorage {
+    public static final CoverageStorage HEAP = new CoverageStorage(false, false, null);
+
+    private final boolean compact;
+    private final boolean offHeap;
+    private final File tempDir;
+
+    private CoverageStorage(boolean compact, boolean offHeap, File tempDir) {
+        this.compact = compact;
+        this.offHeap = offHeap;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * @param compact whether byte/short/run-length encoded arrays are used
+     * @param offHeap null for Java heap, "direct" for direct memory, otherwise directory for memory mapped temporary files
+     */
+    public static CoverageStorage of(boolean compact, String offHeap) throws IOException {
+        if (offHeap == null)
+            return compact ? new CoverageStorage(true, false, null) : HEAP;
+
+        if (offHeap.equalsIgnoreCase("direct"))
+            return new CoverageStorage(compact, true, null);
+
+        File tempDir = new File(offHeap);
+
+        if (!tempDir.isDirectory() && !tempDir.mkdirs())
+            throw new IOException("Cannot create directory for off-heap coverage: " + offHeap);
+
+        return new CoverageStorage(compact, true, tempDir);
+    }
+
+    public CoverageInfo store(CoverageInfo coverageInfo) throws IOException {
+        if (this == HEAP || coverageInfo == null || coverageInfo instanceof CompactCoverageInfo || coverageInfo instanceof BinnedCoverageInfo)
+            return coverageInfo;
+
+        return new CompactCoverageInfo(coverageInfo, CoverageArray.create(coverageInfo.getCoverages(), compact, offHeap, tempDir));
+    }
+
+    /**
+     * @return writable zero filled array for accumulating coverage - int array for {@link #HEAP}, otherwise int
+     * values outside of Java heap
+     */
+    public CoverageArray allocate(int length) throws IOException {
+        if (this == HEAP)
+            return CoverageArray.of(new int[length]);
+
+        return CoverageArray.allocate(length, tempDir);
+    }
+
+    /**
+     * Converts coverage accumulated in array of {@link #allocate(int)} into stored coverage info, off-heap memory of
+     * the accumulated array is released.
+     */
+    public CoverageInfo store(int positionStart, int positionEnd, CoverageArray coverages) throws IOException {
+        if (this == HEAP)
+            return CoverageInfos.create(positionStart, positionEnd, coverages.toArray());
+
+        try {
+            return new CompactCoverageInfo(positionStart, positionEnd, CoverageArray.create(coverages, compact, offHeap, tempDir));
+        }
+        finally {
+            coverages.release();
+        }
+    }
+
+    /**
+     * @return stored coverage info with its own copy of coverage, so both can be released independently
+     */
+    public CoverageInfo copy(CoverageInfo coverageInfo) throws IOException {
+        if (!(coverageInfo instanceof CompactCoverageInfo))
+            return coverageInfo;
+
+        CoverageArray coverageArray = ((CompactCoverageInfo) coverageInfo).getCoverageArray();
+
+        return new CompactCoverageInfo(coverageInfo, CoverageArray.create(coverageArray, compact, offHeap, tempDir));
+    }
+
+    /**
+     * Frees off-heap memory of stored coverage info right away, the info must not be read afterwards. Coverage on
+     * heap is left to garbage collection.
+     */
+    public static void release(CoverageInfo coverageInfo) {
+        if (coverageInfo instanceof CompactCoverageInfo)
+            ((CompactCoverageInfo) coverageInfo).getCoverageArray().release();
+    }
+
+    /**
+     * Replaces coverage infos of the map by stored ones.
+     */
+    public Map<ChromosomeRegion, CoverageInfo> store(Map<ChromosomeRegion, CoverageInfo> coverageInfos) throws IOException {
+        for (Map.Entry<ChromosomeRegion, CoverageInfo> entry : coverageInfos.entrySet())
+            entry.setValue(store(entry.getValue()));
+
+        return coverageInfos;
+    }
+}
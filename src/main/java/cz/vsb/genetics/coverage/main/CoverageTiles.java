@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.jfree.chart.JFreeChart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders coverage of a region as fixed size image tiles at zoom levels, similar to map tiles - zoom level z splits
+ * the region into 2^z tiles of equal length, tile x of level z covers x-th part. Tiles have no axes or margins and
+ * share coverage limit, so a viewer can join neighbouring tiles. Tiles are rendered in parallel by
+ * {@link PlotRenderer} or one by one on request, coverage of each tile is read from {@link TileSource}.
+ */
+public class CoverageTiles {
+    private static final Logger log = LoggerFactory.getLogger(CoverageTiles.class);
+
+    public static final int DEFAULT_TILE_WIDTH = 512;
+    public static final int DEFAULT_TILE_HEIGHT = 256;
+    public static final int MAX_ZOOM = 30;
+
+    private final PlotType plotType;
+    private final ImageFormat format;
+    private int tileWidth = DEFAULT_TILE_WIDTH;
+    private int tileHeight = DEFAULT_TILE_HEIGHT;
+
+    /**
+     * Coverage of a part of region, binned to at least given number of bins when the source supports it.
+     */
+    public interface TileSource {
+        RegionCoverage getRegionCoverage(ChromosomeRegion region, int bins) throws Exception;
+    }
+
+    public CoverageTiles(PlotType plotType, ImageFormat format) {
+        if (format != ImageFormat.PNG && format != ImageFormat.JPG)
+            throw new IllegalArgumentException("Tiles can be rendered only as png or jpg images");
+
+        this.plotType = plotType;
+        this.format = format;
+    }
+
+    public void setTileWidth(int tileWidth) {
+        this.tileWidth = tileWidth;
+    }
+
+    public void setTileHeight(int tileHeight) {
+        this.tileHeight = tileHeight;
+    }
+
+    /**
+     * @return source reading tiles from already calculated per-base coverage of the whole region (without copying)
+     */
+    public static TileSource of(RegionCoverage regionCoverage) {
+        ChromosomeRegion whole = regionCoverage.getRegion();
+
+        return (region, bins) -> {
+            List<CoverageInfo> htsCoverages = null;
+
+            if (regionCoverage.getHtsCoverages() != null) {
+                htsCoverages = new ArrayList<>();
+
+                for (CoverageInfo coverageInfo : regionCoverage.getHtsCoverages())
+                    htsCoverages.add(slice(coverageInfo, whole, region));
+            }
+
+            return new RegionCoverage(region, htsCoverages, slice(regionCoverage.getOmCoverage(), whole, region));
+        };
+    }
+
+    private static CoverageInfo slice(CoverageInfo coverageInfo, ChromosomeRegion whole, ChromosomeRegion region) {
+        if (coverageInfo == null || coverageInfo instanceof BinnedCoverageInfo)
+            return coverageInfo;
+
+        CoverageInfo tile = new CompactCoverageInfo(coverageInfo,
+                CoverageArray.of(coverageInfo).slice(region.getStart() - whole.getStart(), region.getLength()));
+        tile.setPositionStart(region.getStart());
+        tile.setPositionEnd(region.getEnd());
+
+        return tile;
+    }
+
+    /**
+     * @return part of region covered by given tile
+     */
+    public static ChromosomeRegion getTileRegion(ChromosomeRegion region, int zoom, int x) {
+        if (zoom < 0 || zoom > MAX_ZOOM || x < 0 || x >= 1L << zoom)
+            throw new IllegalArgumentException("Invalid tile: zoom " + zoom + ", x " + x);
+
+        long length = region.getLength();
+        long start = region.getStart() + length * x / (1L << zoom);
+        long end = region.getStart() + length * (x + 1) / (1L << zoom) - 1;
+
+        if (end < start)
+            throw new IllegalArgumentException("Tile is shorter than one base: zoom " + zoom + ", x " + x);
+
+        return ChromosomeRegion.valueOf(region.getChromosome().name() + ":" + start + "-" + end);
+    }
+
+    /**
+     * @return coverage limit shared by all tiles of the region - given limit, or twice the highest mean coverage of
+     * the whole region when no limit is given
+     */
+    public int getCoverageLimit(ChromosomeRegion region, TileSource source, int coverageLimit) throws Exception {
+        if (coverageLimit > 0)
+            return coverageLimit;
+
+        return getCoverageLimit(getCoverageInfos(source.getRegionCoverage(region, tileWidth)));
+    }
+
+    private static int getCoverageLimit(List<CoverageInfo> coverageInfos) {
+        CoverageHistogramStatistics stats = new CoverageHistogramStatistics();
+        int mean = 0;
+
+        for (CoverageInfo coverageInfo : coverageInfos) {
+            stats.calculateStatistics(coverageInfo);
+            mean = Math.max(mean, stats.mean());
+        }
+
+        return Math.max(1, mean * 2);
+    }
+
+    /**
+     * Writes single tile image, non-positive coverage limit is derived from coverage of the tile itself (such tile
+     * does not need to match its neighbours).
+     */
+    public void writeTile(OutputStream out, ChromosomeRegion region, int zoom, int x, TileSource source, int coverageLimit) throws Exception {
+        ChromosomeRegion tileRegion = getTileRegion(region, zoom, x);
+        List<CoverageInfo> coverageInfos = getCoverageInfos(source.getRegionCoverage(tileRegion, tileWidth));
+
+        if (coverageLimit <= 0)
+            coverageLimit = getCoverageLimit(coverageInfos);
+
+        CoveragePlotBase coveragePlot = plotType.createCoveragePlot();
+        coveragePlot.setWidth(tileWidth);
+        coveragePlot.setHeight(tileHeight);
+
+        JFreeChart chart = coveragePlot.createTileChart(SamplingType.ENVELOPE, coverageInfos,
+                tileRegion.getStart(), tileRegion.getEnd(), coverageLimit);
+        ImageWriter.writeImage(out, chart, tileWidth, tileHeight, format);
+    }
+
+    /**
+     * Renders all tiles of zoom levels 0 - maxZoom into outputDir/zoom/x.format and writes tiles.json description
+     * of the tile set.
+     */
+    public void writeTiles(String outputDir, ChromosomeRegion region, int maxZoom, TileSource source, int coverageLimit,
+                           PlotRenderer renderer) throws Exception {
+        int limit = getCoverageLimit(region, source, coverageLimit);
+        int zoomLevels = 0;
+
+        log.info(String.format("Rendering tiles of: %s (zoom 0 - %d) into: %s", region, maxZoom, outputDir));
+
+        for (int zoom = 0; zoom <= maxZoom && zoom <= MAX_ZOOM && region.getLength() >= 1L << zoom; zoom++, zoomLevels++) {
+            File zoomDir = new File(outputDir, String.valueOf(zoom));
+
+            if (!zoomDir.isDirectory() && !zoomDir.mkdirs())
+                throw new IOException("Cannot create tile directory: " + zoomDir);
+
+            for (int x = 0; x < 1 << zoom; x++) {
+                int tileZoom = zoom;
+                int tileX = x;
+                File tileFile = new File(zoomDir, x + "." + format.value);
+
+                renderer.submit(() -> {
+                    long startTime = System.nanoTime();
+
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tileFile))) {
+                        writeTile(out, region, tileZoom, tileX, source, limit);
+                    }
+
+                    CoverageMetrics.record(CoverageMetrics.Phase.IMAGE, region.toString(), startTime, 0, 0, tileFile.length());
+                });
+            }
+        }
+
+        try (PrintWriter writer = new PrintWriter(new File(outputDir, "tiles.json"), "UTF-8")) {
+            writer.printf("{\"region\": \"%s\", \"start\": %d, \"end\": %d, \"zoom_levels\": %d, \"tile_width\": %d, " +
+                            "\"tile_height\": %d, \"coverage_limit\": %d, \"format\": \"%s\"}%n", region, region.getStart(),
+                    region.getEnd(), zoomLevels, tileWidth, tileHeight, limit, format.value);
+        }
+    }
+
+    private static List<CoverageInfo> getCoverageInfos(RegionCoverage regionCoverage) {
+        List<CoverageInfo> coverageInfos = new ArrayList<>();
+
+        if (regionCoverage.getHtsCoverages() != null)
+            for (CoverageInfo coverageInfo : regionCoverage.getHtsCoverages())
+                if (coverageInfo != null)
+                    coverageInfos.add(coverageInfo);
+
+        if (regionCoverage.getOmCoverage() != null)
+            coverageInfos.add(regionCoverage.getOmCoverage());
+
+        return coverageInfos;
+    }
+}
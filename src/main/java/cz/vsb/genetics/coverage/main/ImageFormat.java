@@ -23,13 +23,14 @@ import java.util.HashMap;
 import java.util.Map;
 
 public enum ImageFormat {
-    JPG("jpg"),
-    PNG("png"),
-    PDF("pdf"),
-    SVG("svg"),
+    JPG("jpg", "image/jpeg"),
+    PNG("png", "image/png"),
+    PDF("pdf", "application/pdf"),
+    SVG("svg", "image/svg+xml"),
     ;
 
     public final String value;
+    public final String contentType;
 
     private static final Map<String, ImageFormat> map = new HashMap<>();
 
@@ -38,8 +39,9 @@ public enum ImageFormat {
             map.put(item.value, item);
     }
 
-    ImageFormat(String value) {
+    ImageFormat(String value, String contentType) {
         this.value = value;
+        this.contentType = contentType;
     }
 
     public static ImageFormat of(String value) {
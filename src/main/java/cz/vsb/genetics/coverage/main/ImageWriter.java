@@ -33,36 +33,37 @@ import org.w3c.dom.DOMImplementation;
 
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 
 public class ImageWriter {
     public static void saveImage(String outputFile, JFreeChart chart, int width, int height, ImageFormat format) throws Exception {
-        switch (format) {
-            case JPG: saveAsJPEG(outputFile, chart, width, height); break;
-            case PNG: saveAsPNG(outputFile, chart, width, height); break;
-            case PDF: saveAsPDF(outputFile, chart, width, height); break;
-            case SVG: saveAsSVG(outputFile, chart, width, height);
+        long startTime = System.nanoTime();
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            writeImage(out, chart, width, height, format);
         }
-    }
 
-    private static void saveAsJPEG(String outputFile, JFreeChart chart, int width, int height) throws Exception {
-        File lineChart = new File(outputFile);
-        ChartUtils.saveChartAsJPEG(lineChart , chart, width ,height);
+        CoverageMetrics.record(CoverageMetrics.Phase.IMAGE, startTime, 0, 0, new File(outputFile).length());
     }
 
-    private static void saveAsPNG(String outputFile, JFreeChart chart, int width, int height) throws Exception {
-        File lineChart = new File(outputFile);
-        ChartUtils.saveChartAsPNG(lineChart , chart, width ,height);
+    /**
+     * Writes image into given stream, the stream is not closed.
+     */
+    public static void writeImage(OutputStream out, JFreeChart chart, int width, int height, ImageFormat format) throws Exception {
+        switch (format) {
+            case JPG: ChartUtils.writeChartAsJPEG(out, chart, width, height); break;
+            case PNG: ChartUtils.writeChartAsPNG(out, chart, width, height); break;
+            case PDF: writeAsPDF(out, chart, width, height); break;
+            case SVG: writeAsSVG(out, chart, width, height);
+        }
     }
 
-    private static void saveAsPDF(String outputFile, JFreeChart chart, int width, int height) throws Exception {
+    private static void writeAsPDF(OutputStream out, JFreeChart chart, int width, int height) throws Exception {
         Rectangle pagesize = new Rectangle(width, height);
         Document document = new Document(pagesize, 50, 50, 50, 50);
-        PdfWriter writer = PdfWriter.getInstance( document, new FileOutputStream(outputFile) );
+        PdfWriter writer = PdfWriter.getInstance(document, out);
+        writer.setCloseStream(false);
         document.open();
         PdfContentByte content = writer.getDirectContent();
         PdfTemplate template = content.createTemplate(width, height);
@@ -74,15 +75,15 @@ public class ImageWriter {
         document.close();
     }
 
-    private static void saveAsSVG(String outputFile, JFreeChart chart, int width, int height) throws Exception {
+    private static void writeAsSVG(OutputStream out, JFreeChart chart, int width, int height) throws Exception {
         DOMImplementation domImpl = SVGDOMImplementation.getDOMImplementation();
         org.w3c.dom.Document document = domImpl.createDocument(null, "svg", null);
         SVGGraphics2D svgGenerator = new SVGGraphics2D(document);
         Rectangle2D rectangle2D = new Rectangle2D.Double(0, 0, width, height);
         chart.draw(svgGenerator, rectangle2D);
 
-        Writer out = new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8);
-        svgGenerator.stream(out, true);
-        out.close();
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        svgGenerator.stream(writer, true);
+        writer.flush();
     }
 }
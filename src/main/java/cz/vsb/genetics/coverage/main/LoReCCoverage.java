@@ -18,23 +18,26 @@
 
 package cz.vsb.genetics.coverage.main;
 
+import cz.vsb.genetics.common.Chromosome;
 import cz.vsb.genetics.common.ChromosomeRegion;
 import cz.vsb.genetics.coverage.CoverageCalculator;
 import cz.vsb.genetics.coverage.CoverageInfo;
-import cz.vsb.genetics.coverage.CoverageStatistics;
 import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorMT;
 import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorST;
-import cz.vsb.genetics.om.coverage.BionanoCoverageCalculator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import org.apache.commons.cli.*;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.awt.*;
 import java.io.*;
+import java.math.BigInteger;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.Future;
 
 public class LoReCCoverage {
     private static final Logger log = LoggerFactory.getLogger(LoReCCoverage.class);
@@ -47,9 +50,30 @@ public class LoReCCoverage {
     private static final String ARG_HTS_SAMPLING_STEP = "hts_sampling_step";
     private static final String ARG_THREADS = "threads";
     private static final String ARG_MAPPING_QUALITY = "mapping_quality";
+    private static final String ARG_REGIONS_IN_FLIGHT = "regions_in_flight";
+    private static final String ARG_BASES_IN_FLIGHT = "bases_in_flight";
+    private static final String ARG_RENDER_THREADS = "render_threads";
+    private static final String ARG_CACHE_DIR = "cache_dir";
+    private static final String ARG_CACHE_SIZE = "cache_size";
+    private static final String ARG_BUILD_PYRAMID = "build_pyramid";
+    private static final String ARG_PYRAMID = "pyramid";
+    private static final String ARG_OM_INDEX = "om_index";
+    private static final String ARG_COMPACT_COVERAGE = "compact_coverage";
+    private static final String ARG_OFF_HEAP = "off_heap";
+    private static final String ARG_METRICS = "metrics";
+    private static final String ARG_SERVER = "server";
+    private static final String ARG_SERVER_DIRS = "server_dirs";
+    private static final String ARG_TILES = "tiles";
+    private static final String ARG_TILE_ZOOM = "tile_zoom";
+    private static final String ARG_WINDOW = "window";
+    private static final String ARG_INCREMENTAL = "incremental";
+    private static final String ARG_BATCH = "batch";
     private static final String ARG_REGION = "region";
     private static final String ARG_REGION_FILE = "region_file";
     private static final String ARG_STATISTICS = "statistics";
+    private static final String ARG_BREADTH_THRESHOLDS = "breadth_thresholds";
+    private static final String ARG_LOW_COVERAGE = "low_coverage";
+    private static final String ARG_MATRIX = "matrix";
     private static final String ARG_TITLE = "title";
     private static final String ARG_SAMPLING_TYPE = "sampling_type";
     private static final String ARG_PLOT_TYPE = "plot_type";
@@ -64,8 +88,16 @@ public class LoReCCoverage {
     private static final String ARG_SAMPLE_NAME = "sample_name";
     private static final String ARG_HELP = "help";
 
+    private CoverageCache coverageCache;
+    private CoveragePyramids coveragePyramids;
+    private String omIndex;
+    private CoverageStorage coverageStorage = CoverageStorage.HEAP;
+    private final Map<String, RunManifest> runManifests = new HashMap<>();
+
 
     public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
         Options options = new Options();
         CommandLine cmd = getCommandLine(args, options);
 
@@ -80,18 +112,55 @@ public class LoReCCoverage {
         String cmapReference = cmd.hasOption(ARG_BIONANO_CMAP_REF) ? cmd.getOptionValue(ARG_BIONANO_CMAP_REF) : null;
         ImageFormat imageFormat = ImageFormat.of(cmd.getOptionValue(ARG_OUTPUT_FORMAT));
 
-        if (!(StringUtils.isNoneBlank(bam) || StringUtils.isNoneBlank(xmap, cmapQuery, cmapReference))) {
-            printUsage("At least, one bam or xmap, query cmap and reference cmap must be specified.", options);
+        if (!(StringUtils.isNoneBlank(bam) || StringUtils.isNoneBlank(xmap, cmapQuery, cmapReference) || cmd.hasOption(ARG_PYRAMID) || cmd.hasOption(ARG_SERVER) || cmd.hasOption(ARG_BATCH))) {
+            printUsage("At least, one bam, coverage pyramid, batch manifest or xmap, query cmap and reference cmap must be specified.", options);
 
             System.exit(1);
         }
 
         try {
+            if (cmd.hasOption(ARG_METRICS))
+                CoverageMetrics.enable();
+
             LoReCCoverage coverage = new LoReCCoverage();
+            coverage.omIndex = cmd.hasOption(ARG_OM_INDEX) ? cmd.getOptionValue(ARG_OM_INDEX) : null;
+            coverage.coverageStorage = CoverageStorage.of(cmd.hasOption(ARG_COMPACT_COVERAGE), cmd.getOptionValue(ARG_OFF_HEAP));
+
+            if (cmd.hasOption(ARG_CACHE_DIR)) {
+                long cacheSize = cmd.hasOption(ARG_CACHE_SIZE) ? Long.parseLong(cmd.getOptionValue(ARG_CACHE_SIZE)) : 10240;
+                coverage.coverageCache = new CoverageCache(cmd.getOptionValue(ARG_CACHE_DIR), cacheSize * 1024 * 1024);
+            }
+
+            String[] bams = StringUtils.isBlank(bam) ? new String[0] : bam.split(";");
 
-            String[] bams = bam.split(";");
+            if (cmd.hasOption(ARG_BUILD_PYRAMID)) {
+                coverage.buildPyramid(bams, cmapReference, cmapQuery, xmap, cmd);
+                return;
+            }
+
+            if (cmd.hasOption(ARG_SERVER)) {
+                coverage.startServer(bams, cmapReference, cmapQuery, xmap, cmd);
+                return;
+            }
+
+            if (cmd.hasOption(ARG_PYRAMID) && !cmd.hasOption(ARG_BATCH)) {
+                coverage.coveragePyramids = new CoveragePyramids();
+                coverage.coveragePyramids.open(cmd.getOptionValue(ARG_PYRAMID).split(";"));
+
+                bams = new String[0];
+                cmapReference = cmapQuery = xmap = null;
+            }
 
-            if (cmd.hasOption(ARG_STATISTICS)) {
+            if (cmd.hasOption(ARG_BATCH)) {
+                coverage.processBatch(imageFormat, cmd);
+            }
+            else if (cmd.hasOption(ARG_WINDOW)) {
+                coverage.calculateWindowCoverage(bams, imageFormat, cmd);
+            }
+            else if (cmd.hasOption(ARG_TILES)) {
+                coverage.renderTiles(bams, cmapReference, cmapQuery, xmap, imageFormat, cmd);
+            }
+            else if (cmd.hasOption(ARG_STATISTICS)) {
                 coverage.calculateStatistics(bams, cmapReference, cmapQuery, xmap, cmd);
             }
             else {
@@ -101,6 +170,9 @@ public class LoReCCoverage {
                 if (cmd.hasOption(ARG_REGION_FILE))
                     coverage.plotCoverageMulti(bams, cmapReference, cmapQuery, xmap, imageFormat, cmd);
             }
+
+            if (cmd.hasOption(ARG_METRICS))
+                CoverageMetrics.write(cmd.getOptionValue(ARG_METRICS));
         }
         catch (Exception e) {
             log.error(e.getMessage(), e);
@@ -139,7 +211,7 @@ public class LoReCCoverage {
         htsSamplingStep.setType(Integer.class);
         options.addOption(htsSamplingStep);
 
-        Option threads = new Option("t", ARG_THREADS, true, "number of threads for parallel processing");
+        Option threads = new Option("t", ARG_THREADS, true, "number of threads for parallel processing (shared by all bam files and optical maps)");
         threads.setArgName("threads");
         threads.setType(Integer.class);
         options.addOption(threads);
@@ -149,6 +221,107 @@ public class LoReCCoverage {
         mappingQuality.setType(Integer.class);
         options.addOption(mappingQuality);
 
+        Option regionsInFlight = new Option("rif", ARG_REGIONS_IN_FLIGHT, true, "maximum number of regions held in memory at the same time (region file only), regions are also limited by total length, see bases_in_flight - default 16 per thread");
+        regionsInFlight.setArgName("regions in flight");
+        regionsInFlight.setType(Integer.class);
+        options.addOption(regionsInFlight);
+
+        Option basesInFlight = new Option("bif", ARG_BASES_IN_FLIGHT, true, "maximum total length of regions held in memory at the same time (region file only), longer region is calculated alone - default 50000000 per thread");
+        basesInFlight.setArgName("bases in flight");
+        basesInFlight.setType(Long.class);
+        options.addOption(basesInFlight);
+
+        Option renderThreads = new Option("rt", ARG_RENDER_THREADS, true, "number of threads for parallel plotting of region file regions - default 1");
+        renderThreads.setArgName("render threads");
+        renderThreads.setType(Integer.class);
+        options.addOption(renderThreads);
+
+        Option cacheDir = new Option("cd", ARG_CACHE_DIR, true, "directory for caching of calculated coverage between runs");
+        cacheDir.setArgName("cache directory");
+        cacheDir.setType(String.class);
+        options.addOption(cacheDir);
+
+        Option cacheSize = new Option("cs", ARG_CACHE_SIZE, true, "maximum size of coverage cache in MB - default 10240");
+        cacheSize.setArgName("cache size");
+        cacheSize.setType(Long.class);
+        options.addOption(cacheSize);
+
+        Option buildPyramid = new Option("bp", ARG_BUILD_PYRAMID, true, "build coverage pyramid file from single bam or optical maps (whole bam contigs or regions)");
+        buildPyramid.setArgName("pyramid file");
+        buildPyramid.setType(String.class);
+        options.addOption(buildPyramid);
+
+        Option pyramid = new Option("pyr", ARG_PYRAMID, true, "coverage pyramid files separated by semicolon used instead of bam and optical maps");
+        pyramid.setArgName("pyramid files");
+        pyramid.setType(String.class);
+        options.addOption(pyramid);
+
+        Option omIndex = new Option("omi", ARG_OM_INDEX, true, "binary index of optical maps (created from cmap and xmap files when missing or outdated, suffixed by input files id) used instead of parsing cmap and xmap files");
+        omIndex.setArgName("index file");
+        omIndex.setType(String.class);
+        options.addOption(omIndex);
+
+        Option compactCoverage = new Option("cc", ARG_COMPACT_COVERAGE, false, "store calculated coverage in byte/short/run-length encoded arrays to reduce memory usage");
+        options.addOption(compactCoverage);
+
+        Option incremental = new Option("inc", ARG_INCREMENTAL, false, "skip statistics rows and region file plots whose input files and parameters did not change since previous run (manifest in output directory)");
+        options.addOption(incremental);
+
+        Option batch = new Option("bat", ARG_BATCH, true, "process samples of batch manifest (tab separated sample name, bams separated by semicolon, reference cmap, query cmap, xmap and output directory per line) in single run with regions of region file, statistics of all samples are written into one table");
+        batch.setArgName("manifest file");
+        batch.setType(String.class);
+        options.addOption(batch);
+
+        Option offHeap = new Option("oh", ARG_OFF_HEAP, true, "keep calculated coverage outside of java heap - 'direct' for direct memory or directory for memory mapped temporary files");
+        offHeap.setArgName("direct or directory");
+        offHeap.setType(String.class);
+        options.addOption(offHeap);
+
+        Option server = new Option("srv", ARG_SERVER, true, "run local http server on given port answering /plot and /statistics region requests with coverage calculators kept open between requests");
+        server.setArgName("port");
+        server.setType(Integer.class);
+        options.addOption(server);
+
+        Option serverDirs = new Option("srvd", ARG_SERVER_DIRS, true, "directories (separated by semicolon) whose bam, cmap and xmap files may be requested from server besides input files");
+        serverDirs.setArgName("directories");
+        serverDirs.setType(String.class);
+        options.addOption(serverDirs);
+
+        Option tiles = new Option("tl", ARG_TILES, true, "render region (file) coverage, or whole bam contigs, as png/jpg tiles at zoom levels into given directory (zoom level z splits region into 2^z tiles)");
+        tiles.setArgName("tile directory");
+        tiles.setType(String.class);
+        options.addOption(tiles);
+
+        Option tileZoom = new Option("tz", ARG_TILE_ZOOM, true, "maximum tile zoom level - default 6");
+        tileZoom.setArgName("zoom level");
+        tileZoom.setType(Integer.class);
+        options.addOption(tileZoom);
+
+        Option window = new Option("w", ARG_WINDOW, true, "calculate min/max/mean coverage of all bam contigs in windows of given size in single pass, write bedgraph of all contigs per bam and whole genome and chromosome plots of known chromosomes into output directory");
+        window.setArgName("window size");
+        window.setType(Integer.class);
+        options.addOption(window);
+
+        Option breadthThresholds = new Option("bt", ARG_BREADTH_THRESHOLDS, true, "coverage thresholds separated by comma for breadth of coverage statistics (percentage of bases with coverage at least threshold) - default 10,20,30");
+        breadthThresholds.setArgName("thresholds");
+        breadthThresholds.setType(String.class);
+        options.addOption(breadthThresholds);
+
+        Option lowCoverage = new Option("lc", ARG_LOW_COVERAGE, true, "write intervals with coverage below the lowest breadth threshold into given bed file (statistics only, not with coverage pyramids)");
+        lowCoverage.setArgName("bed file");
+        lowCoverage.setType(String.class);
+        options.addOption(lowCoverage);
+
+        Option matrix = new Option("mx", ARG_MATRIX, true, "write statistics also into binary matrix file (regions x samples and sources x metrics, compressed column chunks) read by CoverageMatrix (statistics only)");
+        matrix.setArgName("matrix file");
+        matrix.setType(String.class);
+        options.addOption(matrix);
+
+        Option metrics = new Option("met", ARG_METRICS, true, "write wall time, bases, reads and bytes of coverage calculation, dataset, chart and image phases per region and in total (json for .json extension, tsv otherwise)");
+        metrics.setArgName("metrics file");
+        metrics.setType(String.class);
+        options.addOption(metrics);
+
         Option coverageLimitHts = new Option("hcl", ARG_COVERAGE_LIMIT_HTS, true, "Set coverage limit for plotting HTS (maximum y axis value)");
         coverageLimitHts.setArgName("coverage limit");
         coverageLimitHts.setType(Integer.class);
@@ -174,7 +347,7 @@ public class LoReCCoverage {
         title.setType(String.class);
         options.addOption(title);
 
-        Option samplingType = new Option("st", ARG_SAMPLING_TYPE, true, "sampling type [random|mean|median|none] - default random");
+        Option samplingType = new Option("st", ARG_SAMPLING_TYPE, true, "sampling type [random|mean|median|envelope|none] - default random");
         samplingType.setArgName("sampling type");
         samplingType.setType(String.class);
         options.addOption(samplingType);
@@ -275,8 +448,14 @@ public class LoReCCoverage {
     private void calculateStatistics(String[] bams, String cmapReference, String cmapQuery, String xmap, CommandLine cmd) throws Exception {
         String regionFile = cmd.getOptionValue(ARG_REGION_FILE);
         String outputStats = cmd.getOptionValue(ARG_STATISTICS);
-        int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
-        int mappingQuality = cmd.hasOption(ARG_MAPPING_QUALITY) ? Integer.parseInt(cmd.getOptionValue(ARG_MAPPING_QUALITY)) : 0;
+        String lowCoverageBed = cmd.hasOption(ARG_LOW_COVERAGE) ? cmd.getOptionValue(ARG_LOW_COVERAGE) : null;
+        String matrixFile = cmd.hasOption(ARG_MATRIX) ? cmd.getOptionValue(ARG_MATRIX) : null;
+        int[] breadthThresholds = getBreadthThresholds(cmd.getOptionValue(ARG_BREADTH_THRESHOLDS, "10,20,30"));
+        int lowCoverageThreshold = lowCoverageBed == null ? 0 : Arrays.stream(breadthThresholds).min().orElse(0);
+
+        // pyramid bins do not tell which bases are below threshold
+        if (coveragePyramids != null && lowCoverageBed != null)
+            exitError("Low coverage intervals cannot be calculated from coverage pyramids.");
 
         List<ChromosomeRegion> regions = getChromosomeRegions(regionFile);
 
@@ -285,51 +464,485 @@ public class LoReCCoverage {
             return;
         }
 
-        Map<ChromosomeRegion, List<CoverageInfo>> coverageInfosHts = null;
-        Map<ChromosomeRegion, CoverageInfo> coverageInfosOm = null;
+        if (cmd.hasOption(ARG_INCREMENTAL)) {
+            if (coveragePyramids == null) {
+                if (matrixFile != null)
+                    log.warn("Statistics matrix is not written by incremental run");
+
+                calculateStatisticsIncremental(bams, cmapReference, cmapQuery, xmap, regions, breadthThresholds, lowCoverageThreshold, cmd);
+                return;
+            }
+
+            log.warn("Statistics calculated from coverage pyramids are not incremental, all regions are calculated");
+        }
+
+        boolean isOm = coveragePyramids != null ? coveragePyramids.isOm() : isOm(cmapReference, cmapQuery, xmap);
+
+        if (coveragePyramids != null)
+            coveragePyramids.openSources();
+
+        int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
+
+        String[] sourceBams = coveragePyramids != null ? coveragePyramids.getBams() : bams;
+        String[] matrixColumns = getMatrixColumns(cmd.getOptionValue(ARG_SAMPLE_NAME), isOm, sourceBams);
+        String[] matrixMetrics = getMatrixMetrics(breadthThresholds);
+        float[][][] matrixValues = matrixFile == null ? null : createMatrixColumns(matrixColumns.length, matrixMetrics.length, regions.size());
+        Iterator<ChromosomeRegion> next = regions.iterator();
+        int[] index = {0};
 
-        if (bams != null && bams.length > 0)
-            coverageInfosHts = getCoverageInfoHts(bams, regions, threads, 0, mappingQuality);
+        try (RegionCoverageProcessor processor = createProcessor(bams, cmapReference, cmapQuery, xmap, threads, cmd);
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outputStats));
+             BufferedWriter bedWriter = lowCoverageBed == null ? null : new BufferedWriter(new FileWriter(lowCoverageBed))) {
+            processor.setCoveragePyramids(coveragePyramids, 0);
+
+            writer.write(getStatisticsHeader(isOm, sourceBams, breadthThresholds));
+
+            if (bedWriter != null)
+                bedWriter.write("#chromosome\tstart\tend\tcontig_name\tsource\tmean\n");
+
+            processor.process(regions, RegionCoverageProcessor.releasing(regionCoverage -> getSourceStatistics(regionCoverage, breadthThresholds, lowCoverageThreshold, "")), sourceStatistics -> {
+                ChromosomeRegion region = next.next();
+                writer.write(String.format("%s\t%s\t%d", region.getName(), region, region.getLength()));
+
+                for (SourceStatistics statistics : sourceStatistics) {
+                    writer.write(statistics.getColumns());
+
+                    if (bedWriter != null)
+                        bedWriter.write(statistics.bed);
+                }
 
-        if (StringUtils.isNotBlank(cmapReference) && StringUtils.isNotBlank(cmapQuery) && StringUtils.isNotBlank(xmap))
-            coverageInfosOm = getCoverageInfoOm(cmapReference, cmapQuery, xmap, regions, 0);
+                writer.write("\n");
+
+                if (matrixValues != null)
+                    setMatrixValues(matrixValues, sourceStatistics, index[0]);
+
+                index[0]++;
+            });
+        }
+
+        if (matrixFile != null) {
+            try (CoverageMatrixWriter matrixWriter = new CoverageMatrixWriter(matrixFile, regions, matrixMetrics)) {
+                for (int i = 0; i < matrixColumns.length; i++)
+                    matrixWriter.addColumn(matrixColumns[i], matrixValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Calculates statistics of region and source (optical maps or bam) pairs which are not in manifest of output
+     * directory with the same input files and parameters, other statistics columns are taken from the manifest.
+     * Regions are grouped by their missing sources, so only missing sources are read.
+     */
+    private void calculateStatisticsIncremental(String[] bams, String cmapReference, String cmapQuery, String xmap, List<ChromosomeRegion> regions,
+                                                int[] breadthThresholds, int lowCoverageThreshold, CommandLine cmd) throws Exception {
+        String outputStats = cmd.getOptionValue(ARG_STATISTICS);
+        String lowCoverageBed = cmd.hasOption(ARG_LOW_COVERAGE) ? cmd.getOptionValue(ARG_LOW_COVERAGE) : null;
+        int mappingQuality = cmd.hasOption(ARG_MAPPING_QUALITY) ? Integer.parseInt(cmd.getOptionValue(ARG_MAPPING_QUALITY)) : 0;
+        int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
+        boolean isOm = isOm(cmapReference, cmapQuery, xmap);
 
-        String format = "\t%d\t%d\t%d\t%d\t%d\t%d\t%d";
-        CoverageStatistics stats = new CoverageStatistics();
+        RunManifest manifest = getRunManifest(getOutputDir(cmd));
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputStats))) {
-            writer.write(getStatisticsHeader(coverageInfosOm != null, bams));
+        // sources in order of statistics columns - optical maps first, then bams
+        List<String> sources = new ArrayList<>();
+        List<String> sourceIds = new ArrayList<>();
+
+        if (isOm) {
+            sources.add("om");
+            sourceIds.add(RunManifest.getFingerprint(CoverageCache.getInputId(cmapReference, cmapQuery, xmap), omIndex != null));
+        }
+
+        for (String bam : bams) {
+            sources.add(bam);
+            sourceIds.add(RunManifest.getFingerprint(CoverageCache.getInputId(bam, bam + ".bai"), mappingQuality));
+        }
+
+        String keyPrefix = "stats|" + new File(outputStats).getCanonicalPath() + "|";
+        String parameters = Arrays.toString(breadthThresholds) + "|" + lowCoverageThreshold;
+        String[][] keys = new String[regions.size()][sources.size()];
+        String[][] fingerprints = new String[regions.size()][sources.size()];
+        String[][] results = new String[regions.size()][sources.size()];
+        Map<List<Integer>, List<Integer>> groups = new LinkedHashMap<>();
+
+        for (int i = 0; i < regions.size(); i++) {
+            ChromosomeRegion region = regions.get(i);
+            List<Integer> missing = new ArrayList<>();
+
+            for (int s = 0; s < sources.size(); s++) {
+                keys[i][s] = keyPrefix + sources.get(s) + "|" + region.getName() + "|" + region;
+                fingerprints[i][s] = RunManifest.getFingerprint(sourceIds.get(s), parameters, region.getName(), region);
+                results[i][s] = manifest.get(keys[i][s], fingerprints[i][s]);
+
+                if (results[i][s] == null)
+                    missing.add(s);
+            }
+
+            if (!missing.isEmpty())
+                groups.computeIfAbsent(missing, k -> new ArrayList<>()).add(i);
+        }
+
+        log.info(String.format("Statistics of %d/%d regions are up to date", regions.size() - groups.values().stream().mapToInt(List::size).sum(), regions.size()));
+
+        try {
+            for (Map.Entry<List<Integer>, List<Integer>> group : groups.entrySet()) {
+                List<Integer> missing = group.getKey();
+                List<Integer> indexes = group.getValue();
+                boolean groupOm = isOm && missing.contains(0);
+                String[] groupBams = missing.stream().filter(s -> !isOm || s > 0).map(sources::get).toArray(String[]::new);
+                List<ChromosomeRegion> groupRegions = new ArrayList<>();
+                indexes.forEach(i -> groupRegions.add(regions.get(i)));
+                Iterator<Integer> next = indexes.iterator();
+
+                try (RegionCoverageProcessor processor = createProcessor(groupBams, groupOm ? cmapReference : null,
+                        groupOm ? cmapQuery : null, groupOm ? xmap : null, threads, cmd)) {
+                    processor.process(groupRegions, RegionCoverageProcessor.releasing(regionCoverage -> getSourceStatistics(regionCoverage, breadthThresholds, lowCoverageThreshold, "")), sourceStatistics -> {
+                        int i = next.next();
+
+                        for (int k = 0; k < missing.size(); k++) {
+                            int s = missing.get(k);
+                            results[i][s] = sourceStatistics.get(k).getColumns() + "\n" + sourceStatistics.get(k).bed;
+                            manifest.put(keys[i][s], fingerprints[i][s], results[i][s]);
+                        }
+                    });
+                }
+            }
+        }
+        finally {
+            manifest.removeUnused(keyPrefix);
+            manifest.write();
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputStats));
+             BufferedWriter bedWriter = lowCoverageBed == null ? null : new BufferedWriter(new FileWriter(lowCoverageBed))) {
+            writer.write(getStatisticsHeader(isOm, bams, breadthThresholds));
+
+            if (bedWriter != null)
+                bedWriter.write("#chromosome\tstart\tend\tcontig_name\tsource\tmean\n");
 
             for (int i = 0; i < regions.size(); i++) {
                 ChromosomeRegion region = regions.get(i);
-                log.info(String.format("Calculating statistics for: %s - %s... %d/%d\n", region.getName(), region, i + 1, coverageInfosHts.size()));
-                String out = String.format("%s\t%s\t%d", region.getName(), region, region.getLength());
+                writer.write(String.format("%s\t%s\t%d", region.getName(), region, region.getLength()));
 
-                if (coverageInfosOm != null) {
-                    CoverageInfo coverageInfoOm = coverageInfosOm.get(region);
+                for (String result : results[i]) {
+                    int separator = result.indexOf('\n');
+                    writer.write(result.substring(0, separator));
 
-                    stats.calculateStatistics(coverageInfoOm);
-                    out += String.format(format, stats.min(), stats.q1(), stats.median(), stats.q3(), stats.max(), stats.mean(), stats.standardDeviation());
-                    out += "\t" + coverageInfoOm.getSiteCount();
+                    if (bedWriter != null)
+                        bedWriter.write(result.substring(separator + 1));
                 }
 
-                if (coverageInfosHts != null) {
-                    List<CoverageInfo> coverageInfoHts = coverageInfosHts.get(region);
+                writer.write("\n");
+            }
+        }
+    }
+
+    /**
+     * Processes samples of batch manifest in single run - region file is parsed once and samples run concurrently
+     * under single thread budget. With statistics option, statistics of all samples are written into one table
+     * with row per region, sample and source, otherwise region plots are written into output directory of each sample.
+     */
+    private void processBatch(ImageFormat imageFormat, CommandLine cmd) throws Exception {
+        int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
+        int renderThreads = cmd.hasOption(ARG_RENDER_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_RENDER_THREADS)) : 1;
+        String outputDir = getOutputDir(cmd);
+
+        if (!cmd.hasOption(ARG_REGION_FILE))
+            exitError("Batch requires region file.");
+
+        List<BatchSample> samples = BatchSample.read(cmd.getOptionValue(ARG_BATCH));
+        List<ChromosomeRegion> regions = getChromosomeRegions(cmd.getOptionValue(ARG_REGION_FILE));
+
+        if (samples.isEmpty() || regions.isEmpty()) {
+            log.info("No samples or regions found - nothing to process");
+            return;
+        }
+
+        log.info(String.format("Processing batch of %d samples and %d regions", samples.size(), regions.size()));
+
+        if (cmd.hasOption(ARG_STATISTICS)) {
+            calculateBatchStatistics(samples, regions, threads, cmd);
+            return;
+        }
+
+        try (CoverageScheduler scheduler = new CoverageScheduler(threads, samples.size())) {
+            int sampleRenderThreads = Math.max(1, renderThreads / Math.min(Math.max(1, threads), samples.size()));
+            List<Future<Void>> futures = new ArrayList<>();
+
+            for (BatchSample sample : samples) {
+                String sampleOutputDir = sample.getOutputDir(outputDir);
 
-                    for (CoverageInfo coverageInfo : coverageInfoHts) {
-                        stats.calculateStatistics(coverageInfo);
-                        out += String.format(format, stats.min(), stats.q1(), stats.median(), stats.q3(), stats.max(), stats.mean(), stats.standardDeviation());
+                futures.add(scheduler.submit(() -> {
+                    File dir = new File(sampleOutputDir);
+                    if (!dir.isDirectory() && !dir.mkdirs())
+                        throw new IOException("Cannot create output directory: " + sampleOutputDir);
+
+                    plotCoverageMulti(sample.getBams(), sample.getCmapReference(), sample.getCmapQuery(), sample.getXmap(), regions,
+                            sample.getName(), sampleOutputDir, scheduler.getTaskThreads(), sampleRenderThreads,
+                            omIndex, imageFormat, cmd);
+
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures)
+                CoverageScheduler.get(future);
+        }
+    }
+
+    /**
+     * Writes statistics of all batch samples into one table, samples are written in order of batch manifest
+     * as soon as they are finished. Each sample is spooled into temporary files next to the table while it is
+     * calculated, see {@link BatchStatisticsSpool}.
+     */
+    private void calculateBatchStatistics(List<BatchSample> samples, List<ChromosomeRegion> regions, int threads, CommandLine cmd) throws Exception {
+        String outputStats = cmd.getOptionValue(ARG_STATISTICS);
+        String lowCoverageBed = cmd.hasOption(ARG_LOW_COVERAGE) ? cmd.getOptionValue(ARG_LOW_COVERAGE) : null;
+        String matrixFile = cmd.hasOption(ARG_MATRIX) ? cmd.getOptionValue(ARG_MATRIX) : null;
+        int[] breadthThresholds = getBreadthThresholds(cmd.getOptionValue(ARG_BREADTH_THRESHOLDS, "10,20,30"));
+        int lowCoverageThreshold = lowCoverageBed == null ? 0 : Arrays.stream(breadthThresholds).min().orElse(0);
+        String[] matrixMetrics = getMatrixMetrics(breadthThresholds);
+        File spoolDir = new File(outputStats).getAbsoluteFile().getParentFile();
+
+        if (cmd.hasOption(ARG_INCREMENTAL))
+            log.warn("Batch statistics are not incremental, all samples and regions are calculated");
+
+        try (CoverageScheduler scheduler = new CoverageScheduler(threads, samples.size());
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outputStats));
+             BufferedWriter bedWriter = lowCoverageBed == null ? null : new BufferedWriter(new FileWriter(lowCoverageBed));
+             CoverageMatrixWriter matrixWriter = matrixFile == null ? null : new CoverageMatrixWriter(matrixFile, regions, matrixMetrics)) {
+            List<Future<BatchStatisticsSpool>> futures = new ArrayList<>();
+
+            for (BatchSample sample : samples) {
+                futures.add(scheduler.submit(() -> {
+                    String[] sources = getMatrixColumns(null, sample.isOm(), sample.getBams());
+                    BatchStatisticsSpool spool = new BatchStatisticsSpool(spoolDir, sources.length, matrixMetrics.length,
+                            bedWriter != null, matrixWriter != null);
+                    Iterator<ChromosomeRegion> next = regions.iterator();
+                    StringBuilder rows = new StringBuilder();
+
+                    try (RegionCoverageProcessor processor = createProcessor(sample.getBams(), sample.getCmapReference(),
+                            sample.getCmapQuery(), sample.getXmap(), scheduler.getTaskThreads(), cmd)) {
+                        processor.setOmIndex(omIndex);
+                        processor.process(regions, RegionCoverageProcessor.releasing(regionCoverage -> getSourceStatistics(regionCoverage,
+                                breadthThresholds, lowCoverageThreshold, sample.getName() + ":")), sourceStatistics -> {
+                            ChromosomeRegion region = next.next();
+                            String prefix = String.format("%s\t%s\t%s\t%d", sample.getName(), region.getName(), region, region.getLength());
+                            List<float[]> values = new ArrayList<>();
+
+                            rows.setLength(0);
+
+                            for (int i = 0; i < Math.min(sources.length, sourceStatistics.size()); i++) {
+                                rows.append(prefix).append("\t").append(sources[i]).append(sourceStatistics.get(i).getBatchColumns()).append("\n");
+                                spool.addBed(sourceStatistics.get(i).bed);
+                                values.add(sourceStatistics.get(i).values);
+                            }
+
+                            spool.addRows(rows.toString());
+                            spool.addValues(values);
+                        });
+                    }
+                    catch (Exception e) {
+                        spool.close();
+                        spool.delete();
+                        throw e;
                     }
-                }
 
-                out += "\n";
+                    spool.close();
 
-                writer.write(out);
+                    return spool;
+                }));
+            }
+
+            writer.write("sample_name\tcontig_name\tregion\tlength\tsource\t" + String.join("\t", matrixMetrics) + "\n");
+
+            if (bedWriter != null)
+                bedWriter.write("#chromosome\tstart\tend\tcontig_name\tsource\tmean\n");
+
+            for (int s = 0; s < samples.size(); s++) {
+                BatchStatisticsSpool spool = CoverageScheduler.get(futures.get(s));
+
+                try {
+                    spool.copyTo(writer, bedWriter);
+
+                    if (matrixWriter != null) {
+                        BatchSample sample = samples.get(s);
+                        String[] columns = getMatrixColumns(sample.getName(), sample.isOm(), sample.getBams());
+                        float[][][] values = spool.readValues();
+
+                        for (int i = 0; i < columns.length; i++)
+                            matrixWriter.addColumn(columns[i], values[i]);
+                    }
+                }
+                finally {
+                    spool.delete();
+                }
             }
         }
     }
-    
-    private String getStatisticsHeader(boolean isOm, String[] bams) {
+
+    /**
+     * @return manifest of given output directory, loaded once and shared by all outputs (and batch samples) written there
+     */
+    private synchronized RunManifest getRunManifest(String outputDir) throws IOException {
+        String dir = new File(outputDir).getCanonicalPath();
+        RunManifest manifest = runManifests.get(dir);
+
+        if (manifest == null) {
+            manifest = new RunManifest(dir);
+            manifest.load();
+            runManifests.put(dir, manifest);
+        }
+
+        return manifest;
+    }
+
+    private RegionCoverageProcessor createProcessor(String[] bams, String cmapReference, String cmapQuery, String xmap, int threads, CommandLine cmd) throws Exception {
+        int mappingQuality = cmd.hasOption(ARG_MAPPING_QUALITY) ? Integer.parseInt(cmd.getOptionValue(ARG_MAPPING_QUALITY)) : 0;
+        int regionsInFlight = cmd.hasOption(ARG_REGIONS_IN_FLIGHT) ? Integer.parseInt(cmd.getOptionValue(ARG_REGIONS_IN_FLIGHT)) : 0;
+        long basesInFlight = cmd.hasOption(ARG_BASES_IN_FLIGHT) ? Long.parseLong(cmd.getOptionValue(ARG_BASES_IN_FLIGHT)) : 0;
+
+        RegionCoverageProcessor processor = new RegionCoverageProcessor(bams, cmapReference, cmapQuery, xmap, threads);
+        processor.setMappingQuality(mappingQuality);
+        processor.setRegionsInFlight(regionsInFlight);
+        processor.setBasesInFlight(basesInFlight);
+        processor.setCoverageCache(coverageCache);
+        processor.setOmIndex(omIndex);
+        processor.setCoverageStorage(coverageStorage);
+
+        return processor;
+    }
+
+    private static String getOutputDir(CommandLine cmd) {
+        String outputDir = cmd.hasOption(ARG_OUTPUT_DIR) ? cmd.getOptionValue(ARG_OUTPUT_DIR) : "./";
+
+        return outputDir.endsWith("/") || outputDir.endsWith("\\") ? outputDir : outputDir + "/";
+    }
+
+    private static int[] getBreadthThresholds(String thresholds) {
+        try {
+            return Arrays.stream(thresholds.split(",")).map(String::trim).filter(StringUtils::isNotEmpty).mapToInt(Integer::parseInt).toArray();
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid breadth thresholds: " + thresholds);
+        }
+    }
+
+    /**
+     * @param bedSourcePrefix prefix of source column of low coverage bed lines, e.g. sample name of batch
+     * @return statistics of optical maps (first, if any) and of each bam
+     */
+    private List<SourceStatistics> getSourceStatistics(RegionCoverage regionCoverage, int[] breadthThresholds, int lowCoverageThreshold,
+                                                       String bedSourcePrefix) {
+        ChromosomeRegion region = regionCoverage.getRegion();
+        log.info(String.format("Calculating statistics for: %s%s - %s...\n", bedSourcePrefix, region.getName(), region));
+
+        CoverageHistogramStatistics stats = new CoverageHistogramStatistics();
+        stats.setBreadthThresholds(breadthThresholds);
+        stats.setLowCoverageThreshold(lowCoverageThreshold);
+        List<SourceStatistics> sourceStatistics = new ArrayList<>();
+
+        List<CoverageInfo> coverageInfos = new ArrayList<>();
+        if (regionCoverage.getOmCoverage() != null)
+            coverageInfos.add(regionCoverage.getOmCoverage());
+
+        if (regionCoverage.getHtsCoverages() != null)
+            coverageInfos.addAll(regionCoverage.getHtsCoverages());
+
+        for (CoverageInfo coverageInfo : coverageInfos) {
+            boolean isOm = coverageInfo == regionCoverage.getOmCoverage();
+            boolean binned = coverageInfo instanceof BinnedCoverageInfo;
+            StringBuilder bed = new StringBuilder();
+            stats.calculateStatistics(coverageInfo);
+            appendLowCoverage(bed, region, bedSourcePrefix + coverageInfo.getName(), stats);
+
+            float[] values = {stats.min(), stats.q1(), stats.median(), stats.q3(), stats.max(), stats.mean(), stats.standardDeviation(),
+                    isOm ? coverageInfo.getSiteCount() : Float.NaN};
+            values = Arrays.copyOf(values, values.length + breadthThresholds.length);
+
+            for (int i = 0; i < breadthThresholds.length; i++)
+                values[values.length - breadthThresholds.length + i] = binned ? Float.NaN : (float) stats.breadth(i);
+
+            sourceStatistics.add(new SourceStatistics(getStatisticsColumns(stats), isOm ? String.valueOf(coverageInfo.getSiteCount()) : null,
+                    getBreadths(binned ? null : stats, breadthThresholds.length), bed.toString(), values));
+        }
+
+        return sourceStatistics;
+    }
+
+    /**
+     * @return metrics of statistics matrix in order of {@link SourceStatistics#values}
+     */
+    private static String[] getMatrixMetrics(int[] breadthThresholds) {
+        List<String> metrics = new ArrayList<>(Arrays.asList("min", "q1", "median", "q3", "max", "mean", "stddev", "site_count"));
+
+        for (int threshold : breadthThresholds)
+            metrics.add("breadth_" + threshold + "x");
+
+        return metrics.toArray(new String[0]);
+    }
+
+    /**
+     * @return matrix columns of given sources filled with NaN - values of each column, metric and region
+     */
+    private static float[][][] createMatrixColumns(int sources, int metrics, int regions) {
+        float[][][] columns = new float[sources][metrics][regions];
+
+        for (float[][] column : columns)
+            for (float[] values : column)
+                Arrays.fill(values, Float.NaN);
+
+        return columns;
+    }
+
+    private static void setMatrixValues(float[][][] columns, List<SourceStatistics> sourceStatistics, int region) {
+        for (int source = 0; source < Math.min(columns.length, sourceStatistics.size()); source++)
+            for (int metric = 0; metric < columns[source].length; metric++)
+                columns[source][metric][region] = sourceStatistics.get(source).values[metric];
+    }
+
+    /**
+     * @return names of statistics matrix columns - optical maps (first, if any) and each bam, prefixed by sample name if given
+     */
+    private static String[] getMatrixColumns(String sampleName, boolean isOm, String[] bams) {
+        String prefix = StringUtils.isBlank(sampleName) ? "" : sampleName + ":";
+        List<String> columns = new ArrayList<>();
+
+        if (isOm)
+            columns.add(prefix + "OM");
+
+        for (String bam : bams)
+            columns.add(prefix + CoverageInfos.getHtsName(bam));
+
+        return columns.toArray(new String[0]);
+    }
+
+    private static String getStatisticsColumns(CoverageHistogramStatistics stats) {
+        return String.format("\t%d\t%d\t%d\t%d\t%d\t%d\t%d", stats.min(), stats.q1(), stats.median(), stats.q3(), stats.max(),
+                stats.mean(), stats.standardDeviation());
+    }
+
+    /**
+     * @param stats statistics of per-base coverage, or null for binned coverage (pyramid), whose breadth is unknown
+     *              as bin means do not tell which bases reach threshold - NA is written then
+     */
+    private static String getBreadths(CoverageHistogramStatistics stats, int thresholds) {
+        StringBuilder breadths = new StringBuilder();
+
+        for (int i = 0; i < thresholds; i++)
+            breadths.append(stats == null ? "\tNA" : String.format(Locale.ROOT, "\t%.2f", stats.breadth(i)));
+
+        return breadths.toString();
+    }
+
+    private static void appendLowCoverage(StringBuilder bed, ChromosomeRegion region, String source, CoverageHistogramStatistics stats) {
+        String name = StringUtils.isBlank(region.getName()) ? region.toString() : region.getName();
+
+        for (int i = 0; i < stats.getLowCoverageCount(); i++)
+            bed.append(String.format(Locale.ROOT, "%s\t%d\t%d\t%s\t%s\t%.2f\n", region.getChromosome().name(),
+                    stats.getLowCoverageStart(i) - 1, stats.getLowCoverageEnd(i), name, source, stats.getLowCoverageMean(i)));
+    }
+
+    private String getStatisticsHeader(boolean isOm, String[] bams, int[] breadthThresholds) {
         String header = 
                 "contig_name\t" +
                 "region\t" + 
@@ -345,11 +958,14 @@ public class LoReCCoverage {
                     "\tom_mean" +
                     "\tom_stddev" +
                     "\tom_site_count";
+
+            for (int threshold : breadthThresholds)
+                header += "\tom_breadth_" + threshold + "x";
         }
 
         
         for (String bam : bams) {
-            String name = getHtsCoverageInfoName(bam) + "_";
+            String name = CoverageInfos.getHtsName(bam) + "_";
             
             header +=
                     "\t" + name + "_min" +
@@ -359,6 +975,9 @@ public class LoReCCoverage {
                     "\t" + name + "_max" +
                     "\t" + name + "_mean" +
                     "\t" + name + "_stddev";
+
+            for (int threshold : breadthThresholds)
+                header += "\t" + name + "_breadth_" + threshold + "x";
         }
 
         header += "\n";
@@ -412,8 +1031,25 @@ public class LoReCCoverage {
         int coverageLimitOm = cmd.hasOption(ARG_COVERAGE_LIMIT_OM) ? Integer.parseInt(cmd.getOptionValue(ARG_COVERAGE_LIMIT_OM)) : 0;
 
 
-        List<CoverageInfo> htsCoverage = getCoverageInfoHts(bams, ChromosomeRegion.valueOf(region), threads, htsSamplingStep, mappingQuality);
-        CoverageInfo omCoverage = getCoverageInfoOm(cmapReference, cmapQuery, xmap, ChromosomeRegion.valueOf(region), bionanoSamplingStep);
+        ChromosomeRegion chromosomeRegion = ChromosomeRegion.valueOf(region);
+        List<CoverageInfo> htsCoverage;
+        CoverageInfo omCoverage;
+
+        if (coveragePyramids != null) {
+            RegionCoverage regionCoverage = coveragePyramids.getRegionCoverage(chromosomeRegion, CoveragePlotBase.DEFAULT_WIDTH);
+            htsCoverage = regionCoverage.getHtsCoverages();
+            omCoverage = regionCoverage.getOmCoverage();
+        }
+        else {
+            Map<ChromosomeRegion, List<CoverageInfo>> coverageInfosHts = new HashMap<>();
+            Map<ChromosomeRegion, CoverageInfo> coverageInfosOm = new HashMap<>();
+
+            calculateCoverage(bams, cmapReference, cmapQuery, xmap, Collections.singletonList(chromosomeRegion), threads,
+                    htsSamplingStep, bionanoSamplingStep, mappingQuality, coverageInfosHts, coverageInfosOm);
+
+            htsCoverage = coverageInfosHts.get(chromosomeRegion);
+            omCoverage = coverageInfosOm.get(chromosomeRegion);
+        }
 
         if (htsCoverage == null && omCoverage == null) {
             exitError("Missing arguments for coverage calculation. Some of bam, bai, cmap, xmap or region");
@@ -426,64 +1062,442 @@ public class LoReCCoverage {
             omCoverage.setCoverageLimit(coverageLimitOm);
 
 
-        plotRegionCoverage(outputHtsImg, outputOmImg, outputImg, title, singleImage, samplingType, plotType, htsCoverage, omCoverage, imageFormat);
+        plotRegionCoverage(chromosomeRegion, outputHtsImg, outputOmImg, outputImg, title, singleImage, samplingType, plotType, htsCoverage, omCoverage, imageFormat);
     }
 
     private void plotCoverageMulti(String[] bams, String cmapReference, String cmapQuery, String xmap, ImageFormat imageFormat, CommandLine cmd) throws Exception {
         int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
+        int renderThreads = cmd.hasOption(ARG_RENDER_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_RENDER_THREADS)) : 1;
+        String regionFile = cmd.hasOption(ARG_REGION_FILE) ? cmd.getOptionValue(ARG_REGION_FILE) : null;
+        String sampleName = cmd.hasOption(ARG_SAMPLE_NAME) ? cmd.getOptionValue(ARG_SAMPLE_NAME) : "";
+
+        plotCoverageMulti(bams, cmapReference, cmapQuery, xmap, getChromosomeRegions(regionFile), sampleName, getOutputDir(cmd),
+                threads, renderThreads, omIndex, imageFormat, cmd);
+    }
+
+    /**
+     * Plots coverage of given regions of one sample into output directory.
+     */
+    private void plotCoverageMulti(String[] bams, String cmapReference, String cmapQuery, String xmap, List<ChromosomeRegion> allRegions,
+                                   String sampleName, String outputDir, int threads, int renderThreads, String omIndex,
+                                   ImageFormat imageFormat, CommandLine cmd) throws Exception {
         int mappingQuality = cmd.hasOption(ARG_MAPPING_QUALITY) ? Integer.parseInt(cmd.getOptionValue(ARG_MAPPING_QUALITY)) : 0;
         int htsSamplingStep = cmd.hasOption(ARG_HTS_SAMPLING_STEP) ? Integer.parseInt(cmd.getOptionValue(ARG_HTS_SAMPLING_STEP)) : 100;
         int bionanoSamplingStep = cmd.hasOption(ARG_BIONANO_SAMPLING_STEP) ? Integer.parseInt(cmd.getOptionValue(ARG_BIONANO_SAMPLING_STEP)) : 10;
         boolean singleImage = cmd.hasOption(ARG_SINGLE_IMAGE);
         SamplingType samplingType = SamplingType.of(cmd.getOptionValue(ARG_SAMPLING_TYPE));
         PlotType plotType = PlotType.of(cmd.getOptionValue(ARG_PLOT_TYPE));
-        String regionFile = cmd.hasOption(ARG_REGION_FILE) ? cmd.getOptionValue(ARG_REGION_FILE) : null;
         int coverageLimitHts = cmd.hasOption(ARG_COVERAGE_LIMIT_HTS) ? Integer.parseInt(cmd.getOptionValue(ARG_COVERAGE_LIMIT_HTS)) : 0;
         int coverageLimitOm = cmd.hasOption(ARG_COVERAGE_LIMIT_OM) ? Integer.parseInt(cmd.getOptionValue(ARG_COVERAGE_LIMIT_OM)) : 0;
+        int regionsInFlight = cmd.hasOption(ARG_REGIONS_IN_FLIGHT) ? Integer.parseInt(cmd.getOptionValue(ARG_REGIONS_IN_FLIGHT)) : 0;
+        long basesInFlight = cmd.hasOption(ARG_BASES_IN_FLIGHT) ? Long.parseLong(cmd.getOptionValue(ARG_BASES_IN_FLIGHT)) : 0;
+
+        if (bams.length == 0 && !isOm(cmapReference, cmapQuery, xmap) && coveragePyramids == null) {
+            exitError("Missing arguments for coverage calculation. Probably some of bam, bai, cmap, xmap or region file arguments missing.");
+        }
+
+        String extension = "." + imageFormat.value;
+        int[] counter = {0};
+
+        // region images are identified by joint image name, valid images of incremental run are not plotted again
+        RunManifest manifest = cmd.hasOption(ARG_INCREMENTAL) ? getRunManifest(outputDir) : null;
+        Map<ChromosomeRegion, String> fingerprints = new HashMap<>();
+        List<ChromosomeRegion> regions = allRegions;
+
+        if (manifest != null) {
+            List<String> inputs = new ArrayList<>();
+            for (String bam : bams)
+                inputs.add(CoverageCache.getInputId(bam, bam + ".bai"));
+
+            if (isOm(cmapReference, cmapQuery, xmap))
+                inputs.add(CoverageCache.getInputId(cmapReference, cmapQuery, xmap));
+
+            if (coveragePyramids != null)
+                inputs.add(CoverageCache.getInputId(cmd.getOptionValue(ARG_PYRAMID).split(";")));
+
+            String parameters = RunManifest.getFingerprint(inputs, omIndex != null, mappingQuality, htsSamplingStep, bionanoSamplingStep,
+                    singleImage, samplingType, plotType, coverageLimitHts, coverageLimitOm, imageFormat, sampleName);
+
+            regions = new ArrayList<>();
+
+            for (ChromosomeRegion region : allRegions) {
+                String fingerprint = RunManifest.getFingerprint(parameters, region.getName(), region);
+                String key = getImageKey(outputDir + getImageName(sampleName, region, "_") + extension);
+                String images = manifest.get(key, fingerprint);
+
+                if (images == null || !Arrays.stream(images.split("\n")).allMatch(image -> image.isEmpty() || new File(image).isFile())) {
+                    fingerprints.put(region, fingerprint);
+                    regions.add(region);
+                }
+            }
+
+            log.info(String.format("Plots of %d/%d regions are up to date", allRegions.size() - regions.size(), allRegions.size()));
+        }
+
+        List<ChromosomeRegion> pending = regions;
+
+        try (RegionCoverageProcessor processor = new RegionCoverageProcessor(bams, cmapReference, cmapQuery, xmap, threads);
+             PlotRenderer renderer = new PlotRenderer(renderThreads)) {
+            processor.setMappingQuality(mappingQuality);
+            processor.setHtsSamplingSize(htsSamplingStep);
+            processor.setOmSamplingSize(bionanoSamplingStep);
+            processor.setRegionsInFlight(regionsInFlight);
+            processor.setBasesInFlight(basesInFlight);
+            processor.setCoverageCache(coverageCache);
+            processor.setOmIndex(omIndex);
+            processor.setCoverageStorage(coverageStorage);
+            processor.setCoveragePyramids(coveragePyramids, CoveragePlotBase.DEFAULT_WIDTH);
+
+            processor.process(regions, regionCoverage -> regionCoverage, regionCoverage -> {
+                ChromosomeRegion region = regionCoverage.getRegion();
+                log.info(String.format("Plotting coverage for: %s - %s... %d/%d\n", region.getName(), region, ++counter[0], pending.size()));
+
+                List<CoverageInfo> htsCoverage = regionCoverage.getHtsCoverages();
+                CoverageInfo omCoverage = regionCoverage.getOmCoverage();
+
+                if (htsCoverage == null && omCoverage == null) {
+                    log.info("No coverage information for region: " + region);
+                    return;
+                }
+
+                if (htsCoverage != null)
+                    htsCoverage.forEach(coverageInfo -> coverageInfo.setCoverageLimit(coverageLimitHts));
+
+                if (omCoverage != null)
+                    omCoverage.setCoverageLimit(coverageLimitOm);
+
+                String outputHtsImg = outputDir + getImageName(sampleName, region, "_hts_") + extension;
+                String outputOmImg = outputDir + getImageName(sampleName, region, "_om_") + extension;
+                String outputImg = outputDir + getImageName(sampleName, region, "_") + extension;
+                String title = StringUtils.join(sampleName, region.getName(), region);
+
+                renderer.submit(() -> {
+                    try {
+                        plotRegionCoverage(region, outputHtsImg, outputOmImg, outputImg, title, singleImage,
+                                samplingType, plotType, htsCoverage, omCoverage, imageFormat);
+                    }
+                    finally {
+                        regionCoverage.release();
+                    }
+
+                    if (manifest != null) {
+                        List<String> images = new ArrayList<>();
+
+                        if (singleImage)
+                            images.add(outputImg);
+                        else {
+                            if (htsCoverage != null)
+                                images.add(outputHtsImg);
+
+                            if (omCoverage != null)
+                                images.add(outputOmImg);
+                        }
+
+                        manifest.put(getImageKey(outputImg), fingerprints.get(region), String.join("\n", images));
+                    }
+                });
+            });
+        }
+        finally {
+            if (manifest != null)
+                manifest.write();
+        }
+    }
+
+    private static String getImageName(String sampleName, ChromosomeRegion region, String infix) {
+        String name = StringUtils.isBlank(region.getName()) ? sampleName : sampleName + "_" + region.getName();
+
+        return name + infix + region.toString().replaceAll(":", "_");
+    }
+
+    private static String getImageKey(String image) throws IOException {
+        return "plot|" + new File(image).getCanonicalPath();
+    }
+
+    private void startServer(String[] bams, String cmapReference, String cmapQuery, String xmap, CommandLine cmd) throws Exception {
+        int port = Integer.parseInt(cmd.getOptionValue(ARG_SERVER));
+        int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
+        int mappingQuality = cmd.hasOption(ARG_MAPPING_QUALITY) ? Integer.parseInt(cmd.getOptionValue(ARG_MAPPING_QUALITY)) : 0;
+        int htsSamplingStep = cmd.hasOption(ARG_HTS_SAMPLING_STEP) ? Integer.parseInt(cmd.getOptionValue(ARG_HTS_SAMPLING_STEP)) : 100;
+        int bionanoSamplingStep = cmd.hasOption(ARG_BIONANO_SAMPLING_STEP) ? Integer.parseInt(cmd.getOptionValue(ARG_BIONANO_SAMPLING_STEP)) : 10;
+
+        CoverageServer server = new CoverageServer(port, threads);
+        server.setInputs(bams, cmapReference, cmapQuery, xmap);
+
+        if (cmd.hasOption(ARG_SERVER_DIRS))
+            server.setAllowedDirs(cmd.getOptionValue(ARG_SERVER_DIRS).split(";"));
+
+        server.setOmIndex(omIndex);
+        server.setMappingQuality(mappingQuality);
+        server.setHtsSamplingSize(htsSamplingStep);
+        server.setOmSamplingSize(bionanoSamplingStep);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            }
+            catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }));
+
+        server.start();
+    }
+
+    private void renderTiles(String[] bams, String cmapReference, String cmapQuery, String xmap, ImageFormat imageFormat, CommandLine cmd) throws Exception {
+        String tileDir = cmd.getOptionValue(ARG_TILES);
+        int maxZoom = cmd.hasOption(ARG_TILE_ZOOM) ? Integer.parseInt(cmd.getOptionValue(ARG_TILE_ZOOM)) : 6;
+        int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
+        int mappingQuality = cmd.hasOption(ARG_MAPPING_QUALITY) ? Integer.parseInt(cmd.getOptionValue(ARG_MAPPING_QUALITY)) : 0;
+        int renderThreads = cmd.hasOption(ARG_RENDER_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_RENDER_THREADS)) : 1;
+        int htsSamplingStep = cmd.hasOption(ARG_HTS_SAMPLING_STEP) ? Integer.parseInt(cmd.getOptionValue(ARG_HTS_SAMPLING_STEP)) : 100;
+        int bionanoSamplingStep = cmd.hasOption(ARG_BIONANO_SAMPLING_STEP) ? Integer.parseInt(cmd.getOptionValue(ARG_BIONANO_SAMPLING_STEP)) : 10;
+        int coverageLimitHts = cmd.hasOption(ARG_COVERAGE_LIMIT_HTS) ? Integer.parseInt(cmd.getOptionValue(ARG_COVERAGE_LIMIT_HTS)) : 0;
+        int coverageLimitOm = cmd.hasOption(ARG_COVERAGE_LIMIT_OM) ? Integer.parseInt(cmd.getOptionValue(ARG_COVERAGE_LIMIT_OM)) : 0;
+        String sampleName = cmd.hasOption(ARG_SAMPLE_NAME) ? cmd.getOptionValue(ARG_SAMPLE_NAME) : "";
+        PlotType plotType = PlotType.of(cmd.getOptionValue(ARG_PLOT_TYPE));
+
+        List<ChromosomeRegion> regions;
+
+        if (cmd.hasOption(ARG_REGION_FILE))
+            regions = getChromosomeRegions(cmd.getOptionValue(ARG_REGION_FILE));
+        else if (cmd.hasOption(ARG_REGION))
+            regions = Collections.singletonList(ChromosomeRegion.valueOf(cmd.getOptionValue(ARG_REGION)));
+        else if (bams.length > 0)
+            regions = getContigRegions(bams[0]);
+        else {
+            exitError("Region or region file must be specified for optical maps or coverage pyramid tiles.");
+            return;
+        }
+
+        CoverageTiles coverageTiles = new CoverageTiles(plotType, imageFormat);
+
+        // tiles of a region share one coverage limit, so a region is drawn with the larger of hts and om limits
+        int coverageLimit = Math.max(coverageLimitHts, coverageLimitOm);
+
+        try (PlotRenderer renderer = new PlotRenderer(renderThreads)) {
+            for (ChromosomeRegion region : regions) {
+                CoverageTiles.TileSource source;
+
+                if (coveragePyramids != null)
+                    source = coveragePyramids::getRegionCoverage;
+                else {
+                    Map<ChromosomeRegion, List<CoverageInfo>> coverageInfosHts = new HashMap<>();
+                    Map<ChromosomeRegion, CoverageInfo> coverageInfosOm = new HashMap<>();
+
+                    calculateCoverage(bams, cmapReference, cmapQuery, xmap, Collections.singletonList(region), threads,
+                            htsSamplingStep, bionanoSamplingStep, mappingQuality, coverageInfosHts, coverageInfosOm);
+
+                    source = CoverageTiles.of(new RegionCoverage(region, coverageInfosHts.get(region), coverageInfosOm.get(region)));
+                }
+
+                String name = StringUtils.isBlank(region.getName()) ? sampleName : sampleName + "_" + region.getName();
+                String regionDir = new File(tileDir, StringUtils.strip(name + "_" + region.toString().replaceAll(":", "_"), "_")).getPath();
+
+                CoverageMetrics.setRegion(region.toString());
+                coverageTiles.writeTiles(regionDir, region, maxZoom, source, coverageLimit, renderer);
+            }
+        }
+    }
+
+    private void calculateWindowCoverage(String[] bams, ImageFormat imageFormat, CommandLine cmd) throws Exception {
+        int windowSize = Integer.parseInt(cmd.getOptionValue(ARG_WINDOW));
+        int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
+        int mappingQuality = cmd.hasOption(ARG_MAPPING_QUALITY) ? Integer.parseInt(cmd.getOptionValue(ARG_MAPPING_QUALITY)) : 0;
+        int renderThreads = cmd.hasOption(ARG_RENDER_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_RENDER_THREADS)) : 1;
+        int coverageLimitHts = cmd.hasOption(ARG_COVERAGE_LIMIT_HTS) ? Integer.parseInt(cmd.getOptionValue(ARG_COVERAGE_LIMIT_HTS)) : 0;
+        SamplingType samplingType = SamplingType.of(cmd.getOptionValue(ARG_SAMPLING_TYPE));
+        PlotType plotType = PlotType.of(cmd.getOptionValue(ARG_PLOT_TYPE));
         String sampleName = cmd.hasOption(ARG_SAMPLE_NAME) ? cmd.getOptionValue(ARG_SAMPLE_NAME) : "";
         String outputDir = cmd.hasOption(ARG_OUTPUT_DIR) ? cmd.getOptionValue(ARG_OUTPUT_DIR) : "./";
         outputDir = outputDir.endsWith("/") || outputDir.endsWith("\\") ? outputDir : outputDir + "/";
+        String prefix = outputDir + (StringUtils.isBlank(sampleName) ? "" : sampleName + "_");
 
-        List<ChromosomeRegion> regions = getChromosomeRegions(regionFile);
-        Map<ChromosomeRegion, List<CoverageInfo>> coverageInfosHts = getCoverageInfoHts(bams, regions, threads, htsSamplingStep, mappingQuality);
-        Map<ChromosomeRegion, CoverageInfo> coverageInfosOm = getCoverageInfoOm(cmapReference, cmapQuery, xmap, regions, bionanoSamplingStep);
+        if (bams.length == 0)
+            exitError("Window coverage is calculated from bam files only.");
 
-        if (coverageInfosHts.isEmpty() && coverageInfosOm.isEmpty()) {
-            exitError("Missing arguments for coverage calculation. Probably some of bam, bai, cmap, xmap or region file arguments missing.");
+        if (windowSize < 1)
+            exitError("Window size must be positive.");
+
+        // genome plot positions are in kb, so genome bins are merged windows spanning whole kilobases
+        long genomeWindows = 0;
+        for (ChromosomeRegion region : getContigRegions(bams[0]))
+            genomeWindows += ((long) region.getLength() - 1) / windowSize + 1;
+
+        int step = 1000 / BigInteger.valueOf(windowSize).gcd(BigInteger.valueOf(1000)).intValue();
+        long genomeFactor = Math.max(1, (genomeWindows + 2L * CoveragePlotBase.DEFAULT_WIDTH - 1) / (2L * CoveragePlotBase.DEFAULT_WIDTH));
+        int genomeMerge = (int) ((genomeFactor + step - 1) / step * step);
+
+        List<Map<Chromosome, BinnedCoverageInfo>> chromosomeCoverages = new ArrayList<>();
+        List<List<BinnedCoverageInfo>> genomeCoverages = new ArrayList<>();
+
+        try (CoverageScheduler scheduler = new CoverageScheduler(threads, bams.length)) {
+            List<Future<Void>> futures = new ArrayList<>();
+
+            for (String bam : bams) {
+                Map<Chromosome, BinnedCoverageInfo> bamChromosomes = new LinkedHashMap<>();
+                List<BinnedCoverageInfo> bamGenome = new ArrayList<>();
+                String bedGraph = prefix + CoverageInfos.getHtsName(bam) + "_w" + windowSize + ".bedgraph";
+
+                chromosomeCoverages.add(bamChromosomes);
+                genomeCoverages.add(bamGenome);
+                futures.add(scheduler.submit(() -> {
+                    writeWindowCoverage(bam, windowSize, mappingQuality, genomeMerge, bedGraph, bamChromosomes, bamGenome);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures)
+                CoverageScheduler.get(future);
         }
 
-        for (int i = 0; i < regions.size(); i++) {
-            ChromosomeRegion region = regions.get(i);
-            log.info(String.format("Plotting coverage for: %s - %s... %d/%d\n", region.getName(), region, i + 1, regions.size()));
+        String extension = "_w" + windowSize + "." + imageFormat.value;
+
+        try (PlotRenderer renderer = new PlotRenderer(renderThreads)) {
+            List<CoverageInfo> genome = new ArrayList<>();
+            for (List<BinnedCoverageInfo> bamGenome : genomeCoverages)
+                genome.add(BamWindowCoverageCalculator.concat(bamGenome, 1000));
+
+            genome.forEach(coverageInfo -> coverageInfo.setCoverageLimit(coverageLimitHts));
+            renderer.submit(() -> plotType.createCoveragePlot().plotCoverage((sampleName + " genome").trim(),
+                    "Genome position (kb)", "Coverage", prefix + "genome" + extension, samplingType, genome, imageFormat));
 
-            List<CoverageInfo> htsCoverage = coverageInfosHts.get(region);
-            CoverageInfo omCoverage = coverageInfosOm.get(region);
+            for (Chromosome chromosome : chromosomeCoverages.get(0).keySet()) {
+                List<CoverageInfo> coverageInfos = new ArrayList<>();
 
-            if (htsCoverage == null && omCoverage == null) {
-                log.info("No coverage information for region: " + region);
-                continue;
+                for (Map<Chromosome, BinnedCoverageInfo> bamChromosomes : chromosomeCoverages)
+                    if (bamChromosomes.containsKey(chromosome))
+                        coverageInfos.add(bamChromosomes.get(chromosome));
+
+                coverageInfos.forEach(coverageInfo -> coverageInfo.setCoverageLimit(coverageLimitHts));
+                renderer.submit(() -> plotType.createCoveragePlot().plotCoverage((sampleName + " " + chromosome.name()).trim(),
+                        "Position", "Coverage", prefix + chromosome.name() + extension, samplingType, coverageInfos, imageFormat));
             }
+        }
+    }
 
-            if (htsCoverage != null)
-                htsCoverage.forEach(coverageInfo -> coverageInfo.setCoverageLimit(coverageLimitHts));
+    /**
+     * Writes window coverage of all bam contigs into bedgraph file and keeps coverages of known chromosomes merged
+     * to about plot width and merged by genome factor for plots.
+     */
+    private void writeWindowCoverage(String bam, int windowSize, int mappingQuality, int genomeMerge, String bedGraph,
+                                     Map<Chromosome, BinnedCoverageInfo> chromosomeCoverages,
+                                     List<BinnedCoverageInfo> genomeCoverages) throws Exception {
+        try (BamWindowCoverageCalculator calculator = new BamWindowCoverageCalculator(bam, windowSize);
+             BufferedWriter writer = new BufferedWriter(new FileWriter(bedGraph), 1 << 16)) {
+            calculator.open();
+            calculator.setMappingQuality(mappingQuality);
+
+            writer.write("track type=bedGraph name=" + CoverageInfos.getHtsName(bam) + "\n");
+            long[] last = {System.nanoTime(), 0};
+
+            calculator.calculate((sequence, chromosome, coverageInfo) -> {
+                StringBuilder line = new StringBuilder();
+
+                for (int i = 0; i < coverageInfo.getBinCount(); i++) {
+                    long start = coverageInfo.getBinPosition(i) - 1;
+
+                    line.setLength(0);
+                    line.append(sequence.getSequenceName()).append('\t').append(start).append('\t')
+                            .append(start + coverageInfo.getBinLength(i)).append('\t');
+                    appendMean(line, coverageInfo.getMean(i));
+                    writer.append(line).append('\n');
+                }
 
-            if (omCoverage != null)
-                omCoverage.setCoverageLimit(coverageLimitOm);
+                if (chromosome != null) {
+                    int chromosomeMerge = (coverageInfo.getBinCount() + 2 * CoveragePlotBase.DEFAULT_WIDTH - 1) / (2 * CoveragePlotBase.DEFAULT_WIDTH);
+                    chromosomeCoverages.put(chromosome, coverageInfo.merge(Math.max(1, chromosomeMerge)));
+                    genomeCoverages.add(coverageInfo.merge(genomeMerge));
+                }
+
+                CoverageMetrics.record(CoverageMetrics.Phase.HTS_COVERAGE, sequence.getSequenceName(), last[0],
+                        sequence.getSequenceLength(), calculator.getReadCount() - last[1], 0);
+                last[0] = System.nanoTime();
+                last[1] = calculator.getReadCount();
+            });
+        }
+    }
+
+    /**
+     * Appends mean coverage rounded to two decimal places, much faster than String.format for millions of windows.
+     */
+    private static void appendMean(StringBuilder line, double mean) {
+        long hundredths = Math.round(mean * 100);
+        long fraction = hundredths % 100;
+
+        line.append(hundredths / 100);
+
+        if (fraction != 0)
+            line.append('.').append(fraction / 10).append(fraction % 10 == 0 ? "" : String.valueOf(fraction % 10));
+    }
 
-            String name = StringUtils.isBlank(region.getName()) ? sampleName : sampleName + "_" + region.getName();
-            String extension = "." + imageFormat.value;
-            String outputHtsImg = outputDir + name + "_hts_" + region.toString().replaceAll(":", "_") + extension;
-            String outputOmImg = outputDir + name + "_om_" + region.toString().replaceAll(":", "_") + extension;
-            String outputImg = outputDir + name + "_" + region.toString().replaceAll(":", "_") + extension;
-            String title = StringUtils.join(sampleName, region.getName(), region);
+    private void buildPyramid(String[] bams, String cmapReference, String cmapQuery, String xmap, CommandLine cmd) throws Exception {
+        String pyramidFile = cmd.getOptionValue(ARG_BUILD_PYRAMID);
+        int threads = cmd.hasOption(ARG_THREADS) ? Integer.parseInt(cmd.getOptionValue(ARG_THREADS)) : 1;
+        int mappingQuality = cmd.hasOption(ARG_MAPPING_QUALITY) ? Integer.parseInt(cmd.getOptionValue(ARG_MAPPING_QUALITY)) : 0;
+        boolean isOm = bams.length == 0 && isOm(cmapReference, cmapQuery, xmap);
+
+        if (bams.length > 1 || (bams.length == 0 && !isOm))
+            exitError("Coverage pyramid is built from single bam file or optical maps.");
 
-            plotRegionCoverage(outputHtsImg, outputOmImg, outputImg, title, singleImage, samplingType, plotType, htsCoverage, omCoverage, imageFormat);
+        List<ChromosomeRegion> regions;
+
+        if (cmd.hasOption(ARG_REGION_FILE))
+            regions = getChromosomeRegions(cmd.getOptionValue(ARG_REGION_FILE));
+        else if (cmd.hasOption(ARG_REGION))
+            regions = Collections.singletonList(ChromosomeRegion.valueOf(cmd.getOptionValue(ARG_REGION)));
+        else if (!isOm)
+            regions = getContigRegions(bams[0]);
+        else {
+            exitError("Region or region file must be specified for optical maps coverage pyramid.");
+            return;
         }
+
+        if (isOm) {
+            try (CoverageCalculator coverageCalculator = BionanoIndexedCoverageCalculator.create(cmapReference, cmapQuery, xmap, omIndex)) {
+                coverageCalculator.open();
+                new CoveragePyramidWriter(coverageCalculator, CoveragePyramidWriter.SOURCE_OM, xmap).write(pyramidFile, regions);
+            }
+        }
+        else {
+            String bai = bams[0] + ".bai";
+
+            try (CoverageCalculator coverageCalculator = threads == 1
+                    ? new BamCoverageCalculatorST(bams[0], bai) : new BamCoverageCalculatorMT(bams[0], bai, threads)) {
+                coverageCalculator.open();
+                coverageCalculator.setMappingQuality(mappingQuality);
+
+                CoveragePyramidWriter pyramidWriter = new CoveragePyramidWriter(coverageCalculator, CoveragePyramidWriter.SOURCE_HTS, bams[0]);
+                pyramidWriter.setMappingQuality(mappingQuality);
+                pyramidWriter.write(pyramidFile, regions);
+            }
+        }
+    }
+
+    /**
+     * @return whole contigs of bam header which are known chromosomes
+     */
+    private List<ChromosomeRegion> getContigRegions(String bam) throws IOException {
+        List<ChromosomeRegion> regions = new ArrayList<>();
+
+        try (SamReader samReader = SamReaderFactory.makeDefault().open(new File(bam))) {
+            SAMSequenceDictionary dictionary = samReader.getFileHeader().getSequenceDictionary();
+
+            for (Chromosome chromosome : Chromosome.values()) {
+                SAMSequenceRecord sequence = CoverageInfos.getSequence(dictionary, chromosome);
+
+                if (sequence != null)
+                    regions.add(ChromosomeRegion.valueOf(chromosome.name() + ":1-" + sequence.getSequenceLength()));
+            }
+        }
+
+        return regions;
     }
 
-    private void plotRegionCoverage(String outputHtsImg, String outputOmImg, String outputImg, String title, boolean singleImage,
+    private void plotRegionCoverage(ChromosomeRegion region, String outputHtsImg, String outputOmImg, String outputImg, String title, boolean singleImage,
                                     SamplingType samplingType, PlotType plotType, List<CoverageInfo> htsCoverage, CoverageInfo omCoverage, ImageFormat imageFormat) throws Exception {
-        CoveragePlot coveragePlot = createCoveragePlot(plotType);
+        CoveragePlot coveragePlot = plotType.createCoveragePlot();
+        CoverageMetrics.setRegion(region.toString());
 
         if (singleImage) {
             htsCoverage.add(omCoverage);
@@ -498,62 +1512,139 @@ public class LoReCCoverage {
         }
     }
 
-    private List<CoverageInfo> getCoverageInfoHts(String[] bams, ChromosomeRegion region, int threads, int samplingSize,
-                                                  int mappingQuality) throws Exception {
-        return getCoverageInfoHts(bams, Collections.singletonList(region), threads, samplingSize, mappingQuality).get(region);
-    }
+    private void calculateCoverage(String[] bams, String cmapRef, String cmapQry, String xmap, List<ChromosomeRegion> regions,
+                                   int threads, int htsSamplingSize, int omSamplingSize, int mappingQuality,
+                                   Map<ChromosomeRegion, List<CoverageInfo>> htsCoverages,
+                                   Map<ChromosomeRegion, CoverageInfo> omCoverages) throws Exception {
+        boolean isOm = isOm(cmapRef, cmapQry, xmap);
+        int tasks = bams.length + (isOm ? 1 : 0);
 
-    private Map<ChromosomeRegion, List<CoverageInfo>> getCoverageInfoHts(String[] bams, List<ChromosomeRegion> regions,
-                                                                         int threads, int samplingSize, int mappingQuality) throws Exception {
-        if (bams.length == 0 || regions == null || regions.isEmpty())
-            return Collections.emptyMap();
+        if (tasks == 0 || regions == null || regions.isEmpty())
+            return;
 
-        Map<ChromosomeRegion, List<CoverageInfo>> coverages = new HashMap<>();
+        try (CoverageScheduler scheduler = new CoverageScheduler(threads, tasks)) {
+            Future<Map<ChromosomeRegion, CoverageInfo>> omFuture = isOm
+                    ? scheduler.submit(() -> store(getCoverageInfoOm(cmapRef, cmapQry, xmap, regions, omSamplingSize))) : null;
 
-        for (String bam : bams) {
-            String bai = bam + ".bai";
+            List<Future<Map<ChromosomeRegion, CoverageInfo>>> htsFutures = new ArrayList<>();
+            for (String bam : bams)
+                htsFutures.add(scheduler.submit(() -> store(getCoverageInfoHts(bam, regions, scheduler.getTaskThreads(), htsSamplingSize, mappingQuality))));
 
-            try (CoverageCalculator coverageCalculator = threads == 1
-                    ? new BamCoverageCalculatorST(bam, bai) : new BamCoverageCalculatorMT(bam, bai, threads)) {
-                coverageCalculator.open();
-                coverageCalculator.setMappingQuality(mappingQuality);
+            Set<ChromosomeRegion> uniqueRegions = new LinkedHashSet<>(regions);
+            for (Future<Map<ChromosomeRegion, CoverageInfo>> htsFuture : htsFutures) {
+                Map<ChromosomeRegion, CoverageInfo> coverages = CoverageScheduler.get(htsFuture);
 
-                int counter = 1;
-                for (ChromosomeRegion region : regions) {
-                    List<CoverageInfo> coverageInfos = coverages.get(region);
-                    if (coverageInfos == null) {
-                        coverageInfos = new ArrayList<>();
-                        coverages.put(region, coverageInfos);
-                    }
+                for (ChromosomeRegion region : uniqueRegions)
+                    htsCoverages.computeIfAbsent(region, k -> new ArrayList<>()).add(coverages.get(region));
+            }
+
+            if (omFuture != null)
+                omCoverages.putAll(CoverageScheduler.get(omFuture));
+        }
+    }
+
+    private Map<ChromosomeRegion, CoverageInfo> store(Map<ChromosomeRegion, CoverageInfo> coverageInfos) throws IOException {
+        return coverageStorage == CoverageStorage.HEAP ? coverageInfos : coverageStorage.store(new HashMap<>(coverageInfos));
+    }
 
-                    log.info(String.format("Calculating coverage for: %s - %s - %s... %d/%d\n", bam, region.getName(), region, counter++, regions.size()));
+    private Map<ChromosomeRegion, CoverageInfo> getCoverageInfoHts(String bam, List<ChromosomeRegion> regions, int threads,
+                                                                   int samplingSize, int mappingQuality) throws Exception {
+        if (coverageCache == null)
+            return calculateCoverageInfoHts(bam, regions, threads, samplingSize, mappingQuality);
 
-                    CoverageInfo coverageInfo = coverageCalculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
-                    coverageInfo.setSamplingSize(samplingSize);
-                    coverageInfo.setColor(Color.RED.getRGB());
-                    coverageInfo.setName(getHtsCoverageInfoName(bam));
+        String inputId = CoverageCache.getInputId(bam, bam + ".bai");
+        Map<ChromosomeRegion, CoverageInfo> coverages = new HashMap<>();
+        List<ChromosomeRegion> missing = new ArrayList<>();
 
-                    coverageInfos.add(coverageInfo);
-                }
+        for (ChromosomeRegion region : regions) {
+            long startTime = System.nanoTime();
+            CoverageInfo coverageInfo = coverageCache.get(CoverageCache.getHtsKey(inputId, region, mappingQuality, false));
+
+            if (coverageInfo != null) {
+                CoverageInfos.setupHts(coverageInfo, bam, samplingSize);
+                coverages.put(region, coverageInfo);
+                CoverageMetrics.record(CoverageMetrics.Phase.HTS_COVERAGE, region.toString(), startTime, region.getLength(), 0, 0);
+            }
+            else
+                missing.add(region);
+        }
+
+        if (!missing.isEmpty()) {
+            for (Map.Entry<ChromosomeRegion, CoverageInfo> entry : calculateCoverageInfoHts(bam, missing, threads, samplingSize, mappingQuality).entrySet()) {
+                coverageCache.put(CoverageCache.getHtsKey(inputId, entry.getKey(), mappingQuality, false), entry.getValue());
+                coverages.put(entry.getKey(), entry.getValue());
             }
         }
 
         return coverages;
     }
 
-    private String getHtsCoverageInfoName(String bam) {
-        return "hts_" + FilenameUtils.removeExtension(new File(bam).getName());
+    private Map<ChromosomeRegion, CoverageInfo> calculateCoverageInfoHts(String bam, List<ChromosomeRegion> regions, int threads,
+                                                                         int samplingSize, int mappingQuality) throws Exception {
+        String bai = bam + ".bai";
+        Map<ChromosomeRegion, CoverageInfo> coverages = new HashMap<>();
+
+        try (CoverageCalculator coverageCalculator = threads == 1
+                ? new BamCoverageCalculatorST(bam, bai) : new BamCoverageCalculatorMT(bam, bai, threads)) {
+            coverageCalculator.open();
+            coverageCalculator.setMappingQuality(mappingQuality);
+
+            int counter = 1;
+            for (ChromosomeRegion region : regions) {
+                log.info(String.format("Calculating coverage for: %s - %s - %s... %d/%d\n", bam, region.getName(), region, counter++, regions.size()));
+
+                long startTime = System.nanoTime();
+                CoverageInfo coverageInfo = coverageCalculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
+                CoverageInfos.setupHts(coverageInfo, bam, samplingSize);
+                CoverageMetrics.record(CoverageMetrics.Phase.HTS_COVERAGE, region.toString(), startTime, region.getLength(), 0, 0);
+
+                coverages.put(region, coverageInfo);
+            }
+        }
+
+        return coverages;
     }
 
-    private CoverageInfo getCoverageInfoOm(String cmapRef, String cmapQry, String xmap, ChromosomeRegion region, int samplingSize) throws Exception {
-        return getCoverageInfoOm(cmapRef, cmapQry, xmap, Collections.singletonList(region), samplingSize).get(region);
+    private boolean isOm(String cmapRef, String cmapQry, String xmap) {
+        return StringUtils.isNoneBlank(cmapRef, cmapQry, xmap);
     }
 
     private Map<ChromosomeRegion, CoverageInfo> getCoverageInfoOm(String cmapRef, String cmapQry, String xmap, List<ChromosomeRegion> regions, int samplingSize) throws Exception {
-        if (StringUtils.isBlank(cmapRef) || StringUtils.isBlank(cmapQry) || StringUtils.isBlank(xmap) || regions == null || regions.isEmpty())
+        if (!isOm(cmapRef, cmapQry, xmap) || regions == null || regions.isEmpty())
             return Collections.emptyMap();
 
-        try (CoverageCalculator coverageCalculator = new BionanoCoverageCalculator(cmapRef, cmapQry, xmap)) {
+        if (coverageCache == null)
+            return calculateCoverageInfoOm(cmapRef, cmapQry, xmap, regions, samplingSize);
+
+        String inputId = CoverageCache.getInputId(cmapRef, cmapQry, xmap);
+        Map<ChromosomeRegion, CoverageInfo> coverageInfos = new HashMap<>();
+        List<ChromosomeRegion> missing = new ArrayList<>();
+
+        for (ChromosomeRegion region : regions) {
+            long startTime = System.nanoTime();
+            CoverageInfo coverageInfo = coverageCache.get(CoverageCache.getOmKey(inputId, region, omIndex != null));
+
+            if (coverageInfo != null) {
+                CoverageInfos.setupOm(coverageInfo, samplingSize);
+                coverageInfos.put(region, coverageInfo);
+                CoverageMetrics.record(CoverageMetrics.Phase.OM_COVERAGE, region.toString(), startTime, region.getLength(), 0, 0);
+            }
+            else
+                missing.add(region);
+        }
+
+        if (!missing.isEmpty()) {
+            for (Map.Entry<ChromosomeRegion, CoverageInfo> entry : calculateCoverageInfoOm(cmapRef, cmapQry, xmap, missing, samplingSize).entrySet()) {
+                coverageCache.put(CoverageCache.getOmKey(inputId, entry.getKey(), omIndex != null), entry.getValue());
+                coverageInfos.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return coverageInfos;
+    }
+
+    private Map<ChromosomeRegion, CoverageInfo> calculateCoverageInfoOm(String cmapRef, String cmapQry, String xmap, List<ChromosomeRegion> regions, int samplingSize) throws Exception {
+        try (CoverageCalculator coverageCalculator = BionanoIndexedCoverageCalculator.create(cmapRef, cmapQry, xmap, omIndex)) {
             coverageCalculator.open();
 
             Map<ChromosomeRegion, CoverageInfo> coverageInfos = new HashMap<>();
@@ -561,10 +1652,10 @@ public class LoReCCoverage {
             for (ChromosomeRegion region : regions) {
                 log.info(String.format("Calculating coverage for: %s - %s... %d/%d\n", region.getName(), region, counter++, regions.size()));
 
+                long startTime = System.nanoTime();
                 CoverageInfo coverageInfo = coverageCalculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
-                coverageInfo.setSamplingSize(samplingSize);
-                coverageInfo.setColor(Color.BLUE.getRGB());
-                coverageInfo.setName("OM");
+                CoverageInfos.setupOm(coverageInfo, samplingSize);
+                CoverageMetrics.record(CoverageMetrics.Phase.OM_COVERAGE, region.toString(), startTime, region.getLength(), 0, 0);
 
                 coverageInfos.put(region, coverageInfo);
             }
@@ -573,24 +1664,6 @@ public class LoReCCoverage {
         }
     }
 
-    private CoveragePlot createCoveragePlot(PlotType plotType) {
-        CoveragePlot coveragePlot;
-
-        switch (plotType) {
-            case LINE:
-                coveragePlot = new CoveragePlotXYStepChart();
-                break;
-            case SPLINE:
-                coveragePlot = new CoveragePlotXYSplineChart();
-                break;
-            default:
-                coveragePlot = new CoveragePlotHistogramChart();
-                break;
-        }
-
-        return coveragePlot;
-    }
-
     private void logError(String msg) {
         log.error(msg);
     }
@@ -601,4 +1674,38 @@ public class LoReCCoverage {
         
         System.exit(1);
     }
+
+    /**
+     * Statistics of optical maps or single bam in one region - text columns, low coverage bed lines and values
+     * of statistics matrix in order of {@link #getMatrixMetrics(int[])}.
+     */
+    private static class SourceStatistics {
+        final String columns;
+        final String siteCount;
+        final String breadths;
+        final String bed;
+        final float[] values;
+
+        SourceStatistics(String columns, String siteCount, String breadths, String bed, float[] values) {
+            this.columns = columns;
+            this.siteCount = siteCount;
+            this.breadths = breadths;
+            this.bed = bed;
+            this.values = values;
+        }
+
+        /**
+         * @return columns of statistics table, site count is present only for optical maps
+         */
+        String getColumns() {
+            return columns + (siteCount == null ? "" : "\t" + siteCount) + breadths;
+        }
+
+        /**
+         * @return columns of batch statistics table, site count is empty for bams
+         */
+        String getBatchColumns() {
+            return columns + "\t" + (siteCount == null ? "" : siteCount) + breadths;
+        }
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pool of threads drawing charts and encoding images. Plot tasks wait in bounded queue - when the queue is full,
+ * submitting thread is blocked until some renderer is free, so only a few regions wait for plotting in memory.
+ */
+public class PlotRenderer implements AutoCloseable {
+    private final ThreadPoolExecutor executor;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    public interface PlotTask {
+        void plot() throws Exception;
+    }
+
+    public PlotRenderer(int threads) {
+        threads = Math.max(1, threads);
+
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), (task, pool) -> {
+            try {
+                pool.getQueue().put(task);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        });
+    }
+
+    public void submit(PlotTask task) throws Exception {
+        checkError();
+
+        executor.execute(() -> {
+            try {
+                if (error.get() == null)
+                    task.plot();
+            }
+            catch (Throwable e) {
+                error.compareAndSet(null, e);
+            }
+        });
+    }
+
+    /**
+     * Errors (e.g. out of memory in chart drawing) are recorded as well, so they are not lost with the worker thread.
+     */
+    private void checkError() throws Exception {
+        Throwable e = error.get();
+
+        if (e instanceof Exception)
+            throw (Exception) e;
+
+        if (e instanceof Error)
+            throw (Error) e;
+
+        if (e != null)
+            throw new ExecutionException(e);
+    }
+
+    /**
+     * Waits for all submitted plots and rethrows the first plotting error, if any.
+     */
+    @Override
+    public void close() throws Exception {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        checkError();
+    }
+}
@@ -39,4 +39,22 @@ public enum PlotType {
             default: return HISTOGRAM;
         }
     }
+
+    public CoveragePlotBase createCoveragePlot() {
+        CoveragePlotBase coveragePlot;
+
+        switch (this) {
+            case LINE:
+                coveragePlot = new CoveragePlotXYStepChart();
+                break;
+            case SPLINE:
+                coveragePlot = new CoveragePlotXYSplineChart();
+                break;
+            default:
+                coveragePlot = new CoveragePlotHistogramChart();
+                break;
+        }
+
+        return coveragePlot;
+    }
 }
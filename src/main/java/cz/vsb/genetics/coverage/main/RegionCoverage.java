@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageInfo;
+
+import java.util.List;
+
+/**
+ * Coverage information of all HTS (BAM) inputs and optical maps for single region.
+ */
+public class RegionCoverage {
+    private final ChromosomeRegion region;
+    private final List<CoverageInfo> htsCoverages;
+    private final CoverageInfo omCoverage;
+
+    public RegionCoverage(ChromosomeRegion region, List<CoverageInfo> htsCoverages, CoverageInfo omCoverage) {
+        this.region = region;
+        this.htsCoverages = htsCoverages;
+        this.omCoverage = omCoverage;
+    }
+
+    public ChromosomeRegion getRegion() {
+        return region;
+    }
+
+    /**
+     * @return HTS coverage information in order of BAM files, or null when no BAM file is processed
+     */
+    public List<CoverageInfo> getHtsCoverages() {
+        return htsCoverages;
+    }
+
+    /**
+     * @return optical maps coverage information, or null when no optical maps are processed
+     */
+    public CoverageInfo getOmCoverage() {
+        return omCoverage;
+    }
+
+    /**
+     * Frees off-heap memory of the coverage right away, see {@link CoverageStorage#release(CoverageInfo)}. Coverage
+     * must not be read afterwards.
+     */
+    public void release() {
+        if (htsCoverages != null)
+            htsCoverages.forEach(CoverageStorage::release);
+
+        CoverageStorage.release(omCoverage);
+    }
+}
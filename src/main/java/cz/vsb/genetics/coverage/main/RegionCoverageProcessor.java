@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Calculates coverage of many regions in parallel. Region list is split into chunks which are processed by
+ * work-stealing pool, every worker thread uses its own BAM readers and calculates coverage of whole chunk in
+ * single pass. Results of the chunks are handed over to consumer in region order. Number of regions and total
+ * length of regions being calculated or waiting for consumer are limited, so memory usage depends on the largest
+ * region, not on region count. Region longer than the length limit of a chunk is calculated alone, region longer
+ * than the limit of total length once no other region is in flight.
+ */
+public class RegionCoverageProcessor implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RegionCoverageProcessor.class);
+
+    private static final int CHUNKS_PER_THREAD = 8;
+    private static final int MAX_CHUNK_SIZE = 64;
+    private static final int REGIONS_IN_FLIGHT_PER_THREAD = 16;
+    private static final long BASES_IN_FLIGHT_PER_THREAD = 50000000;
+
+    private final String[] bams;
+    private final String cmapRef;
+    private final String cmapQry;
+    private final String xmap;
+    private final int threads;
+    private int mappingQuality = 0;
+    private int htsSamplingSize = 0;
+    private int omSamplingSize = 0;
+    private int regionsInFlight;
+    private long basesInFlight;
+    private CoverageCache coverageCache;
+    private String[] bamIds;
+    private String omId;
+    private CoveragePyramids coveragePyramids;
+    private String omIndex;
+    private CoverageStorage coverageStorage = CoverageStorage.HEAP;
+    private int pyramidBins;
+
+    private final ExecutorService executor;
+    private final Queue<BamMultiRegionCoverageCalculator> calculators = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<List<BamMultiRegionCoverageCalculator>> workerCalculators = new ThreadLocal<>();
+    private CoverageCalculator omCalculator;
+
+    public interface RegionFunction<T> {
+        T apply(RegionCoverage regionCoverage) throws Exception;
+    }
+
+    public interface RegionConsumer<T> {
+        void accept(T result) throws Exception;
+    }
+
+    public RegionCoverageProcessor(String[] bams, String cmapRef, String cmapQry, String xmap, int threads) {
+        this.bams = bams;
+        this.cmapRef = cmapRef;
+        this.cmapQry = cmapQry;
+        this.xmap = xmap;
+        this.threads = Math.max(1, threads);
+        this.regionsInFlight = this.threads * REGIONS_IN_FLIGHT_PER_THREAD;
+        this.basesInFlight = this.threads * BASES_IN_FLIGHT_PER_THREAD;
+        this.executor = Executors.newWorkStealingPool(this.threads);
+    }
+
+    public void setMappingQuality(int mappingQuality) {
+        this.mappingQuality = mappingQuality;
+    }
+
+    public void setHtsSamplingSize(int htsSamplingSize) {
+        this.htsSamplingSize = htsSamplingSize;
+    }
+
+    public void setOmSamplingSize(int omSamplingSize) {
+        this.omSamplingSize = omSamplingSize;
+    }
+
+    /**
+     * Sets cache of calculated coverage - regions found in the cache are not calculated again.
+     */
+    public void setCoverageCache(CoverageCache coverageCache) throws Exception {
+        this.coverageCache = coverageCache;
+
+        if (coverageCache == null)
+            return;
+
+        bamIds = new String[bams.length];
+        for (int i = 0; i < bams.length; i++)
+            bamIds[i] = CoverageCache.getInputId(bams[i], bams[i] + ".bai");
+
+        if (StringUtils.isNoneBlank(cmapRef, cmapQry, xmap))
+            omId = CoverageCache.getInputId(cmapRef, cmapQry, xmap);
+    }
+
+    /**
+     * Sets how calculated coverage is kept until it is processed, see {@link CoverageStorage}.
+     */
+    public void setCoverageStorage(CoverageStorage coverageStorage) {
+        this.coverageStorage = coverageStorage;
+    }
+
+    /**
+     * Sets optical maps index file used instead of parsing CMAP and XMAP files, see {@link BionanoIndexedCoverageCalculator}.
+     */
+    public void setOmIndex(String omIndex) {
+        this.omIndex = omIndex;
+    }
+
+    /**
+     * Sets coverage pyramids which are read instead of calculating coverage from BAM files and optical maps.
+     *
+     * @param bins minimum number of bins read for each region, non-positive value reads the finest bins
+     */
+    public void setCoveragePyramids(CoveragePyramids coveragePyramids, int bins) {
+        this.coveragePyramids = coveragePyramids;
+        this.pyramidBins = bins;
+    }
+
+    /**
+     * Sets maximum number of regions whose coverage is held in memory at the same time. Non-positive value
+     * sets default limit of 16 regions per thread.
+     */
+    public void setRegionsInFlight(int regionsInFlight) {
+        this.regionsInFlight = regionsInFlight > 0 ? regionsInFlight : threads * REGIONS_IN_FLIGHT_PER_THREAD;
+    }
+
+    /**
+     * Sets maximum total length of regions whose coverage is held in memory at the same time. Non-positive value
+     * sets default limit of 50 Mbp per thread. Coverage pyramids are read in bins, so the limit does not apply
+     * to them.
+     */
+    public void setBasesInFlight(long basesInFlight) {
+        this.basesInFlight = basesInFlight > 0 ? basesInFlight : threads * BASES_IN_FLIGHT_PER_THREAD;
+    }
+
+    /**
+     * Calculates coverage of given regions, applies function to each of them in worker threads and passes
+     * the results to consumer in calling thread in the same order as regions.
+     */
+    public <T> void process(List<ChromosomeRegion> regions, RegionFunction<T> function, RegionConsumer<T> consumer) throws Exception {
+        int chunkSize = getChunkSize(regions.size());
+        long maxBases = coveragePyramids == null ? basesInFlight : Long.MAX_VALUE;
+        long chunkBases = Math.max(1, maxBases / threads);
+        Deque<Future<List<T>>> futures = new ArrayDeque<>();
+        Deque<Long> futureBases = new ArrayDeque<>();
+        int inFlight = 0;
+        long inFlightBases = 0;
+        int next = 0;
+
+        while (next < regions.size() || !futures.isEmpty()) {
+            while (next < regions.size()) {
+                int end = getChunkEnd(regions, next, chunkSize, chunkBases);
+                long bases = getLength(regions.subList(next, end));
+
+                if (!futures.isEmpty() && (inFlight + end - next > regionsInFlight || inFlightBases + bases > maxBases))
+                    break;
+
+                List<ChromosomeRegion> chunk = regions.subList(next, end);
+                futures.add(executor.submit(() -> processChunk(chunk, function)));
+                futureBases.add(bases);
+                inFlight += chunk.size();
+                inFlightBases += bases;
+                next = end;
+            }
+
+            List<T> results = CoverageScheduler.get(futures.poll());
+            inFlight -= results.size();
+            inFlightBases -= futureBases.poll();
+
+            for (T result : results)
+                consumer.accept(result);
+        }
+    }
+
+    /**
+     * @return function which releases coverage of the region right after given function is applied, for functions
+     * which do not keep coverage, see {@link RegionCoverage#release()}
+     */
+    public static <T> RegionFunction<T> releasing(RegionFunction<T> function) {
+        return regionCoverage -> {
+            try {
+                return function.apply(regionCoverage);
+            }
+            finally {
+                regionCoverage.release();
+            }
+        };
+    }
+
+    private int getChunkSize(int regions) {
+        int chunkSize = (int) Math.ceil((double) regions / (threads * CHUNKS_PER_THREAD));
+        int maxChunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(1, regionsInFlight / threads));
+
+        return Math.max(1, Math.min(chunkSize, maxChunkSize));
+    }
+
+    /**
+     * @return index after the last region of chunk starting at given region - at most chunk size regions whose total
+     * length fits chunk bases, or just the first region when it is longer
+     */
+    private static int getChunkEnd(List<ChromosomeRegion> regions, int start, int chunkSize, long chunkBases) {
+        long bases = regions.get(start).getLength();
+        int end = start + 1;
+
+        while (end < regions.size() && end - start < chunkSize && bases + regions.get(end).getLength() <= chunkBases)
+            bases += regions.get(end++).getLength();
+
+        return end;
+    }
+
+    private static long getLength(List<ChromosomeRegion> regions) {
+        long length = 0;
+
+        for (ChromosomeRegion region : regions)
+            length += region.getLength();
+
+        return length;
+    }
+
+    private <T> List<T> processChunk(List<ChromosomeRegion> chunk, RegionFunction<T> function) throws Exception {
+        if (coveragePyramids != null) {
+            List<T> results = new ArrayList<>();
+
+            for (ChromosomeRegion region : chunk)
+                results.add(function.apply(coveragePyramids.getRegionCoverage(region, pyramidBins)));
+
+            return results;
+        }
+
+        List<Map<ChromosomeRegion, CoverageInfo>> htsCoverages = new ArrayList<>();
+        List<BamMultiRegionCoverageCalculator> workerCalculators = getWorkerCalculators();
+
+        for (int i = 0; i < bams.length; i++)
+            htsCoverages.add(coverageStorage.store(getHtsCoverages(workerCalculators.get(i), i, chunk)));
+
+        List<T> results = new ArrayList<>();
+        Set<CoverageInfo> used = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (ChromosomeRegion region : chunk) {
+            List<CoverageInfo> regionHtsCoverages = null;
+
+            if (bams.length > 0) {
+                regionHtsCoverages = new ArrayList<>();
+
+                for (int i = 0; i < bams.length; i++) {
+                    CoverageInfo coverageInfo = htsCoverages.get(i).get(region);
+
+                    // repeated region gets its own copy, so coverage of each region can be released independently
+                    if (!used.add(coverageInfo))
+                        coverageInfo = coverageStorage.copy(coverageInfo);
+
+                    CoverageInfos.setupHts(coverageInfo, bams[i], htsSamplingSize);
+                    regionHtsCoverages.add(coverageInfo);
+                }
+            }
+
+            results.add(function.apply(new RegionCoverage(region, regionHtsCoverages, getOmCoverage(region))));
+        }
+
+        return results;
+    }
+
+    private Map<ChromosomeRegion, CoverageInfo> getHtsCoverages(BamMultiRegionCoverageCalculator calculator, int bam,
+                                                                List<ChromosomeRegion> chunk) throws Exception {
+        if (coverageCache == null)
+            return calculateHtsCoverages(calculator, chunk);
+
+        Map<ChromosomeRegion, CoverageInfo> coverages = new HashMap<>();
+        List<ChromosomeRegion> missing = new ArrayList<>();
+
+        for (ChromosomeRegion region : chunk) {
+            long startTime = System.nanoTime();
+            CoverageInfo coverageInfo = coverageCache.get(CoverageCache.getHtsKey(bamIds[bam], region, mappingQuality, true));
+
+            if (coverageInfo != null) {
+                coverages.put(region, coverageInfo);
+                CoverageMetrics.record(CoverageMetrics.Phase.HTS_COVERAGE, region.toString(), startTime, region.getLength(), 0, 0);
+            }
+            else
+                missing.add(region);
+        }
+
+        if (missing.isEmpty())
+            return coverages;
+
+        for (Map.Entry<ChromosomeRegion, CoverageInfo> entry : calculateHtsCoverages(calculator, missing).entrySet()) {
+            coverageCache.put(CoverageCache.getHtsKey(bamIds[bam], entry.getKey(), mappingQuality, true), entry.getValue());
+            coverages.put(entry.getKey(), entry.getValue());
+        }
+
+        return coverages;
+    }
+
+    private Map<ChromosomeRegion, CoverageInfo> calculateHtsCoverages(BamMultiRegionCoverageCalculator calculator,
+                                                                      List<ChromosomeRegion> regions) throws Exception {
+        long startTime = System.nanoTime();
+        long readCount = calculator.getReadCount();
+
+        Map<ChromosomeRegion, CoverageInfo> coverages = calculator.getRegionsCoverage(regions);
+
+        CoverageMetrics.record(CoverageMetrics.Phase.HTS_COVERAGE, regions, startTime, calculator.getReadCount() - readCount);
+
+        return coverages;
+    }
+
+    private List<BamMultiRegionCoverageCalculator> getWorkerCalculators() throws Exception {
+        List<BamMultiRegionCoverageCalculator> workerCalculators = this.workerCalculators.get();
+
+        if (workerCalculators == null) {
+            workerCalculators = new ArrayList<>();
+
+            for (String bam : bams) {
+                BamMultiRegionCoverageCalculator calculator = new BamMultiRegionCoverageCalculator(bam, bam + ".bai");
+                calculators.add(calculator);
+                calculator.open();
+                calculator.setMappingQuality(mappingQuality);
+                calculator.setCoverageStorage(coverageStorage);
+                workerCalculators.add(calculator);
+            }
+
+            this.workerCalculators.set(workerCalculators);
+        }
+
+        return workerCalculators;
+    }
+
+    private CoverageInfo getOmCoverage(ChromosomeRegion region) throws Exception {
+        if (!StringUtils.isNoneBlank(cmapRef, cmapQry, xmap))
+            return null;
+
+        long startTime = System.nanoTime();
+        String key = coverageCache == null ? null : CoverageCache.getOmKey(omId, region, omIndex != null);
+        CoverageInfo coverageInfo = key == null ? null : coverageCache.get(key);
+
+        if (coverageInfo == null) {
+            coverageInfo = calculateOmCoverage(region);
+
+            if (key != null)
+                coverageCache.put(key, coverageInfo);
+        }
+        else
+            CoverageMetrics.record(CoverageMetrics.Phase.OM_COVERAGE, region.toString(), startTime, region.getLength(), 0, 0);
+
+        coverageInfo = coverageStorage.store(coverageInfo);
+        CoverageInfos.setupOm(coverageInfo, omSamplingSize);
+
+        return coverageInfo;
+    }
+
+    /**
+     * Optical maps calculator is shared by worker threads, time is measured once the lock is acquired, so waiting
+     * for other threads is not recorded.
+     */
+    private synchronized CoverageInfo calculateOmCoverage(ChromosomeRegion region) throws Exception {
+        long startTime = System.nanoTime();
+
+        if (omCalculator == null) {
+            log.info("Loading optical maps: " + xmap);
+            omCalculator = BionanoIndexedCoverageCalculator.create(cmapRef, cmapQry, xmap, omIndex);
+            omCalculator.open();
+        }
+
+        CoverageInfo coverageInfo = omCalculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
+        CoverageMetrics.record(CoverageMetrics.Phase.OM_COVERAGE, region.toString(), startTime, region.getLength(), 0, 0);
+
+        return coverageInfo;
+    }
+
+    @Override
+    public void close() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        for (BamMultiRegionCoverageCalculator calculator : calculators)
+            calculator.close();
+
+        if (omCalculator != null)
+            omCalculator.close();
+    }
+}
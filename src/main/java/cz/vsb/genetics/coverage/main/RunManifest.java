@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.main;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Manifest of outputs of previous runs stored in output directory. Each entry is identified by a key (output file,
+ * or output file, region and source of a statistics row) and holds fingerprint of input files and parameters the
+ * output was produced from, and optionally the output itself (e.g. statistics columns). Output is valid when its
+ * fingerprint is unchanged, so a new run processes only new or invalidated outputs.
+ *
+ * <pre>
+ * line:  key, fingerprint, value - tab separated, tabs, new lines and backslashes in key and value are escaped
+ * </pre>
+ */
+public class RunManifest {
+    private static final Logger log = LoggerFactory.getLogger(RunManifest.class);
+
+    public static final String FILE_NAME = "lorec-manifest.tsv";
+
+    private final File file;
+    private final Map<String, String[]> entries = new LinkedHashMap<>();
+    private final Set<String> used = new HashSet<>();
+
+    public RunManifest(String outputDir) {
+        this.file = new File(outputDir, FILE_NAME);
+    }
+
+    public synchronized void load() throws IOException {
+        entries.clear();
+
+        if (!file.isFile())
+            return;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split("\t", -1);
+
+                if (values.length != 3) {
+                    log.warn("Invalid manifest line: " + line);
+                    continue;
+                }
+
+                entries.put(unescape(values[0]), new String[] {values[1], unescape(values[2])});
+            }
+        }
+
+        log.info(String.format("Manifest loaded: %s (%d outputs)", file, entries.size()));
+    }
+
+    /**
+     * @return SHA-1 of given parts, e.g. {@link CoverageCache#getInputId(String...)} of input files and parameters
+     */
+    public static String getFingerprint(Object... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+        for (Object part : parts)
+            digest.update((part + "|").getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(String.format("%02x", b));
+
+        return hex.toString();
+    }
+
+    /**
+     * @return value of valid output of given key, or null when there is no output with given fingerprint
+     */
+    public synchronized String get(String key, String fingerprint) {
+        String[] entry = entries.get(key);
+
+        if (entry == null || !entry[0].equals(fingerprint))
+            return null;
+
+        used.add(key);
+
+        return entry[1];
+    }
+
+    public synchronized void put(String key, String fingerprint, String value) {
+        entries.put(key, new String[] {fingerprint, value});
+        used.add(key);
+    }
+
+    /**
+     * Removes entries with given key prefix which were not read or written since the manifest was loaded, e.g.
+     * statistics rows of regions removed from region file.
+     */
+    public synchronized void removeUnused(String prefix) {
+        entries.keySet().removeIf(key -> key.startsWith(prefix) && !used.contains(key));
+    }
+
+    /**
+     * Writes manifest into temporary file first and replaces the manifest by atomic move, so interrupted run leaves
+     * either the previous or the new manifest.
+     */
+    public synchronized void write() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String[]> entry : entries.entrySet())
+                writer.write(escape(entry.getKey()) + "\t" + entry.getValue()[0] + "\t" + escape(entry.getValue()[1]) + "\n");
+        }
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder unescaped = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                unescaped.append(c == 't' ? '\t' : c == 'n' ? '\n' : c);
+            }
+            else
+                unescaped.append(c);
+        }
+
+        return unescaped.toString();
+    }
+}
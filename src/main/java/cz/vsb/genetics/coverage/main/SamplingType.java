@@ -23,7 +23,8 @@ public enum SamplingType {
     NONE,
     RANDOM,
     MEAN,
-    MEDIAN
+    MEDIAN,
+    ENVELOPE
 
     ;
 
@@ -38,6 +39,7 @@ public enum SamplingType {
             case "random" : return RANDOM;
             case "mean" : return MEAN;
             case "median" : return MEDIAN;
+            case "envelope" : return ENVELOPE;
             default: return RANDOM;
         }
     }
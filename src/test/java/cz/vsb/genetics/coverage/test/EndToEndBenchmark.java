@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.main.LoReCCoverage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * End-to-end throughput of LoReCCoverage on synthetic data - BAM and Bionano files are generated into work directory
+ * (once, reused by later runs) and --region, --region_file and --statistics runs are timed at given thread counts.
+ * Every run is a separate JVM, so reported time includes JVM start and peak RSS (VmHWM, Linux only) is per run.
+ *
+ * <pre>
+ * usage: EndToEndBenchmark [work_dir] [thread counts separated by comma]
+ * </pre>
+ */
+public class EndToEndBenchmark {
+    private static final String RUN = "--run";
+    private static final String PEAK_RSS = "PEAK_RSS_KB";
+    private static final int CONTIG_LENGTH = 10000000;
+    private static final int REGION_LENGTH = 50000;
+    private static final int REGION_STEP = 100000;
+
+    private final File workDir;
+    private final Map<Chromosome, Integer> contigs = new LinkedHashMap<>();
+    private final String bam;
+    private final String cmapRef;
+    private final String cmapQry;
+    private final String xmap;
+    private final String regionFile;
+    private final List<ChromosomeRegion> regions = new ArrayList<>();
+
+    public EndToEndBenchmark(String workDir) {
+        this.workDir = new File(workDir);
+        this.bam = new File(workDir, "synthetic.bam").getPath();
+        this.cmapRef = new File(workDir, "synthetic_r.cmap").getPath();
+        this.cmapQry = new File(workDir, "synthetic_q.cmap").getPath();
+        this.xmap = new File(workDir, "synthetic.xmap").getPath();
+        this.regionFile = new File(workDir, "regions.txt").getPath();
+
+        contigs.put(Chromosome.chr21, CONTIG_LENGTH);
+        contigs.put(Chromosome.chr22, CONTIG_LENGTH);
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (args.length > 0 && args[0].equals(RUN)) {
+                run(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
+
+            String workDir = args.length > 0 ? args[0] : "target/end-to-end";
+            String threads = args.length > 1 ? args[1] : "1,2,4";
+
+            EndToEndBenchmark benchmark = new EndToEndBenchmark(workDir);
+            benchmark.generateData();
+            benchmark.benchmark(Arrays.stream(threads.split(",")).mapToInt(value -> Integer.parseInt(value.trim())).toArray());
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage() + "\n");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs LoReCCoverage in this (child) JVM and prints its peak resident set size.
+     */
+    private static void run(String[] args) throws IOException {
+        LoReCCoverage.main(args);
+
+        System.out.println(PEAK_RSS + "\t" + getPeakRss());
+    }
+
+    public void generateData() throws IOException {
+        if (!workDir.isDirectory() && !workDir.mkdirs())
+            throw new IOException("Cannot create work directory: " + workDir);
+
+        if (!new File(bam + ".bai").exists()) {
+            System.out.println("Generating synthetic BAM: " + bam);
+
+            SyntheticBamGenerator bamGenerator = new SyntheticBamGenerator();
+            bamGenerator.setDepth(30);
+            bamGenerator.setReadLength(150);
+            bamGenerator.setMappingQualities(60, 60, 60, 60, 30, 0);
+            bamGenerator.write(bam, contigs);
+        }
+
+        if (!new File(xmap).exists()) {
+            System.out.println("Generating synthetic optical maps: " + xmap);
+            new SyntheticBionanoGenerator().write(cmapRef, cmapQry, xmap, contigs);
+        }
+
+        try (PrintWriter writer = new PrintWriter(regionFile)) {
+            for (Map.Entry<Chromosome, Integer> contig : contigs.entrySet()) {
+                for (int start = 1; start + REGION_LENGTH - 1 <= contig.getValue(); start += REGION_STEP) {
+                    String region = contig.getKey().name() + ":" + start + "-" + (start + REGION_LENGTH - 1);
+
+                    regions.add(ChromosomeRegion.valueOf(region));
+                    writer.println("region" + regions.size() + "\t" + region);
+                }
+            }
+        }
+    }
+
+    public void benchmark(int[] threadCounts) throws Exception {
+        File outputDir = new File(workDir, "output");
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new IOException("Cannot create output directory: " + outputDir);
+
+        String region = Chromosome.chr21.name() + ":1-" + CONTIG_LENGTH;
+        long regionFileBases = regions.stream().mapToLong(ChromosomeRegion::getLength).sum();
+
+        List<String> results = new ArrayList<>();
+        results.add("scenario\tthreads\tregions\tbases\tseconds\tregions/sec\tbases/sec\tpeak RSS (MB)");
+        System.out.println(results.get(0));
+
+        for (int threads : threadCounts) {
+            List<String> common = Arrays.asList("-bam", bam, "-cmap_r", cmapRef, "-cmap_q", cmapQry, "-xmap", xmap,
+                    "-t", String.valueOf(threads));
+
+            results.add(measure("region", threads, 1, CONTIG_LENGTH, common, "-r", region,
+                    "-img_hts", new File(outputDir, "region_hts.png").getPath(),
+                    "-img_om", new File(outputDir, "region_om.png").getPath()));
+            results.add(measure("region_file", threads, regions.size(), regionFileBases, common, "-rf", regionFile,
+                    "-od", outputDir.getPath()));
+            results.add(measure("statistics", threads, regions.size(), regionFileBases, common, "-rf", regionFile,
+                    "-stats", new File(outputDir, "statistics.tsv").getPath()));
+        }
+
+        File resultFile = new File(workDir, "end-to-end.tsv");
+        Files.write(resultFile.toPath(), results, StandardCharsets.UTF_8);
+        System.out.println("Results written to: " + resultFile);
+    }
+
+    private String measure(String scenario, int threads, int regionCount, long bases, List<String> common, String... args) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), EndToEndBenchmark.class.getName(), RUN));
+        command.addAll(common);
+        command.addAll(Arrays.asList(args));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long start = System.nanoTime();
+        long peakRss = -1;
+        Deque<String> lastLines = new ArrayDeque<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(PEAK_RSS))
+                    peakRss = Long.parseLong(line.substring(PEAK_RSS.length()).trim());
+
+                lastLines.addLast(line);
+                if (lastLines.size() > 20)
+                    lastLines.removeFirst();
+            }
+        }
+
+        int exitCode = process.waitFor();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (exitCode != 0) {
+            lastLines.forEach(System.out::println);
+            throw new IOException("Run failed (" + scenario + ", " + threads + " threads), exit code: " + exitCode);
+        }
+
+        String result = String.format(Locale.ROOT, "%s\t%d\t%d\t%d\t%.2f\t%.1f\t%.0f\t%s", scenario, threads, regionCount,
+                bases, seconds, regionCount / seconds, bases / seconds, peakRss < 0 ? "n/a" : String.valueOf(peakRss / 1024));
+        System.out.println(result);
+
+        return result;
+    }
+
+    /**
+     * @return peak resident set size of this process in kB, -1 if not available (non Linux systems)
+     */
+    private static long getPeakRss() {
+        File status = new File("/proc/self/status");
+
+        if (!status.exists())
+            return -1;
+
+        try {
+            for (String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8))
+                if (line.startsWith("VmHWM:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+        catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.common.Chromosome;
+import htsjdk.samtools.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes coordinate sorted BAM file with BAI index (bam + ".bai") of randomly placed reads, so coverage of real
+ * data can be simulated without sharing them. Mapping qualities are drawn uniformly from given values, so their
+ * distribution is set by repeating values (e.g. 60, 60, 60, 0 for a quarter of reads with zero quality).
+ * Optionally reads are given soft clips, insertions and deletions, or are flagged as duplicate, secondary,
+ * supplementary or QC failed, so filtering and CIGAR handling of coverage calculators can be compared.
+ */
+public class SyntheticBamGenerator {
+    private int depth = 30;
+    private int readLength = 150;
+    private int[] mappingQualities = {60};
+    private long seed = 1;
+    private double indelRate = 0;
+    private double flaggedRate = 0;
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public void setReadLength(int readLength) {
+        this.readLength = readLength;
+    }
+
+    public void setMappingQualities(int... mappingQualities) {
+        this.mappingQualities = mappingQualities;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param indelRate fraction of reads with soft clip, insertion and deletion in their CIGAR
+     */
+    public void setIndelRate(double indelRate) {
+        this.indelRate = indelRate;
+    }
+
+    /**
+     * @param flaggedRate fraction of reads flagged as duplicate, secondary, supplementary or QC failed
+     */
+    public void setFlaggedRate(double flaggedRate) {
+        this.flaggedRate = flaggedRate;
+    }
+
+    /**
+     * @param contigs chromosomes and their lengths in output order
+     * @return number of written reads
+     */
+    public long write(String bamFile, Map<Chromosome, Integer> contigs) throws IOException {
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        for (Map.Entry<Chromosome, Integer> contig : contigs.entrySet())
+            header.addSequence(new SAMSequenceRecord(contig.getKey().name(), contig.getValue()));
+
+        Random random = new Random(seed);
+        File file = new File(bamFile);
+        long reads = 0;
+
+        try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, file)) {
+            for (Map.Entry<Chromosome, Integer> contig : contigs.entrySet()) {
+                int[] starts = getReadStarts(random, contig.getValue());
+
+                for (int start : starts)
+                    writer.addAlignment(createRead(header, random, contig.getKey(), start, reads++));
+            }
+        }
+
+        moveIndex(file);
+
+        return reads;
+    }
+
+    private int[] getReadStarts(Random random, int contigLength) {
+        int maxStart = Math.max(1, contigLength - readLength + 1);
+        int[] starts = new int[(int) ((long) depth * contigLength / readLength)];
+
+        for (int i = 0; i < starts.length; i++)
+            starts[i] = 1 + random.nextInt(maxStart);
+
+        Arrays.sort(starts);
+
+        return starts;
+    }
+
+    private SAMRecord createRead(SAMFileHeader header, Random random, Chromosome chromosome, int start, long index) {
+        SAMRecord read = new SAMRecord(header);
+        read.setReadName("read" + index);
+        read.setReferenceName(chromosome.name());
+        read.setAlignmentStart(start);
+        read.setCigarString(getCigar(random));
+        read.setMappingQuality(mappingQualities[random.nextInt(mappingQualities.length)]);
+        read.setReadNegativeStrandFlag(random.nextBoolean());
+
+        if (flaggedRate > 0 && random.nextDouble() < flaggedRate)
+            setFlag(read, random.nextInt(4));
+        read.setReadBases(SAMRecord.NULL_SEQUENCE);
+        read.setBaseQualities(SAMRecord.NULL_QUALS);
+
+        return read;
+    }
+
+    /**
+     * Random values are drawn only when indels are enabled, so reads of default generator do not change.
+     */
+    private String getCigar(Random random) {
+        if (indelRate <= 0 || readLength < 10 || random.nextDouble() >= indelRate)
+            return readLength + "M";
+
+        int clip = 1 + random.nextInt(readLength / 10);
+        int insertion = 1 + random.nextInt(readLength / 10);
+        int deletion = 1 + random.nextInt(50);
+        int first = (readLength - clip - insertion) / 2;
+        int second = readLength - clip - insertion - first;
+
+        return clip + "S" + first + "M" + deletion + "D" + insertion + "I" + second + "M";
+    }
+
+    private static void setFlag(SAMRecord read, int flag) {
+        switch (flag) {
+            case 0: read.setDuplicateReadFlag(true); break;
+            case 1: read.setSecondaryAlignment(true); break;
+            case 2: read.setSupplementaryAlignmentFlag(true); break;
+            default: read.setReadFailsVendorQualityCheckFlag(true); break;
+        }
+    }
+
+    /**
+     * htsjdk names index file.bai, LoReC expects file.bam.bai.
+     */
+    private static void moveIndex(File bamFile) throws IOException {
+        String bam = bamFile.getPath();
+        File index = new File(bam.endsWith(".bam") ? bam.substring(0, bam.length() - 4) + ".bai" : bam + ".bai");
+        File target = new File(bam + ".bai");
+
+        if (index.equals(target))
+            return;
+
+        if (target.exists() && !target.delete() || !index.renameTo(target))
+            throw new IOException("Cannot move BAM index: " + index);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.common.Chromosome;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes Bionano reference CMAP, query CMAP and XMAP files - reference labels are placed at random spacing and
+ * query molecules are aligned to randomly placed reference intervals, each molecule ends at reference labels.
+ * Chromosomes are numbered as in Bionano reference (1 - 22, 23 for X, 24 for Y).
+ */
+public class SyntheticBionanoGenerator {
+    private int depth = 60;
+    private int moleculeLength = 250000;
+    private int labelSpacing = 10000;
+    private long seed = 1;
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public void setMoleculeLength(int moleculeLength) {
+        this.moleculeLength = moleculeLength;
+    }
+
+    public void setLabelSpacing(int labelSpacing) {
+        this.labelSpacing = labelSpacing;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param contigs chromosomes and their lengths, chromosome M is skipped
+     * @return number of written alignments
+     */
+    public int write(String cmapRef, String cmapQry, String xmap, Map<Chromosome, Integer> contigs) throws IOException {
+        Random random = new Random(seed);
+        int alignments = 0;
+
+        try (PrintWriter refWriter = new PrintWriter(cmapRef);
+             PrintWriter qryWriter = new PrintWriter(cmapQry);
+             PrintWriter xmapWriter = new PrintWriter(xmap)) {
+            writeCmapHeader(refWriter);
+            writeCmapHeader(qryWriter);
+            writeXmapHeader(xmapWriter, cmapRef, cmapQry);
+
+            for (Map.Entry<Chromosome, Integer> contig : contigs.entrySet()) {
+                int refId = getContigId(contig.getKey());
+
+                if (refId < 0)
+                    continue;
+
+                int length = contig.getValue();
+                int[] labels = getLabels(random, length);
+                writeContig(refWriter, refId, length, labels, 0, labels.length, 0);
+
+                int molecules = (int) ((long) depth * length / moleculeLength);
+
+                for (int i = 0; i < molecules && labels.length > 1; i++) {
+                    int first = random.nextInt(labels.length - 1);
+                    int last = first + 1;
+
+                    while (last + 1 < labels.length && labels[last + 1] - labels[first] <= moleculeLength)
+                        last++;
+
+                    int qryId = ++alignments;
+                    int qryLength = labels[last] - labels[first] + 1;
+
+                    writeContig(qryWriter, qryId, qryLength, labels, first, last + 1, labels[first] - 1);
+                    writeAlignment(xmapWriter, qryId, refId, length, labels, first, last, qryLength);
+                }
+            }
+        }
+
+        return alignments;
+    }
+
+    private int[] getLabels(Random random, int length) {
+        List<Integer> labels = new ArrayList<>();
+
+        for (int position = 1 + random.nextInt(labelSpacing); position <= length; position += 1 + random.nextInt(labelSpacing * 2))
+            labels.add(position);
+
+        return labels.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void writeCmapHeader(PrintWriter writer) {
+        writer.println("# CMAP File Version:\t0.2");
+        writer.println("# Label Channels:\t1");
+        writer.println("#h CMapId\tContigLength\tNumSites\tSiteID\tLabelChannel\tPosition\tStdDev\tCoverage\tOccurrence");
+        writer.println("#f int\tfloat\tint\tint\tint\tfloat\tfloat\tint\tint");
+    }
+
+    private static void writeXmapHeader(PrintWriter writer, String cmapRef, String cmapQry) {
+        writer.println("# XMAP File Version:\t0.2");
+        writer.println("# Label Channels:\t1");
+        writer.println("# Reference Maps From:\t" + cmapRef);
+        writer.println("# Query Maps From:\t" + cmapQry);
+        writer.println("#h XmapEntryID\tQryContigID\tRefContigID\tQryStartPos\tQryEndPos\tRefStartPos\tRefEndPos\tOrientation\tConfidence\tHitEnum\tQryLen\tRefLen\tLabelChannel\tAlignment");
+        writer.println("#f int\tint\tint\tfloat\tfloat\tfloat\tfloat\tstring\tfloat\tstring\tfloat\tfloat\tint\tstring");
+    }
+
+    /**
+     * Writes labels [from, to) shifted by offset, followed by end of contig line (label channel 0).
+     */
+    private static void writeContig(PrintWriter writer, int id, int length, int[] labels, int from, int to, int offset) {
+        int sites = to - from;
+
+        for (int i = from; i < to; i++)
+            writer.printf(Locale.ROOT, "%d\t%.1f\t%d\t%d\t1\t%.1f\t1.0\t1\t1%n", id, (double) length, sites, i - from + 1, (double) (labels[i] - offset));
+
+        writer.printf(Locale.ROOT, "%d\t%.1f\t%d\t%d\t0\t%.1f\t0.0\t1\t0%n", id, (double) length, sites, sites + 1, (double) length);
+    }
+
+    private static void writeAlignment(PrintWriter writer, int qryId, int refId, int refLength, int[] labels, int first, int last, int qryLength) {
+        StringBuilder alignment = new StringBuilder();
+
+        for (int i = first; i <= last; i++)
+            alignment.append('(').append(i + 1).append(',').append(i - first + 1).append(')');
+
+        writer.printf(Locale.ROOT, "%d\t%d\t%d\t%.1f\t%.1f\t%.1f\t%.1f\t+\t20.0\t%dM\t%.1f\t%.1f\t1\t%s%n", qryId, qryId, refId,
+                1.0, (double) qryLength, (double) labels[first], (double) labels[last], last - first + 1,
+                (double) qryLength, (double) refLength, alignment);
+    }
+
+    /**
+     * @return Bionano reference contig id, -1 for chromosomes not present in Bionano reference
+     */
+    static int getContigId(Chromosome chromosome) {
+        switch (chromosome) {
+            case chrX: return 23;
+            case chrY: return 24;
+            case chrM: return -1;
+            default: return Integer.parseInt(chromosome.name().substring(3));
+        }
+    }
+}
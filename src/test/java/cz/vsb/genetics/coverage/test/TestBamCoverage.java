@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.coverage.main.BamMultiRegionCoverageCalculator;
+import cz.vsb.genetics.coverage.main.CoverageStorage;
+import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorMT;
+import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorST;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compares coverage of {@link BamMultiRegionCoverageCalculator} with library calculators on synthetic BAM with
+ * soft clips, insertions, deletions and duplicate, secondary, supplementary and QC failed reads. Regions are
+ * random, not aligned to anything and partly overlapping. Multi-region coverage is accumulated in every
+ * {@link CoverageStorage}.
+ */
+public class TestBamCoverage {
+    private static final String WORK_DIR = "./target/test-coverage";
+    private static final String BAM_FILE = WORK_DIR + "/synthetic.indels.bam";
+    private static final String BAM_INDEX_FILE = BAM_FILE + ".bai";
+
+    public static void main(String[] args) {
+        try {
+            Chromosome chromosome = Chromosome.chr21;
+            int length = 2000000;
+
+            generateData(chromosome, length);
+
+            List<ChromosomeRegion> regions = getRandomRegions(chromosome, length, 200, 50000);
+
+            Map<String, CoverageStorage> storages = new LinkedHashMap<>();
+            storages.put("heap", CoverageStorage.HEAP);
+            storages.put("compact", CoverageStorage.of(true, null));
+            storages.put("direct", CoverageStorage.of(false, "direct"));
+            storages.put("mapped compact", CoverageStorage.of(true, WORK_DIR + "/tmp"));
+
+            for (int mappingQuality : new int[] {0, 30}) {
+                for (Map.Entry<String, CoverageStorage> storage : storages.entrySet())
+                    testMultiRegionCoverage(new BamCoverageCalculatorST(BAM_FILE, BAM_INDEX_FILE), "ST", regions, mappingQuality,
+                            storage.getKey(), storage.getValue());
+
+                testMultiRegionCoverage(new BamCoverageCalculatorMT(BAM_FILE, BAM_INDEX_FILE, 4), "MT", regions, mappingQuality,
+                        "heap", CoverageStorage.HEAP);
+            }
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage() + "\n");
+            e.printStackTrace();
+        }
+    }
+
+    public static void generateData(Chromosome chromosome, int length) throws Exception {
+        if (!new File(WORK_DIR).isDirectory() && !new File(WORK_DIR).mkdirs())
+            throw new IOException("Cannot create directory: " + WORK_DIR);
+
+        if (new File(BAM_INDEX_FILE).exists())
+            return;
+
+        SyntheticBamGenerator generator = new SyntheticBamGenerator();
+        generator.setMappingQualities(60, 60, 20, 0);
+        generator.setIndelRate(0.3);
+        generator.setFlaggedRate(0.1);
+        generator.write(BAM_FILE, Collections.singletonMap(chromosome, length));
+    }
+
+    public static List<ChromosomeRegion> getRandomRegions(Chromosome chromosome, int length, int count, int maxLength) {
+        Random random = new Random(1);
+        List<ChromosomeRegion> regions = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            int start = 1 + random.nextInt(length);
+            int end = Math.min(length, start + random.nextInt(maxLength));
+            regions.add(new ChromosomeRegion(chromosome, start, end));
+        }
+
+        return regions;
+    }
+
+    public static void testMultiRegionCoverage(CoverageCalculator coverageCalculator, String name, List<ChromosomeRegion> regions,
+                                               int mappingQuality, String storageName, CoverageStorage storage) throws Exception {
+        System.out.println("\nComparing multi-region bam coverage with " + name + " calculator, mapping quality " + mappingQuality
+                + ", " + storageName + " storage.");
+
+        Map<ChromosomeRegion, CoverageInfo> coverages;
+
+        try (BamMultiRegionCoverageCalculator calculator = new BamMultiRegionCoverageCalculator(BAM_FILE, BAM_INDEX_FILE)) {
+            calculator.setMappingQuality(mappingQuality);
+            calculator.setCoverageStorage(storage);
+            calculator.open();
+            coverages = calculator.getRegionsCoverage(regions);
+        }
+
+        long positions = 0;
+
+        try {
+            coverageCalculator.setMappingQuality(mappingQuality);
+            coverageCalculator.open();
+
+            for (ChromosomeRegion region : regions) {
+                CoverageInfo expected = coverageCalculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
+                compare(region, expected.getCoverages(), coverages.get(region).getCoverages());
+                positions += region.getLength();
+            }
+        }
+        finally {
+            coverageCalculator.close();
+            coverages.values().forEach(CoverageStorage::release);
+        }
+
+        System.out.println("Regions: " + regions.size() + ", positions: " + positions + " - equal.");
+    }
+
+    private static void compare(ChromosomeRegion region, int[] expected, int[] actual) {
+        if (expected.length != actual.length)
+            throw new IllegalStateException("Coverage length differs at " + region + ": " + expected.length + " != " + actual.length);
+
+        for (int i = 0; i < expected.length; i++)
+            if (expected[i] != actual[i])
+                throw new IllegalStateException("Coverage differs at " + region.getChromosome() + ":" + (region.getStart() + i)
+                        + ": " + expected[i] + " != " + actual[i]);
+    }
+}
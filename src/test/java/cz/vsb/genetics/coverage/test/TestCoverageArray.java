@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.coverage.main.CoverageArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compares values of every {@link CoverageArray} storage type (int, short, byte, run-length, direct and memory
+ * mapped buffers) and of their slices with the source coverage array, reading them sequentially and randomly.
+ */
+public class TestCoverageArray {
+    private static final String TEMP_DIR = "./target/test-coverage/tmp";
+
+    public static void main(String[] args) {
+        try {
+            if (!new File(TEMP_DIR).isDirectory() && !new File(TEMP_DIR).mkdirs())
+                throw new IOException("Cannot create directory: " + TEMP_DIR);
+
+            testStorageTypes(new Random(1));
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage() + "\n");
+            e.printStackTrace();
+        }
+    }
+
+    public static void testStorageTypes(Random random) throws Exception {
+        System.out.println("\nComparing coverage arrays with source coverage.");
+
+        Map<String, int[]> sources = new LinkedHashMap<>();
+        sources.put("empty", new int[0]);
+        sources.put("single", new int[] {42});
+        sources.put("byte", getRandom(random, 100000, 0, 0xFF));
+        sources.put("short", getRandom(random, 100000, 0, 0xFFFF));
+        sources.put("int", getRandom(random, 100000, 0, Integer.MAX_VALUE));
+        sources.put("negative", getRandom(random, 100000, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        sources.put("runs", getRuns(random, 1000000, 2000, 100));
+        sources.put("runs short", getRuns(random, 1000000, 2000, 0xFFFF));
+        sources.put("runs negative", getRuns(random, 1000000, 2000, -1));
+        sources.put("run", new int[500000]);
+
+        Set<String> types = new TreeSet<>();
+        int arrays = 0;
+
+        for (Map.Entry<String, int[]> source : sources.entrySet()) {
+            for (boolean runLength : new boolean[] {false, true}) {
+                for (String storage : new String[] {"heap", "direct", "mapped"}) {
+                    CoverageArray coverageArray = CoverageArray.create(source.getValue(), runLength, !storage.equals("heap"),
+                            storage.equals("mapped") ? new File(TEMP_DIR) : null);
+                    String name = source.getKey() + " " + storage + (runLength ? " run-length" : "");
+
+                    types.add(coverageArray.getClass().getSimpleName());
+                    types.add(coverageArray.slice(0, 0).getClass().getSimpleName());
+                    compare(name, source.getValue(), coverageArray, random);
+                    compareSlices(name, source.getValue(), coverageArray, random);
+                    checkRelease(name, coverageArray);
+                    arrays++;
+                }
+            }
+        }
+
+        for (String type : new String[] {"IntArray", "ShortArray", "ByteArray", "RunLengthArray", "BufferArray", "SliceArray"})
+            if (!types.contains(type))
+                throw new IllegalStateException("Storage type not tested: " + type);
+
+        System.out.println("Arrays: " + arrays + ", storage types: " + types + " - equal.");
+    }
+
+    /**
+     * Released off-heap array (the only one without heap bytes) must fail on read instead of reading freed memory,
+     * arrays on heap are not affected.
+     */
+    private static void checkRelease(String name, CoverageArray coverageArray) {
+        boolean offHeap = coverageArray.getSize() == 0;
+
+        coverageArray.release();
+        coverageArray.release();
+
+        if (coverageArray.length() == 0)
+            return;
+
+        try {
+            coverageArray.get(0);
+
+            if (offHeap)
+                throw new IllegalStateException("Released array is readable: " + name);
+        }
+        catch (NullPointerException e) {
+            if (!offHeap)
+                throw new IllegalStateException("Array on heap is not readable after release: " + name);
+        }
+    }
+
+    private static void compareSlices(String name, int[] source, CoverageArray coverageArray, Random random) {
+        for (int i = 0; i < 20; i++) {
+            int from = random.nextInt(source.length + 1);
+            int length = random.nextInt(source.length - from + 1);
+            CoverageArray slice = coverageArray.slice(from, length);
+
+            compare(name + " slice " + from + "+" + length, Arrays.copyOfRange(source, from, from + length), slice, random);
+
+            int nestedFrom = random.nextInt(length + 1);
+            int nestedLength = random.nextInt(length - nestedFrom + 1);
+            compare(name + " nested slice", Arrays.copyOfRange(source, from + nestedFrom, from + nestedFrom + nestedLength),
+                    slice.slice(nestedFrom, nestedLength), random);
+        }
+
+        try {
+            coverageArray.slice(source.length, 1);
+            throw new IllegalStateException("Slice out of bounds accepted: " + name);
+        }
+        catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    private static void compare(String name, int[] expected, CoverageArray actual, Random random) {
+        if (actual.length() != expected.length)
+            throw new IllegalStateException("Length differs for " + name + ": " + expected.length + " != " + actual.length());
+
+        if (!Arrays.equals(expected, actual.toArray()))
+            throw new IllegalStateException("Values differ for " + name);
+
+        for (int i = 0; i < expected.length; i++)
+            if (actual.get(i) != expected[i])
+                throw new IllegalStateException("Value differs for " + name + " at " + i + ": " + expected[i] + " != " + actual.get(i));
+
+        for (int i = 0; i < Math.min(expected.length, 10000); i++) {
+            int index = random.nextInt(expected.length);
+
+            if (actual.get(index) != expected[index])
+                throw new IllegalStateException("Value differs for " + name + " at " + index + ": " + expected[index] + " != " + actual.get(index));
+        }
+    }
+
+    private static int[] getRandom(Random random, int length, int min, int max) {
+        int[] coverages = new int[length];
+
+        for (int i = 0; i < length; i++)
+            coverages[i] = (int) (min + (long) (random.nextDouble() * ((long) max - min + 1)));
+
+        coverages[random.nextInt(length)] = max;
+
+        return coverages;
+    }
+
+    /**
+     * @param maxDepth maximum depth of runs, negative for runs of any int value
+     */
+    private static int[] getRuns(Random random, int length, int maxRun, int maxDepth) {
+        int[] coverages = new int[length];
+
+        for (int i = 0; i < length; ) {
+            int run = Math.min(length - i, 1 + random.nextInt(maxRun));
+            Arrays.fill(coverages, i, i + run, maxDepth < 0 ? random.nextInt() : random.nextInt(maxDepth + 1));
+            i += run;
+        }
+
+        return coverages;
+    }
+}
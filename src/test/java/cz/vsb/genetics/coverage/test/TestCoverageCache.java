@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.coverage.main.CoverageCache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+/**
+ * Writes coverage to {@link CoverageCache} and reads it back - random, negative and extreme values, empty array,
+ * truncated entry - and checks cache keys of different calculation parameters differ.
+ */
+public class TestCoverageCache {
+    private static final String CACHE_DIR = "./target/test-coverage/cache";
+
+    public static void main(String[] args) {
+        try {
+            testRoundTrip();
+            testTruncatedEntry();
+            testKeys();
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage() + "\n");
+            e.printStackTrace();
+        }
+    }
+
+    public static void testRoundTrip() throws Exception {
+        System.out.println("\nTesting coverage cache write/read round trip.");
+
+        CoverageCache cache = new CoverageCache(CACHE_DIR, Long.MAX_VALUE);
+        Random random = new Random(1);
+        Map<String, int[]> arrays = new LinkedHashMap<>();
+
+        arrays.put("empty", new int[0]);
+        arrays.put("extremes", new int[] {Integer.MAX_VALUE, Integer.MIN_VALUE, 0, Integer.MIN_VALUE, Integer.MAX_VALUE, -1, 1});
+
+        for (int i = 0; i < 10; i++) {
+            int[] coverages = new int[1 + random.nextInt(2000000)];
+            int bound = i < 5 ? 100 : Integer.MAX_VALUE;
+
+            for (int j = 0; j < coverages.length; j++)
+                coverages[j] = i % 2 == 0 ? random.nextInt(bound) : random.nextInt(bound) - bound / 2;
+
+            arrays.put("random " + i, coverages);
+        }
+
+        for (Map.Entry<String, int[]> entry : arrays.entrySet()) {
+            int[] coverages = entry.getValue();
+            CoverageInfo coverageInfo = new CoverageInfo();
+            coverageInfo.setPositionStart(1000);
+            coverageInfo.setPositionEnd(1000 + coverages.length - 1);
+            coverageInfo.setSiteCount(coverages.length % 97);
+            coverageInfo.setCoverages(coverages);
+
+            String key = "test-" + entry.getKey().replace(' ', '-');
+            cache.put(key, coverageInfo);
+            CoverageInfo cached = cache.get(key);
+
+            if (cached == null)
+                throw new IllegalStateException("Coverage not cached: " + entry.getKey());
+
+            if (cached.getPositionStart() != coverageInfo.getPositionStart() || cached.getPositionEnd() != coverageInfo.getPositionEnd()
+                    || cached.getSiteCount() != coverageInfo.getSiteCount())
+                throw new IllegalStateException("Cached region differs: " + entry.getKey());
+
+            if (!Arrays.equals(coverages, cached.getCoverages()))
+                throw new IllegalStateException("Cached coverage differs: " + entry.getKey());
+        }
+
+        System.out.println("Arrays: " + arrays.size() + " - equal.");
+    }
+
+    public static void testTruncatedEntry() throws Exception {
+        System.out.println("\nTesting truncated coverage cache entry.");
+
+        CoverageCache cache = new CoverageCache(CACHE_DIR, Long.MAX_VALUE);
+        int[] coverages = new int[100000];
+        Arrays.fill(coverages, 30);
+        coverages[500] = 1000000;
+
+        CoverageInfo coverageInfo = new CoverageInfo();
+        coverageInfo.setPositionStart(1);
+        coverageInfo.setPositionEnd(coverages.length);
+        coverageInfo.setCoverages(coverages);
+        cache.put("test-truncated", coverageInfo);
+
+        File file = new File(CACHE_DIR, "test-truncated.cov");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        if (cache.get("test-truncated") != null)
+            throw new IllegalStateException("Truncated cache entry served");
+
+        System.out.println("Truncated entry ignored.");
+    }
+
+    public static void testKeys() throws Exception {
+        System.out.println("\nTesting coverage cache keys.");
+
+        ChromosomeRegion region = new ChromosomeRegion(Chromosome.chr21, 1000, 2000);
+        String inputId = "input|1|1|";
+        Set<String> keys = new HashSet<>(Arrays.asList(
+                CoverageCache.getHtsKey(inputId, region, 0, false),
+                CoverageCache.getHtsKey(inputId, region, 0, true),
+                CoverageCache.getHtsKey(inputId, region, 30, false),
+                CoverageCache.getHtsKey(inputId, new ChromosomeRegion(Chromosome.chr21, 1000, 2001), 0, false),
+                CoverageCache.getHtsKey("input|1|2|", region, 0, false),
+                CoverageCache.getOmKey(inputId, region, false),
+                CoverageCache.getOmKey(inputId, region, true)));
+
+        if (keys.size() != 7)
+            throw new IllegalStateException("Cache keys of different parameters collide");
+
+        System.out.println("Keys: " + keys.size() + " - distinct.");
+    }
+}
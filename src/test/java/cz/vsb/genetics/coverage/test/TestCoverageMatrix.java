@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.main.CoverageMatrix;
+import cz.vsb.genetics.coverage.main.CoverageMatrixWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Writes random statistics values (including NaN, infinities and negative zero) with {@link CoverageMatrixWriter}
+ * and reads them back with {@link CoverageMatrix} - whole columns, single values and random region ranges around
+ * chunk boundaries, for region counts with full, partial and no chunks.
+ */
+public class TestCoverageMatrix {
+    private static final String WORK_DIR = "./target/test-coverage";
+    private static final String MATRIX_FILE = WORK_DIR + "/test.mx";
+    private static final int CHUNK_REGIONS = 4096;
+
+    public static void main(String[] args) {
+        try {
+            if (!new File(WORK_DIR).isDirectory() && !new File(WORK_DIR).mkdirs())
+                throw new IOException("Cannot create directory: " + WORK_DIR);
+
+            testRoundTrip(new Random(1));
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage() + "\n");
+            e.printStackTrace();
+        }
+    }
+
+    public static void testRoundTrip(Random random) throws Exception {
+        System.out.println("\nTesting statistics matrix write/read round trip.");
+
+        String[] metrics = {"mean", "median", "breadth_10", "breadth_20"};
+        String[] columns = {"S1:om", "S1:hts", "S2:hts"};
+        int ranges = 0;
+
+        for (int regionCount : new int[] {0, 1, CHUNK_REGIONS - 1, CHUNK_REGIONS, 2 * CHUNK_REGIONS + 123}) {
+            List<ChromosomeRegion> regions = getRegions(regionCount);
+            float[][][] values = new float[columns.length][metrics.length][];
+
+            try (CoverageMatrixWriter writer = new CoverageMatrixWriter(MATRIX_FILE, regions, metrics)) {
+                for (int column = 0; column < columns.length; column++) {
+                    for (int metric = 0; metric < metrics.length; metric++)
+                        values[column][metric] = getRandom(random, regionCount);
+
+                    writer.addColumn(columns[column], values[column]);
+                }
+            }
+
+            try (CoverageMatrix matrix = new CoverageMatrix(MATRIX_FILE)) {
+                matrix.open();
+                String name = regionCount + " regions";
+
+                if (!Arrays.equals(matrix.getMetrics(), metrics) || !Arrays.equals(matrix.getColumns(), columns))
+                    throw new IllegalStateException(name + ": metrics or columns differ");
+
+                if (matrix.getMetric("breadth_20") != 3 || matrix.getColumn("S2:hts") != 2 || matrix.getColumn("S3:hts") != -1)
+                    throw new IllegalStateException(name + ": metric or column index differs");
+
+                compareRegions(name, regions, matrix.getRegions());
+
+                for (int column = 0; column < columns.length; column++) {
+                    for (int metric = 0; metric < metrics.length; metric++) {
+                        float[] expected = values[column][metric];
+                        String label = name + ", " + columns[column] + ", " + metrics[metric];
+
+                        compare(label, expected, 0, expected.length, matrix.getValues(metric, column));
+
+                        for (int[] range : getRanges(random, regionCount)) {
+                            compare(label + " " + range[0] + "-" + range[1], expected, range[0], range[1],
+                                    matrix.getValues(metric, column, range[0], range[1]));
+                            ranges++;
+                        }
+
+                        if (regionCount > 0) {
+                            int region = random.nextInt(regionCount);
+                            compare(label + " " + region, expected, region, region + 1, new float[] {matrix.getValue(metric, column, region)});
+                        }
+                    }
+                }
+
+                checkBounds(name, matrix, regionCount);
+            }
+
+            System.out.println("Regions: " + regionCount + ", columns: " + columns.length + ", metrics: " + metrics.length + " - equal.");
+        }
+
+        System.out.println("Region ranges: " + ranges + " - equal.");
+    }
+
+    private static List<ChromosomeRegion> getRegions(int count) {
+        List<ChromosomeRegion> regions = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            ChromosomeRegion region = new ChromosomeRegion(Chromosome.valueOf("chr" + (1 + i % 22)), 1000 * i + 1, 1000 * i + 500);
+
+            if (i % 3 == 0)
+                region.setName("region" + i);
+
+            regions.add(region);
+        }
+
+        return regions;
+    }
+
+    /**
+     * @return random values with NaN (missing values), infinities, zeros and values of very different magnitudes
+     */
+    private static float[] getRandom(Random random, int count) {
+        float[] values = new float[count];
+
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(10)) {
+                case 0: values[i] = Float.NaN; break;
+                case 1: values[i] = random.nextBoolean() ? Float.POSITIVE_INFINITY : Float.NEGATIVE_INFINITY; break;
+                case 2: values[i] = random.nextBoolean() ? 0f : -0f; break;
+                case 3: values[i] = Float.intBitsToFloat(random.nextInt()); break;
+                case 4: values[i] = random.nextInt(100); break;
+                default: values[i] = random.nextFloat() * 100; break;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * @return whole, empty and single region ranges at chunk boundaries and at the end, and random ranges
+     */
+    private static List<int[]> getRanges(Random random, int count) {
+        List<int[]> ranges = new ArrayList<>();
+        ranges.add(new int[] {0, 0});
+        ranges.add(new int[] {count, count});
+        ranges.add(new int[] {0, count});
+
+        for (int boundary = CHUNK_REGIONS; boundary < count; boundary += CHUNK_REGIONS) {
+            ranges.add(new int[] {boundary - 1, boundary});
+            ranges.add(new int[] {boundary, boundary + 1});
+            ranges.add(new int[] {boundary - 1, boundary + 1});
+            ranges.add(new int[] {boundary, count});
+        }
+
+        if (count > 0)
+            ranges.add(new int[] {count - 1, count});
+
+        for (int i = 0; i < 20 && count > 0; i++) {
+            int from = random.nextInt(count + 1);
+            ranges.add(new int[] {from, from + random.nextInt(count - from + 1)});
+        }
+
+        return ranges;
+    }
+
+    private static void checkBounds(String name, CoverageMatrix matrix, int count) throws IOException {
+        int[][] invalid = {{-1, 0}, {0, count + 1}, {count, count + 1}, {1, 0}, {count + 1, count + 1}};
+
+        for (int[] range : invalid) {
+            try {
+                matrix.getValues(0, 0, range[0], range[1]);
+            }
+            catch (IndexOutOfBoundsException e) {
+                continue;
+            }
+
+            throw new IllegalStateException(name + ": invalid range " + range[0] + "-" + range[1] + " was read");
+        }
+
+        for (int[] index : new int[][] {{-1, 0}, {4, 0}, {0, -1}, {0, 3}}) {
+            try {
+                matrix.getValues(index[0], index[1]);
+            }
+            catch (IndexOutOfBoundsException e) {
+                continue;
+            }
+
+            throw new IllegalStateException(name + ": invalid metric " + index[0] + " or column " + index[1] + " was read");
+        }
+    }
+
+    private static void compareRegions(String name, List<ChromosomeRegion> expected, List<ChromosomeRegion> actual) {
+        if (expected.size() != actual.size())
+            throw new IllegalStateException(name + ": region count " + actual.size() + " differs from " + expected.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            ChromosomeRegion region = expected.get(i);
+            ChromosomeRegion read = actual.get(i);
+
+            if (region.getChromosome() != read.getChromosome() || region.getStart() != read.getStart()
+                    || region.getEnd() != read.getEnd() || !Objects.equals(region.getName(), read.getName()))
+                throw new IllegalStateException(name + ": region " + i + " " + read + " differs from " + region);
+        }
+    }
+
+    /**
+     * Values are compared by their bits, so NaN equals NaN and negative zero differs from zero.
+     */
+    private static void compare(String name, float[] expected, int from, int to, float[] actual) {
+        if (actual.length != to - from)
+            throw new IllegalStateException(name + ": value count " + actual.length + " differs from " + (to - from));
+
+        for (int i = 0; i < actual.length; i++)
+            if (Float.floatToIntBits(expected[from + i]) != Float.floatToIntBits(actual[i]))
+                throw new IllegalStateException(name + ": value " + (from + i) + " " + actual[i] + " differs from " + expected[from + i]);
+    }
+}
@@ -28,42 +28,33 @@ import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorST;
 import cz.vsb.genetics.om.coverage.BionanoCoverageCalculator;
 import org.apache.commons.lang3.time.StopWatch;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Date;
-import java.util.TimeZone;
+import java.util.*;
 
 public class TestCoveragePlot {
-//    private static final String BAM_FILE = "./src/test/resources/coverage/bam/test.bam";
-//    private static final String BAM_INDEX_FILE = "./src/test/resources/coverage/bam/test.bai";
-    private static final String BAM_FILE = "c:\\data\\fnol\\wgs\\linkedread\\phased_possorted_bam.chr21.bam";
-    private static final String BAM_INDEX_FILE = "c:\\data\\fnol\\wgs\\linkedread\\phased_possorted_bam.chr21.bam.bai";
-    private static final String BAM_COVERAGE_PLOT_ST = "c:\\tmp\\fnol\\test-hts-coverage\\test.coverage.bam.st.jpg";
-    private static final String BAM_COVERAGE_PLOT_MT = "c:\\tmp\\fnol\\test-hts-coverage\\test.coverage.bam.mt.jpg";
+    private static final String WORK_DIR = "./target/test-coverage";
+    private static final String BAM_FILE = WORK_DIR + "/synthetic.bam";
+    private static final String BAM_INDEX_FILE = BAM_FILE + ".bai";
+    private static final String BAM_COVERAGE_PLOT_ST = WORK_DIR + "/test.coverage.bam.st.jpg";
+    private static final String BAM_COVERAGE_PLOT_MT = WORK_DIR + "/test.coverage.bam.mt.jpg";
 
-    private static final String CMAP_REF = "c:\\data\\fnol\\wgs\\om\\test_r.cmap";
-    private static final String CMAP_QRY = "c:\\data\\fnol\\wgs\\om\\test_q.cmap";
-    private static final String XMAP = "c:\\data\\fnol\\wgs\\om\\test.xmap";
-    private static final String OM_COVERAGE_PLOT = "./src/test/resources/coverage/bam/test.coverage.om.jpg";
+    private static final String CMAP_REF = WORK_DIR + "/synthetic_r.cmap";
+    private static final String CMAP_QRY = WORK_DIR + "/synthetic_q.cmap";
+    private static final String XMAP = WORK_DIR + "/synthetic.xmap";
+    private static final String OM_COVERAGE_PLOT = WORK_DIR + "/test.coverage.om.jpg";
 
-    private static final String OM_BAM_COVERAGE_PLOT = "c:\\tmp\\fnol\\test-hts-coverage\\test.coverage.om.bam.jpg";
+    private static final String OM_BAM_COVERAGE_PLOT = WORK_DIR + "/test.coverage.om.bam.jpg";
 
     public static void main(String[] args) {
         try {
-            //ch17 - TP53
-//            Chromosome chromosome = Chromosome.chr17;
-//            int start = 7668421;
-//            int end = 7687490;
-
             Chromosome chromosome = Chromosome.chr21;
             int start = 1;
-            int end = 46709983;
+            int end = 10000000;
 
-//            Chromosome chromosome = Chromosome.chr21;
-//            int start = 8221000;
-//            int end = 8222000;
+            generateData(chromosome, end);
 
             //testBamCoverageAtIntervalST(chromosome, start, end);
             //testBamCoverageAtIntervalMT(chromosome, start, end, 6);
@@ -76,6 +67,19 @@ public class TestCoveragePlot {
         }
     }
 
+    public static void generateData(Chromosome chromosome, int length) throws Exception {
+        Map<Chromosome, Integer> contigs = Collections.singletonMap(chromosome, length);
+
+        if (!new File(WORK_DIR).isDirectory() && !new File(WORK_DIR).mkdirs())
+            throw new IOException("Cannot create directory: " + WORK_DIR);
+
+        if (!new File(BAM_INDEX_FILE).exists())
+            new SyntheticBamGenerator().write(BAM_FILE, contigs);
+
+        if (!new File(XMAP).exists())
+            new SyntheticBionanoGenerator().write(CMAP_REF, CMAP_QRY, XMAP, contigs);
+    }
+
     public static void testBamCoverageAtIntervalST(Chromosome chromosome, int start, int end) throws Exception {
         System.out.println("\nTesting bam coverage info at interval - single-threaded.");
 
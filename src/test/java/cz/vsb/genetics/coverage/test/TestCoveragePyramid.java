@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.coverage.main.*;
+import cz.vsb.genetics.ngs.coverage.BamCoverageCalculatorST;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Compares statistics of coverage pyramid with statistics of base level coverage for regions not aligned to
+ * pyramid bins - sum, min, max and mean must be equal when edge bins are read from the source BAM file. Pyramid
+ * of many small regions must open (mappings do not grow with regions) and find regions like the whole chromosome.
+ */
+public class TestCoveragePyramid {
+    private static final String WORK_DIR = "./target/test-coverage";
+    private static final String BAM_FILE = WORK_DIR + "/synthetic.indels.bam";
+    private static final String BAM_INDEX_FILE = BAM_FILE + ".bai";
+    private static final String PYRAMID_FILE = WORK_DIR + "/synthetic.indels.pyr";
+    private static final String REGIONS_PYRAMID_FILE = WORK_DIR + "/synthetic.indels.regions.pyr";
+
+    public static void main(String[] args) {
+        try {
+            Chromosome chromosome = Chromosome.chr21;
+            int length = 2000000;
+
+            TestBamCoverage.generateData(chromosome, length);
+
+            List<ChromosomeRegion> regions = TestBamCoverage.getRandomRegions(chromosome, length, 200, 50000);
+            buildPyramid(chromosome, length, 20);
+
+            testPyramidStatistics(regions, 20);
+            testManyRegions(chromosome, length, 20);
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage() + "\n");
+            e.printStackTrace();
+        }
+    }
+
+    public static void buildPyramid(Chromosome chromosome, int length, int mappingQuality) throws Exception {
+        buildPyramid(PYRAMID_FILE, Collections.singletonList(new ChromosomeRegion(chromosome, 1, length)), mappingQuality);
+    }
+
+    public static void buildPyramid(String pyramidFile, List<ChromosomeRegion> regions, int mappingQuality) throws Exception {
+        try (CoverageCalculator coverageCalculator = new BamCoverageCalculatorST(BAM_FILE, BAM_INDEX_FILE)) {
+            coverageCalculator.open();
+            coverageCalculator.setMappingQuality(mappingQuality);
+
+            CoveragePyramidWriter pyramidWriter = new CoveragePyramidWriter(coverageCalculator, 0, BAM_FILE);
+            pyramidWriter.setMappingQuality(mappingQuality);
+            pyramidWriter.write(pyramidFile, regions);
+        }
+    }
+
+    public static void testPyramidStatistics(List<ChromosomeRegion> regions, int mappingQuality) throws Exception {
+        System.out.println("\nComparing coverage pyramid statistics with base level statistics.");
+
+        CoverageHistogramStatistics stats = new CoverageHistogramStatistics();
+        int approximate = 0;
+
+        try (CoveragePyramid pyramid = new CoveragePyramid(PYRAMID_FILE);
+             CoveragePyramid approximatePyramid = new CoveragePyramid(PYRAMID_FILE);
+             CoverageCalculator coverageCalculator = new BamCoverageCalculatorST(BAM_FILE, BAM_INDEX_FILE)) {
+            pyramid.open();
+            approximatePyramid.open();
+            coverageCalculator.open();
+            coverageCalculator.setMappingQuality(mappingQuality);
+
+            if (!pyramid.openSource())
+                throw new IllegalStateException("Source bam of coverage pyramid not opened: " + BAM_FILE);
+
+            for (ChromosomeRegion region : regions) {
+                CoverageInfo coverageInfo = coverageCalculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
+                stats.calculateStatistics(coverageInfo);
+                long[] expected = {getSum(coverageInfo), stats.min(), stats.max(), stats.mean()};
+
+                BinnedCoverageInfo binnedCoverageInfo = pyramid.getCoverageInfo(region, 0);
+                stats.calculateStatistics(binnedCoverageInfo);
+                long[] actual = {getSum(binnedCoverageInfo), stats.min(), stats.max(), stats.mean()};
+
+                if (binnedCoverageInfo.isApproximate() || !Arrays.equals(expected, actual))
+                    throw new IllegalStateException("Pyramid statistics differ at " + region + " (sum, min, max, mean): "
+                            + Arrays.toString(expected) + " != " + Arrays.toString(actual));
+
+                if (region.getStart() % 100 != 1 || region.getEnd() % 100 != 0)
+                    if (approximatePyramid.getCoverageInfo(region, 0).isApproximate())
+                        approximate++;
+            }
+        }
+
+        System.out.println("Regions: " + regions.size() + " - equal, without source bam approximate: " + approximate);
+    }
+
+    /**
+     * Builds pyramid of 100 base regions in random order (5 levels of 20000 regions, more than default limit of
+     * memory mappings when each level were mapped separately) and compares them with the whole chromosome pyramid.
+     */
+    public static void testManyRegions(Chromosome chromosome, int length, int mappingQuality) throws Exception {
+        System.out.println("\nComparing coverage pyramid of many regions with whole chromosome pyramid.");
+
+        List<ChromosomeRegion> regions = new ArrayList<>();
+
+        for (int start = 1; start + 99 <= length; start += 100)
+            regions.add(new ChromosomeRegion(chromosome, start, start + 99));
+
+        Collections.shuffle(regions, new Random(1));
+        buildPyramid(REGIONS_PYRAMID_FILE, regions, mappingQuality);
+
+        try (CoveragePyramid pyramid = new CoveragePyramid(PYRAMID_FILE);
+             CoveragePyramid regionsPyramid = new CoveragePyramid(REGIONS_PYRAMID_FILE)) {
+            pyramid.open();
+            regionsPyramid.open();
+
+            for (ChromosomeRegion region : regions) {
+                BinnedCoverageInfo expected = pyramid.getCoverageInfo(region, 0);
+                BinnedCoverageInfo actual = regionsPyramid.getCoverageInfo(region, 0);
+
+                if (actual.getBinCount() != 1 || expected.getMin(0) != actual.getMin(0) || expected.getMax(0) != actual.getMax(0)
+                        || expected.getSum(0) != actual.getSum(0))
+                    throw new IllegalStateException("Pyramid region bins differ at " + region);
+
+                // overlaps this region by 70 and the next one by 50 bases
+                ChromosomeRegion shifted = new ChromosomeRegion(chromosome, region.getStart() + 30, region.getEnd() + 50);
+                BinnedCoverageInfo shiftedInfo = regionsPyramid.getCoverageInfo(shifted, 0);
+
+                if (shiftedInfo.getPositionStart() != shifted.getStart() || shiftedInfo.getPositionEnd() != region.getEnd())
+                    throw new IllegalStateException("Pyramid region of largest overlap not found for " + shifted);
+            }
+
+            ChromosomeRegion outside = new ChromosomeRegion(chromosome, length + 1, length + 1000);
+
+            if (regionsPyramid.getCoverageInfo(outside, 0).getBinCount() != 0)
+                throw new IllegalStateException("Pyramid region found for " + outside);
+        }
+
+        System.out.println("Regions: " + regions.size() + " - equal.");
+    }
+
+    private static long getSum(CoverageInfo coverageInfo) {
+        long sum = 0;
+
+        if (coverageInfo instanceof BinnedCoverageInfo) {
+            BinnedCoverageInfo binnedCoverageInfo = (BinnedCoverageInfo) coverageInfo;
+
+            for (int i = 0; i < binnedCoverageInfo.getBinCount(); i++)
+                sum += binnedCoverageInfo.getSum(i);
+        }
+        else
+            for (int coverage : coverageInfo.getCoverages())
+                sum += coverage;
+
+        return sum;
+    }
+}
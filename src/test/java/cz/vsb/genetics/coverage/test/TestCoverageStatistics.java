@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.coverage.CoverageStatistics;
+import cz.vsb.genetics.coverage.main.CoverageHistogramStatistics;
+
+import java.util.*;
+
+/**
+ * Compares {@link CoverageHistogramStatistics} with library {@link CoverageStatistics} and with statistics of
+ * sorted coverage on random arrays and edge cases - empty array, single value, all zeros, one huge spike, long
+ * runs and random depths above histogram limit. Breadth of coverage and low coverage intervals are compared with
+ * per base counts.
+ */
+public class TestCoverageStatistics {
+    public static void main(String[] args) {
+        try {
+            Map<String, int[]> arrays = getArrays();
+
+            testSortedStatistics(arrays);
+            testLibraryStatistics(arrays);
+            testNegativeDepth();
+            testBreadthAndLowCoverage();
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage() + "\n");
+            e.printStackTrace();
+        }
+    }
+
+    public static Map<String, int[]> getArrays() {
+        Map<String, int[]> arrays = new LinkedHashMap<>();
+        Random random = new Random(1);
+
+        arrays.put("empty", new int[0]);
+        arrays.put("single", new int[] {7});
+        arrays.put("zeros", new int[1000]);
+
+        int[] spike = new int[1000];
+        spike[500] = Integer.MAX_VALUE;
+        arrays.put("spike", spike);
+
+        int[] high = new int[1001];
+        for (int i = 0; i < high.length; i++)
+            high[i] = CoverageHistogramStatistics.HISTOGRAM_LIMIT - 500 + i;
+        arrays.put("histogram limit", high);
+
+        // amplicon like coverage - long runs of equal depth above histogram limit with a few shallow gaps
+        int[] deepRuns = new int[2000000];
+        for (int i = 0; i < deepRuns.length; ) {
+            int depth = random.nextInt(10) == 0 ? random.nextInt(100) : CoverageHistogramStatistics.HISTOGRAM_LIMIT + random.nextInt(100000);
+            int end = Math.min(deepRuns.length, i + 1 + random.nextInt(200000));
+
+            Arrays.fill(deepRuns, i, end, depth);
+            i = end;
+        }
+        arrays.put("deep runs", deepRuns);
+
+        int[] deepRandom = new int[200000];
+        for (int i = 0; i < deepRandom.length; i++)
+            deepRandom[i] = CoverageHistogramStatistics.HISTOGRAM_LIMIT + random.nextInt(i % 2 == 0 ? 50 : 1000000);
+        arrays.put("deep random", deepRandom);
+
+        for (int i = 0; i < 20; i++) {
+            int[] coverages = new int[1 + random.nextInt(100000)];
+            int depth = 1 + random.nextInt(i < 15 ? 200 : 200000);
+
+            for (int j = 0; j < coverages.length; j++)
+                coverages[j] = random.nextInt(depth);
+
+            arrays.put("random " + i, coverages);
+        }
+
+        return arrays;
+    }
+
+    /**
+     * Statistics of sorted coverage by rules documented in {@link CoverageHistogramStatistics}.
+     */
+    public static void testSortedStatistics(Map<String, int[]> arrays) {
+        System.out.println("\nComparing histogram statistics with statistics of sorted coverage.");
+
+        CoverageHistogramStatistics stats = new CoverageHistogramStatistics();
+
+        for (Map.Entry<String, int[]> entry : arrays.entrySet()) {
+            int[] sorted = entry.getValue().clone();
+            Arrays.sort(sorted);
+
+            int[] expected = new int[7];
+            int n = sorted.length;
+
+            if (n > 0) {
+                double mean = 0;
+                for (int value : sorted)
+                    mean += value;
+                mean /= n;
+
+                double squares = 0;
+                for (int value : sorted)
+                    squares += (value - mean) * (value - mean);
+
+                expected = new int[] {sorted[0], sorted[(n - 1) / 4], sorted[(n - 1) / 2], sorted[(int) ((n - 1) * 3L / 4)],
+                        sorted[n - 1], (int) Math.round(mean), (int) Math.round(Math.sqrt(squares / n))};
+            }
+
+            stats.calculateStatistics(entry.getValue());
+            compare(entry.getKey(), expected, getValues(stats));
+        }
+
+        System.out.println("Arrays: " + arrays.size() + " - equal.");
+    }
+
+    public static void testLibraryStatistics(Map<String, int[]> arrays) {
+        System.out.println("\nComparing histogram statistics with library statistics.");
+
+        CoverageHistogramStatistics stats = new CoverageHistogramStatistics();
+        CoverageStatistics libraryStats = new CoverageStatistics();
+
+        for (Map.Entry<String, int[]> entry : arrays.entrySet()) {
+            CoverageInfo coverageInfo = new CoverageInfo();
+            coverageInfo.setPositionStart(1);
+            coverageInfo.setPositionEnd(entry.getValue().length);
+            coverageInfo.setCoverages(entry.getValue());
+
+            try {
+                libraryStats.calculateStatistics(coverageInfo);
+            }
+            catch (RuntimeException e) {
+                System.out.println(entry.getKey() + " - library statistics failed: " + e);
+                continue;
+            }
+
+            int[] expected = {libraryStats.min(), libraryStats.q1(), libraryStats.median(), libraryStats.q3(),
+                    libraryStats.max(), libraryStats.mean(), libraryStats.standardDeviation()};
+
+            stats.calculateStatistics(coverageInfo);
+            compare(entry.getKey(), expected, getValues(stats));
+        }
+
+        System.out.println("Arrays: " + arrays.size() + " - equal.");
+    }
+
+    public static void testNegativeDepth() {
+        System.out.println("\nTesting negative coverage depth.");
+
+        CoverageHistogramStatistics stats = new CoverageHistogramStatistics();
+
+        try {
+            stats.calculateStatistics(new int[] {5, 3, -1, 4});
+            throw new IllegalStateException("Negative coverage depth accepted");
+        }
+        catch (IllegalArgumentException e) {
+            System.out.println("Rejected: " + e.getMessage());
+        }
+
+        stats.calculateStatistics(new int[] {1, 2, 3});
+        compare("after negative depth", new int[] {1, 1, 2, 2, 3, 2, 1}, getValues(stats));
+    }
+
+    public static void testBreadthAndLowCoverage() {
+        System.out.println("\nComparing breadth and low coverage intervals with per base counts.");
+
+        Map<String, int[]> arrays = new LinkedHashMap<>();
+        Random random = new Random(1);
+
+        arrays.put("empty", new int[0]);
+        arrays.put("threshold at depth", new int[] {20, 20, 20, 20, 20});
+        arrays.put("low at start and end", new int[] {0, 0, 5, 30, 30, 9, 10, 30, 2, 0});
+        arrays.put("low single bases at start and end", new int[] {3, 30, 30, 30, 3});
+        arrays.put("whole region low", new int[] {3, 0, 9, 9, 1});
+        arrays.put("single low", new int[] {9});
+        arrays.put("single high", new int[] {10});
+
+        for (int i = 0; i < 20; i++) {
+            int[] coverages = new int[1 + random.nextInt(20000)];
+
+            for (int j = 0; j < coverages.length; ) {
+                int end = Math.min(coverages.length, j + 1 + random.nextInt(50));
+                Arrays.fill(coverages, j, end, random.nextInt(40));
+                j = end;
+            }
+
+            arrays.put("random runs " + i, coverages);
+        }
+
+        int[] thresholds = {1, 10, 20, 21, 30};
+        CoverageHistogramStatistics stats = new CoverageHistogramStatistics();
+        stats.setBreadthThresholds(thresholds);
+        int intervals = 0;
+
+        for (Map.Entry<String, int[]> entry : arrays.entrySet()) {
+            int[] coverages = entry.getValue();
+
+            for (int lowThreshold : new int[] {10, 20, 21}) {
+                String name = entry.getKey() + ", low coverage threshold " + lowThreshold;
+                CoverageInfo coverageInfo = new CoverageInfo();
+                coverageInfo.setPositionStart(1001);
+                coverageInfo.setPositionEnd(1000 + coverages.length);
+                coverageInfo.setCoverages(coverages);
+
+                stats.setLowCoverageThreshold(lowThreshold);
+                stats.calculateStatistics(coverageInfo);
+
+                for (int i = 0; i < thresholds.length; i++) {
+                    long atLeast = 0;
+
+                    for (int coverage : coverages)
+                        if (coverage >= thresholds[i])
+                            atLeast++;
+
+                    double expected = coverages.length == 0 ? 0 : 100.0 * atLeast / coverages.length;
+
+                    if (stats.breadth(i) != expected)
+                        throw new IllegalStateException("Breadth at " + thresholds[i] + " differs for " + name + ": "
+                                + expected + " != " + stats.breadth(i));
+                }
+
+                List<double[]> expected = getLowCoverage(coverages, 1001, lowThreshold);
+
+                if (stats.getLowCoverageCount() != expected.size())
+                    throw new IllegalStateException("Low coverage interval count differs for " + name + ": "
+                            + expected.size() + " != " + stats.getLowCoverageCount());
+
+                for (int i = 0; i < expected.size(); i++) {
+                    double[] actual = {stats.getLowCoverageStart(i), stats.getLowCoverageEnd(i), stats.getLowCoverageMean(i)};
+
+                    if (!Arrays.equals(expected.get(i), actual))
+                        throw new IllegalStateException("Low coverage interval " + i + " differs for " + name + " (start, end, mean): "
+                                + Arrays.toString(expected.get(i)) + " != " + Arrays.toString(actual));
+                }
+
+                intervals += expected.size();
+            }
+        }
+
+        System.out.println("Arrays: " + arrays.size() + ", low coverage intervals: " + intervals + " - equal.");
+    }
+
+    /**
+     * @return start, end and mean of maximal runs of bases with coverage below threshold
+     */
+    private static List<double[]> getLowCoverage(int[] coverages, int positionStart, int threshold) {
+        List<double[]> intervals = new ArrayList<>();
+
+        for (int i = 0; i < coverages.length; i++) {
+            if (coverages[i] >= threshold || i > 0 && coverages[i - 1] < threshold)
+                continue;
+
+            int end = i;
+            long sum = 0;
+
+            while (end < coverages.length && coverages[end] < threshold)
+                sum += coverages[end++];
+
+            intervals.add(new double[] {positionStart + i, positionStart + end - 1, (double) sum / (end - i)});
+        }
+
+        return intervals;
+    }
+
+    private static int[] getValues(CoverageHistogramStatistics stats) {
+        return new int[] {stats.min(), stats.q1(), stats.median(), stats.q3(), stats.max(), stats.mean(), stats.standardDeviation()};
+    }
+
+    private static void compare(String name, int[] expected, int[] actual) {
+        if (!Arrays.equals(expected, actual))
+            throw new IllegalStateException("Statistics differ for " + name + " (min, q1, median, q3, max, mean, stddev): "
+                    + Arrays.toString(expected) + " != " + Arrays.toString(actual));
+    }
+}
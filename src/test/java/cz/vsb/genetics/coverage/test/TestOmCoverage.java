@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2025  Tomas Novosad
+ * VSB-TUO, Faculty of Electrical Engineering and Computer Science
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package cz.vsb.genetics.coverage.test;
+
+import cz.vsb.genetics.common.Chromosome;
+import cz.vsb.genetics.common.ChromosomeRegion;
+import cz.vsb.genetics.coverage.CoverageCalculator;
+import cz.vsb.genetics.coverage.CoverageInfo;
+import cz.vsb.genetics.coverage.main.BionanoIndexWriter;
+import cz.vsb.genetics.coverage.main.BionanoIndexedCoverageCalculator;
+import cz.vsb.genetics.coverage.main.CoverageCache;
+import cz.vsb.genetics.om.coverage.BionanoCoverageCalculator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Compares coverage and site counts of {@link BionanoIndexedCoverageCalculator} with {@link BionanoCoverageCalculator}
+ * on synthetic CMAP and XMAP files and writes the same index concurrently. Interval tree of the index is checked
+ * against brute-force scan of random alignments - empty, tiny and large sets, nested, equal and reversed intervals.
+ */
+public class TestOmCoverage {
+    private static final String WORK_DIR = "./target/test-coverage";
+    private static final String CMAP_REF = WORK_DIR + "/synthetic_r.cmap";
+    private static final String CMAP_QRY = WORK_DIR + "/synthetic_q.cmap";
+    private static final String XMAP = WORK_DIR + "/synthetic.xmap";
+    private static final String OM_INDEX = WORK_DIR + "/synthetic.idx";
+    private static final String TREE_CMAP = WORK_DIR + "/tree_r.cmap";
+    private static final String TREE_XMAP = WORK_DIR + "/tree.xmap";
+    private static final String TREE_INDEX = WORK_DIR + "/tree.idx";
+
+    public static void main(String[] args) {
+        try {
+            Chromosome chromosome = Chromosome.chr21;
+            int length = 10000000;
+
+            generateData(chromosome, length);
+
+            String inputId = CoverageCache.getInputId(CMAP_REF, CMAP_QRY, XMAP);
+            String indexFile = BionanoIndexWriter.getIndexFile(OM_INDEX, inputId);
+
+            testIntervalTree(chromosome, 40);
+            testConcurrentIndexWrite(inputId, indexFile, 4);
+            testIndexedCoverage(inputId, indexFile, TestBamCoverage.getRandomRegions(chromosome, length, 200, 1000000));
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage() + "\n");
+            e.printStackTrace();
+        }
+    }
+
+    public static void generateData(Chromosome chromosome, int length) throws Exception {
+        if (!new File(WORK_DIR).isDirectory() && !new File(WORK_DIR).mkdirs())
+            throw new IOException("Cannot create directory: " + WORK_DIR);
+
+        if (!new File(XMAP).exists())
+            new SyntheticBionanoGenerator().write(CMAP_REF, CMAP_QRY, XMAP, Collections.singletonMap(chromosome, length));
+    }
+
+    public static void testConcurrentIndexWrite(String inputId, String indexFile, int threads) throws Exception {
+        System.out.println("\nWriting optical maps index concurrently.");
+
+        new File(indexFile).delete();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threads; i++)
+                results.add(executor.submit(() -> BionanoIndexWriter.writeIfChanged(CMAP_REF, CMAP_QRY, XMAP, inputId, indexFile)));
+
+            for (Future<Boolean> result : results)
+                System.out.println("Index verified: " + result.get());
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        File[] tmpFiles = new File(indexFile).getAbsoluteFile().getParentFile().listFiles((dir, name) -> name.endsWith(".tmp"));
+
+        if (tmpFiles != null && tmpFiles.length > 0)
+            throw new IllegalStateException("Temporary index files left: " + Arrays.toString(tmpFiles));
+
+        try (CoverageCalculator calculator = new BionanoIndexedCoverageCalculator(indexFile, inputId)) {
+            calculator.open();
+        }
+
+        try (CoverageCalculator calculator = new BionanoIndexedCoverageCalculator(indexFile, inputId + "changed")) {
+            calculator.open();
+            throw new IllegalStateException("Index of other input files opened");
+        }
+        catch (IOException e) {
+            System.out.println("Index of other input files rejected: " + e.getMessage());
+        }
+    }
+
+    public static void testIndexedCoverage(String inputId, String indexFile, List<ChromosomeRegion> regions) throws Exception {
+        System.out.println("\nComparing indexed optical maps coverage with cmap/xmap coverage.");
+
+        try (CoverageCalculator expectedCalculator = new BionanoCoverageCalculator(CMAP_REF, CMAP_QRY, XMAP);
+             CoverageCalculator indexCalculator = new BionanoIndexedCoverageCalculator(indexFile, inputId)) {
+            expectedCalculator.open();
+            indexCalculator.open();
+
+            for (ChromosomeRegion region : regions) {
+                CoverageInfo expected = expectedCalculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
+                CoverageInfo coverageInfo = indexCalculator.getIntervalCoverage(region.getChromosome(), region.getStart(), region.getEnd());
+
+                if (expected.getSiteCount() != coverageInfo.getSiteCount())
+                    throw new IllegalStateException("Site count differs at " + region + ": " + expected.getSiteCount() + " != " + coverageInfo.getSiteCount());
+
+                compare(region, expected.getCoverages(), coverageInfo.getCoverages());
+            }
+        }
+
+        System.out.println("Regions: " + regions.size() + " - equal.");
+    }
+
+    public static void testIntervalTree(Chromosome chromosome, int trials) throws Exception {
+        System.out.println("\nComparing interval tree of optical maps index with brute-force scan.");
+
+        Random random = new Random(1);
+        int length = 1000000;
+        long queries = 0;
+
+        for (int trial = 0; trial < trials; trial++) {
+            int count = trial < 20 ? trial : 1 + random.nextInt(5000);
+            int[][] alignments = getRandomAlignments(random, count, length);
+            writeAlignments(chromosome, alignments, length);
+
+            String inputId = CoverageCache.getInputId(TREE_CMAP, TREE_CMAP, TREE_XMAP);
+            String indexFile = BionanoIndexWriter.getIndexFile(TREE_INDEX, inputId);
+            new File(indexFile).delete();
+            BionanoIndexWriter.writeIfChanged(TREE_CMAP, TREE_CMAP, TREE_XMAP, inputId, indexFile);
+
+            try (CoverageCalculator calculator = new BionanoIndexedCoverageCalculator(indexFile, inputId)) {
+                calculator.open();
+
+                for (int i = 0; i < 200; i++, queries++) {
+                    int start = 1 + random.nextInt(length);
+                    if (count > 0 && i % 4 == 0)
+                        start = Math.min(length, Math.max(1, alignments[random.nextInt(count)][random.nextInt(2)] + random.nextInt(3) - 1));
+
+                    int end = Math.min(length, start + random.nextInt(i % 2 == 0 ? 100 : 100000));
+                    ChromosomeRegion region = new ChromosomeRegion(chromosome, start, end);
+
+                    int[] expected = new int[end - start + 1];
+                    for (int[] alignment : alignments)
+                        for (int position = Math.max(start, Math.min(alignment[0], alignment[1])); position <= Math.min(end, Math.max(alignment[0], alignment[1])); position++)
+                            expected[position - start]++;
+
+                    compare(region, expected, calculator.getIntervalCoverage(chromosome, start, end).getCoverages());
+                }
+            }
+
+            new File(indexFile).delete();
+        }
+
+        System.out.println("Trials: " + trials + ", queries: " + queries + " - equal.");
+    }
+
+    /**
+     * @return reference start and end of alignments - short, long, nested copies, equal starts and reversed
+     */
+    private static int[][] getRandomAlignments(Random random, int count, int length) {
+        int[][] alignments = new int[count][];
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && random.nextInt(10) == 0) {
+                int[] previous = alignments[random.nextInt(i)];
+                alignments[i] = random.nextBoolean() ? previous.clone() : new int[] {previous[0], previous[0] + random.nextInt(1000)};
+                continue;
+            }
+
+            int start = 1 + random.nextInt(length);
+            int end = Math.min(length, start + random.nextInt(random.nextInt(5) == 0 ? length / 2 : 1000));
+            alignments[i] = random.nextInt(5) == 0 ? new int[] {end, start} : new int[] {start, end};
+        }
+
+        return alignments;
+    }
+
+    private static void writeAlignments(Chromosome chromosome, int[][] alignments, int length) throws IOException {
+        String contigId = chromosome.name().substring(3);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(TREE_CMAP))) {
+            writer.write("#h CMapId\tContigLength\tNumSites\tSiteID\tLabelChannel\tPosition\tStdDev\tCoverage\tOccurrence\n");
+            writer.write(contigId + "\t" + length + ".0\t1\t1\t1\t1000.0\t1.0\t1\t1\n");
+            writer.write(contigId + "\t" + length + ".0\t1\t2\t0\t" + length + ".0\t1.0\t1\t1\n");
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(TREE_XMAP))) {
+            writer.write("#h XmapEntryID\tQryContigID\tRefContigID\tQryStartPos\tQryEndPos\tRefStartPos\tRefEndPos\tOrientation\tConfidence\n");
+
+            for (int i = 0; i < alignments.length; i++)
+                writer.write((i + 1) + "\t" + (i + 1) + "\t" + contigId + "\t1.0\t1000.0\t" + alignments[i][0] + ".0\t" + alignments[i][1] + ".0\t+\t20.0\n");
+        }
+    }
+
+    private static void compare(ChromosomeRegion region, int[] expected, int[] actual) {
+        if (expected.length != actual.length)
+            throw new IllegalStateException("Coverage length differs at " + region + ": " + expected.length + " != " + actual.length);
+
+        for (int i = 0; i < expected.length; i++)
+            if (expected[i] != actual[i])
+                throw new IllegalStateException("Coverage differs at " + region.getChromosome() + ":" + (region.getStart() + i)
+                        + ": " + expected[i] + " != " + actual[i]);
+    }
+}